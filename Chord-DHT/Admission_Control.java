@@ -0,0 +1,631 @@
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Class bounding the work a node accepts from its connections.
+ * 
+ * Requests fall in two lanes with limits of their own: the ring lane, for the
+ * requests routing lookups and maintaining the ring, and the client lane, for
+ * the requests reading and writing keys. Each lane runs at most a fixed number
+ * of requests at once; the next ones wait in a bounded queue, for a bounded
+ * time. A request finding the queue full, or waiting too long, is answered
+ * OVERLOADED at once, so that a spike of client requests is shed at the node
+ * instead of exhausting its threads and timing out the lookups of the whole
+ * ring. Keeping the ring requests apart lets stabilization and the lookups
+ * passing through the node go on while its clients are turned away.
+ * 
+ * The queue of a lane is served by weighted fair queuing: the requests of each
+ * client, known by its address, get a share of the lane in proportion to the
+ * weight of the client (1 unless set with -Dchord.fair.weights), however many
+ * requests it sends. A request runs at once, without taking any lock, while
+ * the lane has room and nothing waits; the queue is locked only when the lane
+ * is full.
+ * 
+ * Before that, the requests sent by clients, as opposed to those forwarded by
+ * other nodes, may be rate limited per client address and per tenant, the
+ * part of the key before TENANT_SEPARATOR. A request over its rate is answered
+ * RATE_LIMITED.
+ * 
+ * The number of open connections is bounded as well, since each one is served
+ * by a thread: in total when they are accepted, then per lane once their first
+ * request tells which lane they belong to, so that idle client connections
+ * never take the connections of the ring. Keep-alive connections are client
+ * connections, and any connection is closed after IDLE_MILLIS without a
+ * request.
+ * 
+ * The operations controlling the node itself, such as Leave, are only accepted
+ * from the node's own host and from the operator addresses given with
+ * -Dchord.operators, and run in the ring lane.
+ * 
+ * Constructor:
+ * - Admission_Control(): Reads the limits from the system properties.
+ * 
+ * Methods:
+ * - isRingOperation(operation): Checks whether an operation belongs to the
+ * ring lane.
+ * - isAllowed(operation, client): Checks whether a client may send an operation.
+ * - isRetryLater(response): Checks whether a response asks to retry later.
+ * - tenantOf(key): Returns the tenant of a key.
+ * - keyOf(operation, argument): Returns the key of a request.
+ * - checkRate(message, client): Checks the rate limits of a request.
+ * - laneOf(message): Returns the lane of a request.
+ * - weightOf(client): Returns the weight of a client in the fair queues.
+ * - openConnection(): Counts a new connection, unless there are too many.
+ * - closeConnection(): Counts a closed connection.
+ * - openConnection(lane), closeConnection(lane): Count a connection of a lane.
+ * - getMetrics(): Returns the queue depths, rejection counters and service
+ * times of the lanes.
+ */
+class Admission_Control {
+
+    // Responses to a request turned away, which the client may send again later
+    public static final String OVERLOADED = "Error: overloaded, retry later";
+    public static final String RATE_LIMITED = "Error: rate limit reached, retry later";
+    // Response to a control operation sent from an address which is not an operator
+    public static final String NOT_ALLOWED = "Error: operation not allowed";
+    // Requests nodes send to each other: routing lookups, maintaining the ring,
+    // moving and copying keys, and the "*_Server" requests a node forwards to the
+    // owner of a key. The requests of the operators watching the node are served
+    // in the same lane
+    public static final Set<String> RING_OPERATIONS = new HashSet<>(Arrays.asList("Join_Request",
+            "Find_Predecessor", "Find_Successor", "Route", "Route_Reply", "Get_Successor", "Get_Predecessor",
+            "Get_Id", "Notify", "Set_Predecessor", "Set_Successor", "Replace_Node", "Get_Load", "Hand_Over",
+            "Send_Keys", "Take_Keys", "Request_Keys", "Keys_Moved", "Replica_Insert", "Replica_Delete",
+            "Replica_Sync", "Get_Merkle", "Get_Bloom", "Get_Rebalance", "Insert_Server", "Search_Server",
+            "Delete_Server", "CAS_Server", "Increment_Server", "Append_Server", "Scan_Server", "Get_Metrics",
+            "Get_Info"));
+    // Requests controlling the node itself, only accepted from operators
+    public static final Set<String> OPERATOR_OPERATIONS = new HashSet<>(Arrays.asList("Leave",
+            "Promote_Replicas", "Rebalance_Pause", "Rebalance_Resume"));
+    // Requests only sent by clients, whose first argument is a key; the "*_Server"
+    // requests count as well when a client sends them straight to the owner
+    public static final Set<String> CLIENT_OPERATIONS = new HashSet<>(Arrays.asList("Insert", "Search",
+            "Delete", "CAS", "Increment", "Append", "Scan", "Put_Blob", "Get_Blob", "Delete_Blob"));
+    // Longest time a request waits in the queue of its lane
+    public static final long WAIT_MILLIS = Long.getLong("chord.admission.wait", 1000L);
+    // Longest time a connection stays open without a request
+    public static final int IDLE_MILLIS = Integer.getInteger("chord.admission.idle", 60000);
+    // Separator ending the tenant part of a key, as in "tenant/key"
+    public static final String TENANT_SEPARATOR = System.getProperty("chord.tenant.separator", "/");
+
+    /*
+     * Service times of the requests of a lane, from their arrival in the lane to
+     * their answer, over the current and the previous window of WINDOW_NANOS.
+     * Times are counted in buckets of microseconds, 8 per power of two, so the
+     * percentiles are within 1/8 of the real value.
+     */
+    static final class Latency_Window {
+
+        private static final long WINDOW_NANOS = 10_000_000_000L;
+        private static final int BUCKETS = 488; // Up to the largest long
+
+        /*
+         * Counts of one window.
+         */
+        private static final class Counts {
+            final long start;
+            final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+            final AtomicLong count = new AtomicLong();
+            final AtomicLong sum = new AtomicLong(); // Microseconds
+
+            Counts(long start) {
+                this.start = start;
+            }
+        }
+
+        private volatile Counts current = new Counts(System.nanoTime());
+        private volatile Counts previous = new Counts(System.nanoTime());
+
+        // Bucket of a time: exact below 8 microseconds, then 8 buckets per power of two
+        private static int bucketOf(long micros) {
+            if (micros < 8) {
+                return (int) Math.max(0, micros);
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            return (exponent - 2) * 8 + (int) ((micros >>> (exponent - 3)) & 7);
+        }
+
+        // Highest time of a bucket
+        private static long highestOf(int bucket) {
+            if (bucket < 8) {
+                return bucket;
+            }
+            int shift = bucket / 8 - 1;
+            return ((8L + bucket % 8 + 1) << shift) - 1;
+        }
+
+        /**
+         * Counts the service time of a request.
+         *
+         * @param nanos The service time in nanoseconds.
+         */
+        void record(long nanos) {
+            long now = System.nanoTime();
+            Counts counts = this.current;
+            if (now - counts.start > WINDOW_NANOS) {
+                synchronized (this) {
+                    if (this.current == counts) {
+                        this.previous = counts;
+                        this.current = new Counts(now);
+                    }
+                    counts = this.current;
+                }
+            }
+            long micros = nanos / 1000;
+            counts.buckets.incrementAndGet(bucketOf(micros));
+            counts.count.incrementAndGet();
+            counts.sum.addAndGet(micros);
+        }
+
+        /**
+         * Returns the mean and 99th percentile of the service times of the last
+         * one or two windows, in microseconds.
+         *
+         * @param prefix The prefix of the metric names.
+         * @return The metrics, as "<prefix>_latency_mean_us=<n>,<prefix>_latency_p99_us=<n>".
+         */
+        String getMetrics(String prefix) {
+            Counts recent = this.current;
+            Counts older = this.previous;
+            long count = recent.count.get() + older.count.get();
+            long mean = count == 0 ? 0 : (recent.sum.get() + older.sum.get()) / count;
+            long p99 = 0;
+            long rank = (long) Math.ceil(count * 0.99);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS && count > 0; i++) {
+                seen += recent.buckets.get(i) + older.buckets.get(i);
+                if (seen >= rank) {
+                    p99 = highestOf(i);
+                    break;
+                }
+            }
+            return prefix + "_latency_mean_us=" + mean + "," + prefix + "_latency_p99_us=" + p99;
+        }
+    }
+
+    /*
+     * Requests of one class: at most limit run at once and queueLimit wait,
+     * ordered by the virtual time at which they would finish if every client
+     * waiting had its share of the lane.
+     */
+    static final class Lane {
+
+        // Number of clients whose finish time is kept; beyond it, the clients whose
+        // finish time has passed are forgotten, as they start from the virtual time
+        // anyway
+        private static final int MAX_FLOWS = 4096;
+
+        final String name;
+        final int limit;
+        final int queueLimit;
+        final int connectionLimit;
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicLong rejectedConnections = new AtomicLong();
+        final Latency_Window latency = new Latency_Window(); // Service times of the requests admitted
+        // Waiting requests, the finish time of the last request of each client and
+        // the virtual time of the lane, guarded by the lane
+        private final PriorityQueue<Waiter> waiting = new PriorityQueue<>();
+        private final Map<String, Double> finishTimes = new HashMap<>();
+        private double virtualTime;
+        private long sequence;
+
+        /*
+         * Request waiting for its turn.
+         */
+        static final class Waiter implements Comparable<Waiter> {
+            final double start;
+            final double finish;
+            final long sequence; // Order of arrival, between equal finish times
+            final CountDownLatch turn = new CountDownLatch(1);
+            boolean granted; // Guarded by the lane
+
+            Waiter(double start, double finish, long sequence) {
+                this.start = start;
+                this.finish = finish;
+                this.sequence = sequence;
+            }
+
+            public int compareTo(Waiter other) {
+                int byFinish = Double.compare(this.finish, other.finish);
+                return byFinish != 0 ? byFinish : Long.compare(this.sequence, other.sequence);
+            }
+        }
+
+        Lane(String name, int limit, int queueLimit, int connectionLimit) {
+            this.name = name;
+            this.limit = limit;
+            this.queueLimit = queueLimit;
+            this.connectionLimit = connectionLimit;
+        }
+
+        /**
+         * Admits a request, waiting in the queue if the lane is full.
+         *
+         * @param client The client the request comes from.
+         * @param weight The weight of the client.
+         * @return True if the request may run, false if it must be answered
+         *         OVERLOADED.
+         */
+        boolean enter(String client, double weight) {
+            // Running at once, without locking, while nothing waits
+            if (this.queued.get() == 0 && this.tryRun()) {
+                return true;
+            }
+            Waiter waiter;
+            synchronized (this) {
+                if (this.queued.get() >= this.queueLimit) {
+                    this.rejected.incrementAndGet();
+                    return false;
+                }
+                if (this.finishTimes.size() >= MAX_FLOWS && !this.finishTimes.containsKey(client)) {
+                    double now = this.virtualTime;
+                    this.finishTimes.values().removeIf(finish -> finish <= now);
+                }
+                double start = Math.max(this.virtualTime, this.finishTimes.getOrDefault(client, 0.0));
+                waiter = new Waiter(start, start + 1 / weight, this.sequence++);
+                // A new client beyond MAX_FLOWS clients still waiting is not followed
+                if (this.finishTimes.size() < MAX_FLOWS || this.finishTimes.containsKey(client)) {
+                    this.finishTimes.put(client, waiter.finish);
+                }
+                this.waiting.add(waiter);
+                this.queued.incrementAndGet();
+                // A request may have ended since the first attempt
+                this.grant();
+            }
+            try {
+                if (waiter.turn.await(WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                if (waiter.granted) {
+                    return true;
+                }
+                this.waiting.remove(waiter);
+                this.queued.decrementAndGet();
+                this.forget(client, waiter);
+            }
+            this.rejected.incrementAndGet();
+            return false;
+        }
+
+        // Takes back the share a request turned away was charged to its client, so
+        // that the next requests of the client are not ordered behind it. Its later
+        // requests already waiting keep their order. A finish time no later than the
+        // virtual time no longer counts and is forgotten. Called with the lane locked
+        private void forget(String client, Waiter waiter) {
+            Double last = this.finishTimes.get(client);
+            if (last == null) {
+                return; // Forgotten with all the clients meanwhile
+            }
+            double finish = last - (waiter.finish - waiter.start);
+            if (finish <= this.virtualTime) {
+                this.finishTimes.remove(client);
+            } else {
+                this.finishTimes.put(client, finish);
+            }
+        }
+
+        /**
+         * Ends a request admitted by enter(), letting the next waiting one run, and
+         * counts its service time.
+         *
+         * @param start The time the request arrived in the lane, from System.nanoTime().
+         */
+        void exit(long start) {
+            this.latency.record(System.nanoTime() - start);
+            this.running.decrementAndGet();
+            if (this.queued.get() > 0) {
+                synchronized (this) {
+                    this.grant();
+                }
+            }
+        }
+
+        // Lets the waiting requests which finish first run while the lane has room;
+        // called with the lane locked
+        private void grant() {
+            while (!this.waiting.isEmpty() && this.tryRun()) {
+                Waiter next = this.waiting.poll();
+                this.queued.decrementAndGet();
+                this.virtualTime = Math.max(this.virtualTime, next.start);
+                next.granted = true;
+                next.turn.countDown();
+            }
+        }
+
+        private boolean tryRun() {
+            while (true) {
+                int current = this.running.get();
+                if (current >= this.limit) {
+                    return false;
+                }
+                if (this.running.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        String getMetrics() {
+            return this.name + "_running=" + this.running.get() + "," + this.name + "_queued=" + this.queued.get()
+                    + "," + this.name + "_rejected=" + this.rejected.get() + "," + this.name + "_connections="
+                    + this.connections.get() + "," + this.name + "_connections_rejected="
+                    + this.rejectedConnections.get() + "," + this.latency.getMetrics(this.name);
+        }
+    }
+
+    public final Lane client;
+    public final Lane ring;
+    private final int maxConnections;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong rejectedConnections = new AtomicLong();
+    // Rate limits per client address and per tenant, or null if not limited
+    private final Rate_Limiter clientRates;
+    private final Rate_Limiter tenantRates;
+    // Weights of the clients in the fair queues, by address
+    private final Map<String, Double> weights = new HashMap<>();
+    // Addresses allowed to send the operator operations, besides the local ones
+    private final Set<String> operators = new HashSet<>();
+
+    /**
+     * Initializes the limits from the system properties:
+     * -Dchord.admission.client and -Dchord.admission.ring (requests run at once),
+     * their ".queue" and ".connections" counterparts (requests waiting and
+     * connections open), -Dchord.admission.connections (connections open in
+     * total, the sum of the lanes by default), -Dchord.operators (operator
+     * addresses separated by commas), -Dchord.ratelimit.client and -Dchord.ratelimit.tenant (requests per second,
+     * 0 for no limit), -Dchord.ratelimit.burst (requests at once, the rate by
+     * default) and -Dchord.fair.weights ("address=weight" pairs separated by
+     * commas).
+     */
+    public Admission_Control() {
+        this.client = new Lane("client", Integer.getInteger("chord.admission.client", 64),
+                Integer.getInteger("chord.admission.client.queue", 256),
+                Integer.getInteger("chord.admission.client.connections", 1024));
+        this.ring = new Lane("ring", Integer.getInteger("chord.admission.ring", 64),
+                Integer.getInteger("chord.admission.ring.queue", 256),
+                Integer.getInteger("chord.admission.ring.connections", 1024));
+        this.maxConnections = Integer.getInteger("chord.admission.connections",
+                this.client.connectionLimit + this.ring.connectionLimit);
+        for (String operator : System.getProperty("chord.operators", "").split(",")) {
+            if (!operator.trim().isEmpty()) {
+                this.operators.add(operator.trim());
+            }
+        }
+        double clientRate = Double.parseDouble(System.getProperty("chord.ratelimit.client", "0"));
+        double tenantRate = Double.parseDouble(System.getProperty("chord.ratelimit.tenant", "0"));
+        this.clientRates = clientRate > 0 ? new Rate_Limiter("client_rate_limited", clientRate,
+                Integer.getInteger("chord.ratelimit.burst", (int) Math.ceil(clientRate))) : null;
+        this.tenantRates = tenantRate > 0 ? new Rate_Limiter("tenant_rate_limited", tenantRate,
+                Integer.getInteger("chord.ratelimit.burst", (int) Math.ceil(tenantRate))) : null;
+        for (String pair : System.getProperty("chord.fair.weights", "").split(",")) {
+            int equals = pair.lastIndexOf('=');
+            if (equals > 0) {
+                this.weights.put(pair.substring(0, equals).trim(),
+                        Math.max(0.01, Double.parseDouble(pair.substring(equals + 1))));
+            }
+        }
+    }
+
+    /**
+     * Checks whether an operation belongs to the ring lane.
+     *
+     * @param operation The operation, without its arguments.
+     * @return True for the ring lane, false for the client lane.
+     */
+    public static boolean isRingOperation(String operation) {
+        return RING_OPERATIONS.contains(operation) || OPERATOR_OPERATIONS.contains(operation);
+    }
+
+    /**
+     * Checks whether a client may send an operation: the operator operations are
+     * only accepted from the local host and the operator addresses.
+     *
+     * @param operation The operation, without its arguments.
+     * @param client    The address of the sender.
+     * @return True if the operation may be served.
+     */
+    public boolean isAllowed(String operation, String client) {
+        if (!OPERATOR_OPERATIONS.contains(operation) || this.operators.contains(client)) {
+            return true;
+        }
+        try {
+            return InetAddress.getByName(client).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether a response turned the request away for now, so that the
+     * client should send it again after a while.
+     *
+     * @param response The response, or null.
+     * @return True for OVERLOADED and RATE_LIMITED.
+     */
+    public static boolean isRetryLater(String response) {
+        return OVERLOADED.equals(response) || RATE_LIMITED.equals(response);
+    }
+
+    /**
+     * Returns the tenant of a key, the part before TENANT_SEPARATOR.
+     *
+     * @param key The key.
+     * @return The tenant, or null if the key has none.
+     */
+    public static String tenantOf(String key) {
+        int separator = key.indexOf(TENANT_SEPARATOR);
+        return separator > 0 ? key.substring(0, separator) : null;
+    }
+
+    /**
+     * Returns the key of a request from its first argument. Inserts carry the key
+     * and the value in it as "key:value"; the other requests carry their values
+     * in the next arguments.
+     *
+     * @param operation The operation of the request.
+     * @param argument  The first argument of the request.
+     * @return The key.
+     */
+    static String keyOf(String operation, String argument) {
+        if (operation.equals("Insert") || operation.equals("Insert_Server")) {
+            int separator = argument.indexOf(':');
+            return separator >= 0 ? argument.substring(0, separator) : argument;
+        }
+        return argument;
+    }
+
+    /**
+     * Checks the rate limits of a request sent by a client, taking a token from
+     * the bucket of the client and from the bucket of the tenant of the key.
+     * Requests forwarded by other nodes were checked where they entered the ring
+     * and are not limited again.
+     *
+     * @param message The request, possibly behind a codec marker.
+     * @param client  The address of the sender.
+     * @return RATE_LIMITED if the request is over a limit, null otherwise.
+     */
+    public String checkRate(String message, String client) {
+        if (this.clientRates == null && this.tenantRates == null) {
+            return null;
+        }
+        if (message.startsWith(Message_Codec.ACCEPT)) {
+            message = message.substring(Message_Codec.ACCEPT.length());
+        }
+        String[] parts = message.split("\\|", 3);
+        boolean direct = parts[0].endsWith("_Server") && isDirect(message);
+        if (!CLIENT_OPERATIONS.contains(parts[0]) && !direct) {
+            return null;
+        }
+        if (this.clientRates != null && !this.clientRates.tryAcquire(client)) {
+            return RATE_LIMITED;
+        }
+        String tenant = parts.length > 1 ? tenantOf(keyOf(parts[0], parts[1])) : null;
+        if (this.tenantRates != null && tenant != null && !this.tenantRates.tryAcquire(tenant)) {
+            return RATE_LIMITED;
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether a "*_Server" request was sent by a client straight to the
+     * owner, looking for the "direct" option only after the key and values of the
+     * request, as the node does.
+     *
+     * @param message The request, without codec marker.
+     * @return True if the request carries the option.
+     */
+    private static boolean isDirect(String message) {
+        String[] split = message.split("\\|");
+        String[] args = Arrays.copyOfRange(split, 1, split.length);
+        switch (split[0]) {
+            case "CAS_Server":
+                return Node.hasOption(args, 3, "direct");
+            case "Increment_Server":
+            case "Append_Server":
+                return Node.hasOption(args, 2, "direct");
+            default:
+                return Node.hasOption(args, 1, "direct");
+        }
+    }
+
+    /**
+     * Returns the lane of a request. A compressed request must be expanded first,
+     * as its operation cannot be read.
+     *
+     * @param message The request, possibly behind the marker accepting
+     *                compression.
+     * @return The lane.
+     */
+    public Lane laneOf(String message) {
+        if (message.startsWith(Message_Codec.ACCEPT)) {
+            message = message.substring(Message_Codec.ACCEPT.length());
+        }
+        int separator = message.indexOf('|');
+        String operation = separator < 0 ? message : message.substring(0, separator);
+        // A client sending a "*_Server" request straight to the owner is a client
+        if (operation.endsWith("_Server") && isDirect(message)) {
+            return this.client;
+        }
+        return isRingOperation(operation) ? this.ring : this.client;
+    }
+
+    /**
+     * Returns the weight of a client in the fair queues.
+     *
+     * @param client The address of the client.
+     * @return The weight, 1 unless set.
+     */
+    public double weightOf(String client) {
+        return this.weights.getOrDefault(client, 1.0);
+    }
+
+    /**
+     * Counts a new connection, unless the node already serves as many as allowed.
+     *
+     * @return True if the connection may be served.
+     */
+    public boolean openConnection() {
+        if (this.connections.incrementAndGet() > this.maxConnections) {
+            this.connections.decrementAndGet();
+            this.rejectedConnections.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public void closeConnection() {
+        this.connections.decrementAndGet();
+    }
+
+    /**
+     * Counts a connection of a lane, once its first request tells the lane,
+     * unless the lane already has as many as allowed.
+     *
+     * @param lane The lane of the connection.
+     * @return True if the connection may be served.
+     */
+    public boolean openConnection(Lane lane) {
+        if (lane.connections.incrementAndGet() > lane.connectionLimit) {
+            lane.connections.decrementAndGet();
+            lane.rejectedConnections.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public void closeConnection(Lane lane) {
+        lane.connections.decrementAndGet();
+    }
+
+    /**
+     * Returns the requests running and queued in each lane, the requests and
+     * connections turned away, and the open connections.
+     *
+     * @return The counters as "name=value" pairs separated by commas.
+     */
+    public String getMetrics() {
+        StringBuilder metrics = new StringBuilder();
+        metrics.append(this.client.getMetrics()).append(",").append(this.ring.getMetrics());
+        if (this.clientRates != null) {
+            metrics.append(",").append(this.clientRates.getMetrics());
+        }
+        if (this.tenantRates != null) {
+            metrics.append(",").append(this.tenantRates.getMetrics());
+        }
+        metrics.append(",connections=").append(this.connections.get());
+        metrics.append(",connections_rejected=").append(this.rejectedConnections.get());
+        return metrics.toString();
+    }
+
+}
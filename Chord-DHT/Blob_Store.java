@@ -0,0 +1,220 @@
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+ * Class to store large values, or blobs, as files of a directory of the node.
+ * A blob is written to a temporary file first and renamed once complete, so a
+ * reader always sees a whole blob. Blobs are served straight from the file to
+ * the connection, without passing through the heap.
+ *
+ * A blob file is named after the SHA-256 digest of its key, so that keys of any
+ * length make valid file names, and the key itself is kept in a side file of the
+ * same name ending in ".key". Blobs are at most MAX_LENGTH bytes, and the space
+ * of a blob is reserved on the disk before its bytes are accepted.
+ *
+ * Constructor:
+ * - Blob_Store(directory): Uses the given directory, created on first write.
+ *
+ * Methods:
+ * - reserve(length): Reserves the disk space of a blob about to be received.
+ * - release(length): Releases the space reserved for a blob.
+ * - receive(key, reader, length): Stores a blob read from a connection.
+ * - open(key): Opens a blob for reading.
+ * - delete(key): Deletes a blob.
+ * - transfer(file, out): Sends a whole file to a channel.
+ * - keys(): Returns the keys of the stored blobs.
+ */
+class Blob_Store {
+
+    // Largest blob accepted, in bytes
+    public static final long MAX_LENGTH = Long.getLong("chord.blob.max", 1L << 30);
+
+    private final Path directory;
+    private final AtomicLong reserved = new AtomicLong(); // Bytes of the blobs being received
+
+    /**
+     * Initializes the store on a directory, created when the first blob is
+     * written.
+     *
+     * @param directory The directory of the blob files.
+     */
+    public Blob_Store(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the name of the files of a blob, the hexadecimal SHA-256 digest of
+     * the key, which is a valid file name whatever the length of the key.
+     *
+     * @param key The key of the blob.
+     * @return The name, without extension.
+     */
+    private static String name(String key) {
+        try {
+            StringBuilder name = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8))) {
+                name.append(String.format("%02x", b));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every Java platform provides SHA-256
+        }
+    }
+
+    /**
+     * Returns the file of a blob.
+     *
+     * @param key The key of the blob.
+     * @return The path of the file.
+     */
+    private Path path(String key) {
+        return directory.resolve(name(key) + ".blob");
+    }
+
+    /**
+     * Returns the side file holding the key of a blob.
+     *
+     * @param key The key of the blob.
+     * @return The path of the side file.
+     */
+    private Path keyPath(String key) {
+        return directory.resolve(name(key) + ".key");
+    }
+
+    /**
+     * Reserves the disk space of a blob about to be received, if the disk has room
+     * for it besides the blobs being received.
+     *
+     * @param length The length of the blob in bytes.
+     * @return True if the space was reserved, to be released once the blob is
+     *         received or given up.
+     * @throws IOException If the free space of the disk cannot be read.
+     */
+    public boolean reserve(long length) throws IOException {
+        Files.createDirectories(directory);
+        long usable = Files.getFileStore(directory).getUsableSpace();
+        long total = reserved.addAndGet(length);
+        if (total > usable) {
+            reserved.addAndGet(-length);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the space reserved for a blob.
+     *
+     * @param length The length of the blob in bytes.
+     */
+    public void release(long length) {
+        reserved.addAndGet(-length);
+    }
+
+    /**
+     * Stores a blob read from a connection, replacing any previous blob of the
+     * key once it is complete.
+     *
+     * @param key    The key of the blob.
+     * @param reader The reader of the connection, positioned at the blob.
+     * @param length The length of the blob in bytes.
+     * @throws IOException If the blob cannot be read or written.
+     */
+    public void receive(String key, Request_Reader reader, long length) throws IOException {
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, "upload", ".tmp");
+        try {
+            try (FileChannel file = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                reader.transferTo(file, length);
+            }
+            // Writing the key before the blob, so that every blob file has its key
+            Path keyTemp = Files.createTempFile(directory, "key", ".tmp");
+            try {
+                Files.write(keyTemp, key.getBytes(StandardCharsets.UTF_8));
+                Files.move(keyTemp, keyPath(key), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(keyTemp);
+            }
+            Files.move(temp, path(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Opens a blob for reading. The blob stays readable through the returned
+     * channel even if it is replaced or deleted meanwhile.
+     *
+     * @param key The key of the blob.
+     * @return The channel of the blob file, or null if there is no such blob.
+     * @throws IOException If the file cannot be opened.
+     */
+    public FileChannel open(String key) throws IOException {
+        try {
+            return FileChannel.open(path(key), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Deletes a blob.
+     *
+     * @param key The key of the blob.
+     * @return True if the blob existed.
+     * @throws IOException If the file cannot be deleted.
+     */
+    public boolean delete(String key) throws IOException {
+        boolean deleted = Files.deleteIfExists(path(key));
+        Files.deleteIfExists(keyPath(key));
+        return deleted;
+    }
+
+    /**
+     * Returns the keys of the stored blobs, read from their side files.
+     *
+     * @return The keys, empty if the directory does not exist yet.
+     * @throws IOException If the directory cannot be listed.
+     */
+    public List<String> keys() throws IOException {
+        List<String> keys = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return keys;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.blob")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Path keyFile = directory.resolve(name.substring(0, name.length() - ".blob".length()) + ".key");
+                try {
+                    keys.add(new String(Files.readAllBytes(keyFile), StandardCharsets.UTF_8));
+                } catch (NoSuchFileException e) {
+                    // Deleted meanwhile
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Sends a whole file to a channel. On Linux, a transfer to a socket is done by
+     * the kernel without copying the bytes to user space.
+     *
+     * @param file The file to send.
+     * @param out  The channel to send to.
+     * @throws IOException If the transfer fails.
+     */
+    public static void transfer(FileChannel file, WritableByteChannel out) throws IOException {
+        long size = file.size();
+        long position = 0;
+        while (position < size) {
+            position += file.transferTo(position, size - position, out);
+        }
+    }
+
+}
@@ -0,0 +1,1034 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Class representing a persistent connection to a node. Requests are pipelined:
+ * they are written as soon as they are sent and a reader thread completes the
+ * pending futures in order as the responses arrive. The futures are completed
+ * on an executor, so the code waiting for a response never holds up the
+ * responses behind it.
+ *
+ * Constructor:
+ * - Client_Connection(node, timeoutMillis, executor): Connects to the node and
+ * switches the connection to keep-alive mode.
+ *
+ * Methods:
+ * - send(message): Sends a request and returns the future of its response.
+ * - isOpen(): Returns whether the connection can still be used.
+ * - close(): Closes the connection and fails its pending requests.
+ */
+class Client_Connection implements Closeable {
+
+    private final Socket socket;
+    private final PrintWriter writer;
+    private final BufferedReader reader;
+    private final Queue<CompletableFuture<String>> pending;
+    private final Executor executor;
+    private volatile boolean open;
+
+    /**
+     * Connects to a node and switches the connection to keep-alive mode.
+     *
+     * @param node          The node to connect to.
+     * @param timeoutMillis The connect timeout.
+     * @param executor      The executor completing the futures of the responses.
+     * @throws IOException If the node cannot be reached or refuses keep-alive.
+     */
+    public Client_Connection(Node_Info node, int timeoutMillis, Executor executor) throws IOException {
+        this.executor = executor;
+        this.socket = new Socket();
+        this.socket.connect(new InetSocketAddress(node.ip, node.port), timeoutMillis);
+        this.socket.setTcpNoDelay(true);
+        this.writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), false);
+        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        this.pending = new ConcurrentLinkedQueue<>();
+
+        // Handshake before any request is pipelined
+        writer.println("Keep_Alive");
+        writer.flush();
+        socket.setSoTimeout(timeoutMillis);
+        if (!"OK".equals(reader.readLine())) {
+            socket.close();
+            throw new IOException("Node " + node + " does not support keep-alive connections");
+        }
+        socket.setSoTimeout(0);
+        this.open = true;
+
+        Thread thread = new Thread(this::readResponses, "chord-client-" + node);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Completes the pending futures in order with the responses read from the
+     * node, until the connection is closed.
+     */
+    private void readResponses() {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                CompletableFuture<String> future = pending.poll();
+                if (future != null) {
+                    // A future that already timed out still absorbs its own response
+                    String response = line;
+                    try {
+                        executor.execute(() -> future.complete(response));
+                    } catch (RejectedExecutionException e) {
+                        future.complete(response); // The client is closing
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // The connection is failed below
+        }
+        close();
+    }
+
+    /**
+     * Sends a request on the connection.
+     *
+     * @param message The request, a single line.
+     * @return The future of the response.
+     */
+    public CompletableFuture<String> send(String message) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        synchronized (writer) {
+            if (!open) {
+                future.completeExceptionally(new IOException("Connection closed"));
+                return future;
+            }
+            // Queue and write under the same lock so responses match requests in order
+            pending.add(future);
+            writer.println(message);
+            writer.flush();
+            if (writer.checkError()) {
+                close();
+            }
+        }
+        return future;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Closes the connection and fails every pending request.
+     */
+    public void close() {
+        open = false;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+        CompletableFuture<String> future;
+        while ((future = pending.poll()) != null) {
+            future.completeExceptionally(new IOException("Connection closed"));
+        }
+    }
+
+}
+
+/**
+ * This class is a programmatic client of the Chord ring. Every operation returns
+ * a CompletableFuture, so a few threads can keep thousands of operations in
+ * flight.
+ *
+ * The client keeps a small pool of persistent, pipelined connections to each
+ * node it knows. It starts from a list of seed nodes and discovers the rest of
+ * the ring by following successors. A failed or timed out operation is retried
+ * on the next known node, up to the configured number of retries; an operation
+ * turned away by an overloaded node or a rate limit is retried after a growing
+ * wait.
+ *
+ * With direct routing enabled, the client keeps the IDs of the nodes of the
+ * ring, places keys with Node.keyId and sends the "*_Server" requests straight
+ * to the owner of each key, saving the lookup and the extra hop through an
+ * entry node. A node which is not the owner answers "NOT_OWNER" with a hint;
+ * the client then learns the hinted node, refreshes its topology in the
+ * background and falls back to a forwarded request for that operation.
+ *
+ * With Bloom filters enabled as well, the client keeps the filter of the keys
+ * of each owner, refreshed with the topology, and answers a get for a key its
+ * owner certainly does not hold without waiting for a request. The get is
+ * still sent in the background: a key written by another client, or moved to a
+ * node which joined, since the last refresh is then missed by that get only, as
+ * the filter of its owner is dropped and the next gets ask the owner until the
+ * filters are fetched again. Keys written by this client are always asked for.
+ *
+ * Large values, or blobs, are copied between files and the owner of the key on
+ * a connection of their own, so they never pass through the heap nor hold up
+ * the pooled connections.
+ *
+ * Example:
+ *
+ * <pre>
+ * try (Chord_Client client = new Chord_Client(List.of(new Node_Info("192.168.240.106", 5000)))) {
+ *     client.put("key", "value").join();
+ *     String value = client.get("key").join();
+ * }
+ * </pre>
+ */
+public class Chord_Client implements AutoCloseable {
+
+    // Maximum number of nodes learned by following successors from a seed
+    public static final int MAX_DISCOVERED_NODES = 64;
+    // Maximum number of nodes walked when refreshing the topology for direct routing
+    public static final int MAX_TOPOLOGY_NODES = 1 << 16;
+    // Period of the background topology refresh in direct routing mode
+    public static final long REFRESH_MILLIS = 30000;
+    // Wait before retrying a request turned away by an overloaded node or a rate
+    // limit, doubled at each attempt
+    public static final long OVERLOAD_BACKOFF_MILLIS = 50;
+
+    private final int connectionsPerNode;
+    private final int timeoutMillis;
+    private final int retries;
+    private final List<Node_Info> nodes;
+    private final Map<String, List<CompletableFuture<Client_Connection>>> pools;
+    private final AtomicInteger nextNode;
+    private final AtomicInteger nextConnection;
+    private final ConcurrentSkipListMap<Integer, Node_Info> ring; // Known nodes by ID, for direct routing
+    private final ScheduledExecutorService refresher;
+    private final ExecutorService transfers; // Threads copying blobs, which block on files and sockets
+    // Threads opening connections and running the code waiting for responses, so
+    // that neither the callers nor the reader threads of the connections block
+    private final ExecutorService workers;
+    private volatile boolean directRouting;
+    private final Map<String, Counting_Bloom_Filter> filters; // Filters of the keys of the owners, by address
+    private final Set<String> written; // Keys written by this client since the last filter refresh
+    private volatile boolean bloomFilters;
+    // Topology refresh in progress, shared by the callers asking for one meanwhile
+    private final AtomicReference<CompletableFuture<Void>> refreshing;
+
+    /**
+     * Initializes a client with 2 connections per node, a 5 second timeout and 2
+     * retries.
+     *
+     * @param seeds The nodes to start from.
+     */
+    public Chord_Client(List<Node_Info> seeds) {
+        this(seeds, 2, 5000, 2);
+    }
+
+    /**
+     * Initializes a client.
+     *
+     * @param seeds              The nodes to start from.
+     * @param connectionsPerNode The number of pooled connections per node.
+     * @param timeoutMillis      The time after which an attempt fails.
+     * @param retries            The number of attempts after the first one.
+     */
+    public Chord_Client(List<Node_Info> seeds, int connectionsPerNode, int timeoutMillis, int retries) {
+        if (seeds.isEmpty()) {
+            throw new IllegalArgumentException("At least one seed node is required");
+        }
+        this.connectionsPerNode = Math.max(1, connectionsPerNode);
+        this.timeoutMillis = timeoutMillis;
+        this.retries = Math.max(0, retries);
+        this.nodes = new CopyOnWriteArrayList<>(seeds);
+        this.pools = new ConcurrentHashMap<>();
+        this.nextNode = new AtomicInteger();
+        this.nextConnection = new AtomicInteger();
+        this.ring = new ConcurrentSkipListMap<>();
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chord-client-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.transfers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "chord-client-transfer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "chord-client-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.directRouting = false;
+        this.filters = new ConcurrentHashMap<>();
+        this.written = ConcurrentHashMap.newKeySet();
+        this.bloomFilters = false;
+        this.refreshing = new AtomicReference<>(CompletableFuture.completedFuture(null));
+    }
+
+    /**
+     * Enables or disables direct routing to the owners of the keys. Enabling it
+     * fetches the topology of the ring and refreshes it periodically.
+     *
+     * @param enabled True to send requests straight to the owners.
+     * @return The future of the first topology fetch when enabling, or a
+     *         completed future when disabling.
+     */
+    public synchronized CompletableFuture<Void> setDirectRouting(boolean enabled) {
+        if (enabled == directRouting) {
+            return CompletableFuture.completedFuture(null);
+        }
+        directRouting = enabled;
+        if (!enabled) {
+            return CompletableFuture.completedFuture(null);
+        }
+        for (Node_Info node : nodes) {
+            ring.put(Node.hash(node.toString()), node);
+        }
+        refresher.scheduleWithFixedDelay(() -> {
+            if (directRouting) {
+                refreshTopology().thenCompose(done -> bloomFilters ? refreshFilters() : CompletableFuture.completedFuture(null));
+            }
+        }, REFRESH_MILLIS, REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+        return refreshTopology();
+    }
+
+    /**
+     * Enables or disables answering the gets of keys which their owner certainly
+     * does not hold without a request, using the Bloom filters of the owners.
+     * Enabling it also enables direct routing, which knows the owners.
+     *
+     * @param enabled True to use the Bloom filters of the owners.
+     * @return The future of the first filter fetch when enabling, or a completed
+     *         future when disabling.
+     */
+    public CompletableFuture<Void> setBloomFilters(boolean enabled) {
+        bloomFilters = enabled;
+        if (!enabled) {
+            filters.clear();
+            return CompletableFuture.completedFuture(null);
+        }
+        return setDirectRouting(true).thenCompose(done -> refreshFilters());
+    }
+
+    /**
+     * Fetches the Bloom filter of every known owner. Keys written by this client
+     * before the fetch started are then held by the filters.
+     *
+     * @return The future of the refresh.
+     */
+    public CompletableFuture<Void> refreshFilters() {
+        Set<String> before = new HashSet<>(written);
+        List<CompletableFuture<Void>> fetches = new ArrayList<>();
+        Set<String> owners = new HashSet<>();
+        for (Node_Info node : ring.values()) {
+            owners.add(node.toString());
+            fetches.add(send(node, "Get_Bloom").thenAccept(response -> {
+                filters.put(node.toString(), Counting_Bloom_Filter.decode(response));
+            }).exceptionally(error -> {
+                filters.remove(node.toString()); // Asking the node itself until the next refresh
+                return null;
+            }));
+        }
+        return CompletableFuture.allOf(fetches.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            filters.keySet().retainAll(owners);
+            written.removeAll(before);
+        });
+    }
+
+    /**
+     * Walks the ring by following successors and updates the topology: nodes
+     * found are added, and when the walk goes all the way around, nodes not found
+     * are removed. A refresh asked for while another one is in progress joins it.
+     *
+     * @return The future of the refresh.
+     */
+    public CompletableFuture<Void> refreshTopology() {
+        while (true) {
+            CompletableFuture<Void> current = refreshing.get();
+            if (!current.isDone()) {
+                return current;
+            }
+            CompletableFuture<Void> next = new CompletableFuture<>();
+            if (refreshing.compareAndSet(current, next)) {
+                walkTopology().whenComplete((done, error) -> next.complete(null));
+                return next;
+            }
+        }
+    }
+
+    private CompletableFuture<Void> walkTopology() {
+        Map.Entry<Integer, Node_Info> first = ring.firstEntry();
+        Node_Info start = first != null ? first.getValue() : nodes.get(0);
+        Map<Integer, Node_Info> found = new ConcurrentHashMap<>();
+        found.put(first != null ? first.getKey() : Node.hash(start.toString()), start);
+        return walk(start, start, MAX_TOPOLOGY_NODES, found).thenAccept(complete -> {
+            ring.putAll(found);
+            if (complete) {
+                ring.keySet().retainAll(found.keySet());
+            }
+            for (Node_Info node : found.values()) {
+                learn(node);
+            }
+        }).exceptionally(error -> null);
+    }
+
+    /**
+     * Returns the owner of a key according to the known topology.
+     *
+     * @param key The key.
+     * @return The owner, or null if the topology is unknown.
+     */
+    public Node_Info getOwner(String key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Integer, Node_Info> owner = ring.ceilingEntry(Node.keyId(key));
+        return owner != null ? owner.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * Inserts or replaces a key-value pair.
+     *
+     * @param key   The key.
+     * @param value The value.
+     * @return The future of the confirmation message of the node.
+     */
+    public CompletableFuture<String> put(String key, String value) {
+        return put(key, value, 0);
+    }
+
+    /**
+     * Inserts or replaces a key-value pair which the owner deletes once the time
+     * to live is over.
+     *
+     * @param key       The key.
+     * @param value     The value.
+     * @param ttlMillis The time to live in milliseconds, or 0 to keep the pair.
+     * @return The future of the confirmation message of the node.
+     */
+    public CompletableFuture<String> put(String key, String value, long ttlMillis) {
+        checkToken(key, "Key");
+        checkToken(value, "Value");
+        String ttl = ttlMillis > 0 ? "|" + Data_Store.TTL_OPTION + ttlMillis : "";
+        return noteWrite(key, route(key, "Insert_Server|" + key + ":" + value + ttl, "Insert|" + key + ":" + value + ttl));
+    }
+
+    /**
+     * Searches for the value of a key.
+     *
+     * @param key The key.
+     * @return The future of the value, completed with null if the key is not found.
+     */
+    public CompletableFuture<String> get(String key) {
+        checkToken(key, "Key");
+        Counting_Bloom_Filter filter = missingFilter(key);
+        CompletableFuture<String> search = route(key, "Search_Server|" + key, "Search|" + key)
+                .thenApply(value -> value.equals("NOT FOUND") ? null : value);
+        if (filter == null) {
+            return search;
+        }
+        // Checking the answer of the filter, which misses the keys written by others
+        // since it was fetched, and asking the owner until the next fetch if it was wrong
+        search.thenAccept(value -> {
+            if (value != null) {
+                filters.values().remove(filter);
+            }
+        });
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Searches for the value of a key and its version, to update the value with
+     * compareAndSet.
+     *
+     * @param key The key.
+     * @return The future of the value and its version, completed with null if the
+     *         key is not found.
+     */
+    public CompletableFuture<Map.Entry<String, Long>> getVersioned(String key) {
+        checkToken(key, "Key");
+        String option = "|" + Data_Store.VERSION_OPTION;
+        return route(key, "Search_Server|" + key + option, "Search|" + key + option).thenApply(response -> {
+            int index = response.lastIndexOf(Data_Store.VERSION_ANNOTATION);
+            if (index < 0) {
+                return null;
+            }
+            return new AbstractMap.SimpleImmutableEntry<>(response.substring(0, index),
+                    Data_Store.parseVersion(response));
+        });
+    }
+
+    /**
+     * Inserts or replaces a key-value pair only if the key still has the version
+     * read by getVersioned. The owner compares and writes in one step, so of two
+     * clients updating the same version only one succeeds; the other reads again
+     * and retries.
+     *
+     * @param key             The key.
+     * @param expectedVersion The version read, or 0 if the key must not exist yet.
+     * @param value           The value.
+     * @return The future of the new version, or -1 if the key has another version.
+     */
+    public CompletableFuture<Long> compareAndSet(String key, long expectedVersion, String value) {
+        checkToken(key, "Key");
+        checkToken(value, "Value");
+        String args = "|" + key + "|" + expectedVersion + "|" + value;
+        return noteWrite(key, route(key, "CAS_Server" + args, "CAS" + args))
+                .thenApply(response -> response.startsWith("Stored") ? Data_Store.parseVersion(response) : -1L);
+    }
+
+    /**
+     * Adds to the number stored at a key, at its owner and in one step, so
+     * concurrent increments are never lost. A missing key counts as 0.
+     *
+     * @param key   The key.
+     * @param delta The number to add, which may be negative.
+     * @return The future of the new number.
+     */
+    public CompletableFuture<Long> increment(String key, long delta) {
+        checkToken(key, "Key");
+        String args = "|" + key + "|" + delta;
+        return noteWrite(key, route(key, "Increment_Server" + args, "Increment" + args)).thenApply(Long::parseLong);
+    }
+
+    /**
+     * Appends an element to the list stored at a key, at its owner and in one
+     * step. The list is read with get, its elements separated by
+     * Data_Store.LIST_SEPARATOR.
+     *
+     * @param key     The key.
+     * @param element The element, which may not contain the separator.
+     * @return The future of the new number of elements of the list.
+     */
+    public CompletableFuture<Integer> append(String key, String element) {
+        checkToken(key, "Key");
+        checkToken(element, "Element");
+        if (element.contains(Data_Store.LIST_SEPARATOR)) {
+            throw new IllegalArgumentException("Element must not contain '" + Data_Store.LIST_SEPARATOR + "'");
+        }
+        String args = "|" + key + "|" + element;
+        return noteWrite(key, route(key, "Append_Server" + args, "Append" + args)).thenApply(Integer::parseInt);
+    }
+
+    /**
+     * Deletes a key.
+     *
+     * @param key The key.
+     * @return The future of the confirmation message of the node.
+     */
+    public CompletableFuture<String> delete(String key) {
+        checkToken(key, "Key");
+        return route(key, "Delete_Server|" + key, "Delete|" + key);
+    }
+
+    /**
+     * Reads the pairs of a key range, in key order. With the order preserving
+     * placement ("-Dchord.placement=order" on the nodes), only the nodes holding
+     * the range are asked; otherwise every node is.
+     *
+     * @param from  The first key of the range, included.
+     * @param to    The last key of the range, excluded.
+     * @param limit The maximum number of pairs returned.
+     * @return The future of the pairs, in key order.
+     */
+    public CompletableFuture<SortedMap<String, String>> scan(String from, String to, int limit) {
+        checkToken(from, "Key");
+        checkToken(to, "Key");
+        return request("Scan|" + from + "|" + to + "|" + limit).thenApply(response -> {
+            SortedMap<String, String> pairs = new TreeMap<>();
+            for (String pair : response.split(":")) {
+                String[] parts = pair.split("\\|");
+                if (parts.length >= 2) {
+                    pairs.put(parts[0], parts[1]);
+                }
+            }
+            return pairs;
+        });
+    }
+
+    /**
+     * Stores the content of a file as the large value of a key, replacing any
+     * previous one. Blobs are kept apart from the values of put.
+     *
+     * @param key    The key.
+     * @param source The file to store.
+     * @return The future of the number of bytes stored.
+     */
+    public CompletableFuture<Long> putBlob(String key, Path source) {
+        checkToken(key, "Key");
+        return locate(key).thenApplyAsync(owner -> {
+            try (SocketChannel channel = openChannel(owner);
+                    FileChannel file = FileChannel.open(source, StandardOpenOption.READ)) {
+                Request_Reader reader = new Request_Reader(Channels.newChannel(channel.socket().getInputStream()));
+                long length = file.size();
+                writeLine(channel, "Put_Blob|" + key + "|" + length);
+                String ready = reader.readLine();
+                if (!"READY".equals(ready)) {
+                    throw new IOException("Blob rejected by " + owner + ": " + ready);
+                }
+                Blob_Store.transfer(file, channel);
+                String stored = reader.readLine();
+                if (stored == null || !stored.startsWith("Stored")) {
+                    throw new IOException("Blob not stored by " + owner + ": " + stored);
+                }
+                return length;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, transfers);
+    }
+
+    /**
+     * Copies the large value of a key to a file, replacing its content.
+     *
+     * @param key    The key.
+     * @param target The file to write.
+     * @return The future of the number of bytes copied, completed with null if
+     *         the key has no blob.
+     */
+    public CompletableFuture<Long> getBlob(String key, Path target) {
+        checkToken(key, "Key");
+        return locate(key).thenApplyAsync(owner -> {
+            try (SocketChannel channel = openChannel(owner)) {
+                Request_Reader reader = new Request_Reader(Channels.newChannel(channel.socket().getInputStream()));
+                writeLine(channel, "Get_Blob|" + key);
+                String header = reader.readLine();
+                if ("NOT FOUND".equals(header)) {
+                    return null;
+                }
+                if (header == null || !header.startsWith("BLOB|")) {
+                    throw new IOException("Blob not served by " + owner + ": " + header);
+                }
+                long length = Long.parseLong(header.substring("BLOB|".length()));
+                try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    reader.transferTo(file, length);
+                }
+                return length;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, transfers);
+    }
+
+    /**
+     * Deletes the large value of a key.
+     *
+     * @param key The key.
+     * @return The future of the response of the owner, "Deleted" or "NOT FOUND".
+     */
+    public CompletableFuture<String> deleteBlob(String key) {
+        checkToken(key, "Key");
+        return locate(key).thenCompose(owner -> send(owner, "Delete_Blob|" + key));
+    }
+
+    /**
+     * Looks up the owner of a key through the ring.
+     *
+     * @param key The key.
+     * @return The future of the owner.
+     */
+    private CompletableFuture<Node_Info> locate(String key) {
+        return request("Find_Successor|" + Node.keyId(key)).thenApply(response -> {
+            String[] parts = response.trim().split("\\|");
+            if (parts.length < 2) {
+                throw new CompletionException(new IOException("No owner found for " + key + ": " + response));
+            }
+            return new Node_Info(parts[0], Integer.parseInt(parts[1]));
+        });
+    }
+
+    /**
+     * Opens a connection of its own to a node for a blob transfer.
+     *
+     * @param node The node.
+     * @return The channel of the connection, reads of its socket timing out.
+     * @throws IOException If the node cannot be reached.
+     */
+    private SocketChannel openChannel(Node_Info node) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(new InetSocketAddress(node.ip, node.port), timeoutMillis);
+            channel.socket().setSoTimeout(timeoutMillis);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a line of text to a channel.
+     *
+     * @param channel The channel.
+     * @param line    The line, without terminator.
+     * @throws IOException If the write fails.
+     */
+    private static void writeLine(SocketChannel channel, String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Inserts or replaces several key-value pairs concurrently.
+     *
+     * @param entries The key-value pairs.
+     * @return A future completed when every pair is stored, or exceptionally as
+     *         soon as one fails.
+     */
+    public CompletableFuture<Void> putAll(Map<String, String> entries) {
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            futures.add(put(entry.getKey(), entry.getValue()));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Searches for the values of several keys concurrently.
+     *
+     * @param keys The keys.
+     * @return The future of the values found, by key. Keys which are not found
+     *         are absent from the map.
+     */
+    public CompletableFuture<Map<String, String>> getAll(Collection<String> keys) {
+        Map<String, CompletableFuture<String>> futures = new LinkedHashMap<>();
+        for (String key : keys) {
+            futures.put(key, get(key));
+        }
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            Map<String, String> values = new LinkedHashMap<>();
+            futures.forEach((key, future) -> {
+                String value = future.join();
+                if (value != null) {
+                    values.put(key, value);
+                }
+            });
+            return values;
+        });
+    }
+
+    /**
+     * Deletes several keys concurrently.
+     *
+     * @param keys The keys.
+     * @return A future completed when every key is deleted, or exceptionally as
+     *         soon as one fails.
+     */
+    public CompletableFuture<Void> deleteAll(Collection<String> keys) {
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (String key : keys) {
+            futures.add(delete(key));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Discovers the ring by following successors from the first reachable known
+     * node, adding every node found to the known nodes.
+     *
+     * @return The future of the known nodes once discovery is done.
+     */
+    public CompletableFuture<List<Node_Info>> discover() {
+        Node_Info start = nodes.get(Math.floorMod(nextNode.get(), nodes.size()));
+        Map<Integer, Node_Info> found = new ConcurrentHashMap<>();
+        return walk(start, start, MAX_DISCOVERED_NODES, found).handle((complete, error) -> {
+            for (Node_Info node : found.values()) {
+                learn(node);
+            }
+            return Collections.unmodifiableList(nodes);
+        });
+    }
+
+    /**
+     * Follows successors from a node, collecting the nodes found by ID.
+     *
+     * @param start   The node the walk started from.
+     * @param current The node to ask for its successor.
+     * @param limit   The number of nodes left to visit.
+     * @param found   The nodes found so far, by ID.
+     * @return The future of whether the walk went all the way around the ring.
+     */
+    private CompletableFuture<Boolean> walk(Node_Info start, Node_Info current, int limit,
+            Map<Integer, Node_Info> found) {
+        if (limit <= 0) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return send(current, "Get_Successor").thenCompose(response -> {
+            String[] parts = response.trim().split("\\|");
+            if (parts.length < 2) {
+                return CompletableFuture.completedFuture(false);
+            }
+            Node_Info successor = new Node_Info(parts[0], Integer.parseInt(parts[1]));
+            int id = ringId(parts, 2, successor);
+            if (successor.toString().equals(start.toString())) {
+                // Went around the ring, learning the actual ID of the start as well
+                found.values().removeIf(node -> node.toString().equals(start.toString()));
+                found.put(id, start);
+                return CompletableFuture.completedFuture(true);
+            }
+            found.put(id, successor);
+            return walk(start, successor, limit - 1, found);
+        });
+    }
+
+    /**
+     * Returns the ID of a node sent along its address in a response. Nodes move
+     * away from the hash of their address when balancing an order preserving
+     * ring, so the hash is only used when no ID is sent.
+     *
+     * @param parts The fields of the response.
+     * @param index The index of the ID in the fields.
+     * @param node  The node.
+     * @return The ID of the node.
+     */
+    private static int ringId(String[] parts, int index, Node_Info node) {
+        if (parts.length > index && parts[index].matches("\\d+")) {
+            return Integer.parseInt(parts[index]);
+        }
+        return Node.hash(node.toString());
+    }
+
+    /**
+     * Adds a node to the known nodes if it is not known yet.
+     *
+     * @param node The node.
+     */
+    private synchronized void learn(Node_Info node) {
+        if (nodes.stream().noneMatch(known -> known.toString().equals(node.toString()))) {
+            nodes.add(node);
+        }
+    }
+
+    /**
+     * Returns the nodes currently known by the client.
+     *
+     * @return The known nodes.
+     */
+    public List<Node_Info> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * Sends an operation straight to the owner of its key when direct routing is
+     * enabled, falling back to a forwarded request through any node when the
+     * owner is unknown, unreachable or reports a stale topology; only the last two
+     * refresh the topology. An owner turning the request away for now is asked
+     * again after a growing wait, as request() does, so that overload does not
+     * turn into more traffic.
+     *
+     * @param key     The key of the operation.
+     * @param direct  The "*_Server" request for the owner.
+     * @param forward The client request for an entry node.
+     * @return The future of the response.
+     */
+    private CompletableFuture<String> route(String key, String direct, String forward) {
+        Node_Info owner = directRouting ? getOwner(key) : null;
+        if (owner == null) {
+            return request(forward);
+        }
+        CompletableFuture<String> result = new CompletableFuture<>();
+        routeAttempt(owner, direct + "|direct", forward, 0, result);
+        return result;
+    }
+
+    private void routeAttempt(Node_Info owner, String direct, String forward, int attempt,
+            CompletableFuture<String> result) {
+        send(owner, direct).whenComplete((response, error) -> {
+            if (error == null && !response.isEmpty() && !response.startsWith("NOT_OWNER")
+                    && !response.startsWith("Error")) {
+                result.complete(response);
+                return;
+            }
+            if (error == null && Admission_Control.isRetryLater(response)) {
+                if (attempt < retries) {
+                    // Giving the owner time to drain its queues before trying again
+                    CompletableFuture.delayedExecutor(OVERLOAD_BACKOFF_MILLIS << attempt, TimeUnit.MILLISECONDS, workers)
+                            .execute(() -> routeAttempt(owner, direct, forward, attempt + 1, result));
+                } else {
+                    result.completeExceptionally(new IOException("Request failed: " + response));
+                }
+                return;
+            }
+            if (error != null) {
+                // Unreachable, likely gone
+                ring.values().removeIf(node -> node.toString().equals(owner.toString()));
+                refreshTopology();
+            } else if (response.startsWith("NOT_OWNER")) {
+                // The hint is the predecessor of the node, usually a node that just joined
+                String[] parts = response.split("\\|");
+                if (parts.length >= 3) {
+                    Node_Info hint = new Node_Info(parts[1], Integer.parseInt(parts[2]));
+                    ring.put(ringId(parts, 3, hint), hint);
+                    learn(hint);
+                }
+                refreshTopology();
+            }
+            request(forward).whenComplete((forwarded, failure) -> {
+                if (failure != null) {
+                    result.completeExceptionally(failure instanceof CompletionException ? failure.getCause() : failure);
+                } else {
+                    result.complete(forwarded);
+                }
+            });
+        });
+    }
+
+    /**
+     * Sends a client request to a known node, retrying on the next known node if
+     * the attempt fails, times out or the node answers with an error.
+     *
+     * @param message The request.
+     * @return The future of the response.
+     */
+    private CompletableFuture<String> request(String message) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        attempt(message, nextNode.getAndIncrement(), 0, result);
+        return result;
+    }
+
+    private void attempt(String message, int nodeIndex, int attempt, CompletableFuture<String> result) {
+        Node_Info node = nodes.get(Math.floorMod(nodeIndex, nodes.size()));
+        send(node, message).whenComplete((response, error) -> {
+            if (error == null && !response.isEmpty() && !response.startsWith("Error")) {
+                result.complete(response);
+            } else if (attempt < retries) {
+                if (error != null && nodes.size() == 1) {
+                    // A single seed may be one of many nodes, learn the others
+                    discover();
+                }
+                if (Admission_Control.isRetryLater(response)) {
+                    // Giving the nodes time to drain their queues before trying again
+                    CompletableFuture.delayedExecutor(OVERLOAD_BACKOFF_MILLIS << attempt, TimeUnit.MILLISECONDS, workers)
+                            .execute(() -> attempt(message, nodeIndex + 1, attempt + 1, result));
+                    return;
+                }
+                attempt(message, nodeIndex + 1, attempt + 1, result);
+            } else if (error != null) {
+                result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+            } else {
+                result.completeExceptionally(new IOException("Request failed: " + response));
+            }
+        });
+    }
+
+    /**
+     * Sends a message on a pooled connection to a node, once the connection is
+     * open. The attempt fails after the configured timeout, closing the
+     * connection since its pipelined responses can no longer be trusted.
+     *
+     * @param node    The node.
+     * @param message The message.
+     * @return The future of the response.
+     */
+    private CompletableFuture<String> send(Node_Info node, String message) {
+        return connection(node).thenCompose(connection -> connection.send(message)
+                .orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((response, error) -> {
+                    if (error instanceof TimeoutException) {
+                        connection.close();
+                    }
+                }));
+    }
+
+    /**
+     * Returns the future of a pooled connection to a node, opening a new one on a
+     * worker thread in place of a closed or failed one. The lock of the pool is
+     * only held to pick the connection, never while connecting.
+     *
+     * @param node The node.
+     * @return The future of the connection.
+     */
+    private CompletableFuture<Client_Connection> connection(Node_Info node) {
+        List<CompletableFuture<Client_Connection>> pool = pools.computeIfAbsent(node.toString(),
+                address -> new ArrayList<>(Collections.nCopies(connectionsPerNode, null)));
+        int slot = Math.floorMod(nextConnection.getAndIncrement(), pool.size());
+        synchronized (pool) {
+            CompletableFuture<Client_Connection> current = pool.get(slot);
+            if (current == null || current.isCompletedExceptionally()
+                    || (current.isDone() && !current.join().isOpen())) {
+                try {
+                    current = CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return new Client_Connection(node, timeoutMillis, workers);
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    }, workers);
+                } catch (RejectedExecutionException e) {
+                    return CompletableFuture.failedFuture(new IOException("Client closed"));
+                }
+                pool.set(slot, current);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Returns the Bloom filter of the owner of a key if it tells the owner does not
+     * hold the key, which this client did not write since the filter was fetched.
+     *
+     * @param key The key.
+     * @return The filter, or null if the key may be stored.
+     */
+    private Counting_Bloom_Filter missingFilter(String key) {
+        if (!bloomFilters || !directRouting || written.contains(key)) {
+            return null;
+        }
+        Node_Info owner = getOwner(key);
+        Counting_Bloom_Filter filter = owner == null ? null : filters.get(owner.toString());
+        return filter != null && !filter.mightContain(key) ? filter : null;
+    }
+
+    /**
+     * Remembers a key written by this client once the write completes, so its
+     * reads skip the filters until they are fetched again.
+     *
+     * @param key   The key written.
+     * @param write The future of the write.
+     * @return The future of the write.
+     */
+    private <T> CompletableFuture<T> noteWrite(String key, CompletableFuture<T> write) {
+        if (!bloomFilters) {
+            return write;
+        }
+        return write.whenComplete((result, error) -> written.add(key));
+    }
+
+    /**
+     * Checks that a key or value can be carried by the line protocol.
+     *
+     * @param token The key or value.
+     * @param name  The name used in the error message.
+     */
+    private static void checkToken(String token, String name) {
+        if (token == null || token.isEmpty() || token.indexOf('|') >= 0 || token.indexOf(':') >= 0
+                || token.indexOf('\n') >= 0 || token.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException(name + " must be non-empty and contain no '|', ':' or line break");
+        }
+    }
+
+    /**
+     * Closes every pooled connection, failing the operations still in flight.
+     */
+    public void close() {
+        refresher.shutdownNow();
+        transfers.shutdownNow();
+        for (List<CompletableFuture<Client_Connection>> pool : pools.values()) {
+            synchronized (pool) {
+                for (CompletableFuture<Client_Connection> connection : pool) {
+                    if (connection != null) {
+                        // Closing a connection still opening once it is open
+                        connection.thenAccept(Client_Connection::close);
+                    }
+                }
+            }
+        }
+        pools.clear();
+        workers.shutdown();
+    }
+
+}
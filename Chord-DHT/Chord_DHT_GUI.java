@@ -1,8 +1,422 @@
 import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
 import java.awt.*;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.Scanner;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/*
+ * Class representing the state of a node as last polled by the ring monitor. A
+ * status never changes: every poll builds a new one, so the GUI can show it
+ * while the next poll runs.
+ * 
+ * Constructor:
+ * - Node_Status(address, id, predecessor, successor, metrics, rttMicros,
+ * failures): Constructs a status.
+ * 
+ * Methods:
+ * - unknown(address): Returns the status of a node not polled yet.
+ * - failed(): Returns the status after a poll which got no answer.
+ * - getMetric(name): Returns a counter of the node.
+ */
+final class Node_Status {
+
+    public final String address; // "ip|port"
+    public final int id; // -1 until known
+    public final String predecessor; // ID of the predecessor, or "None"
+    public final String successor; // ID of the successor, or "None"
+    public final Map<String, String> metrics; // Counters from Get_Metrics
+    public final long rttMicros; // Round trip time of the last answered poll
+    public final int failures; // Polls in a row which got no answer
+
+    public Node_Status(String address, int id, String predecessor, String successor, Map<String, String> metrics,
+            long rttMicros, int failures) {
+        this.address = address;
+        this.id = id;
+        this.predecessor = predecessor;
+        this.successor = successor;
+        this.metrics = metrics;
+        this.rttMicros = rttMicros;
+        this.failures = failures;
+    }
+
+    public static Node_Status unknown(String address) {
+        return new Node_Status(address, -1, "None", "None", new HashMap<>(), 0, 0);
+    }
+
+    /**
+     * Returns the status after a poll which got no answer, keeping the values of
+     * the last answer.
+     *
+     * @return The new status.
+     */
+    public Node_Status failed() {
+        return new Node_Status(address, id, predecessor, successor, metrics, rttMicros, failures + 1);
+    }
+
+    /**
+     * Returns a counter of the node.
+     *
+     * @param name The name of the counter, such as "keys".
+     * @return The value, or 0 if the node did not report it.
+     */
+    public long getMetric(String name) {
+        try {
+            return Long.parseLong(metrics.getOrDefault(name, "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+}
+
+/*
+ * Class polling the nodes of a ring in the background for the GUI.
+ * 
+ * Starting from the nodes it is asked to watch, the monitor learns the rest of
+ * the ring through the successor of every node it polls. Every PERIOD_MILLIS
+ * all the known nodes are polled in parallel, each poll with its own timeout,
+ * and the status of each node is handed to the listener as soon as it is in,
+ * so a slow node only delays its own row. A node is not polled again while its
+ * previous poll runs, and it is dropped after MAX_FAILURES polls without an
+ * answer.
+ * 
+ * Constructor:
+ * - Ring_Monitor(listener): Starts polling, handing the statuses to a listener.
+ * 
+ * Methods:
+ * - watch(ip, port): Adds a node to poll.
+ * - query(ip, port, message): Sends a request with timeouts and returns the
+ * whole response.
+ * - close(): Stops polling.
+ */
+class Ring_Monitor implements AutoCloseable {
+
+    public static final long PERIOD_MILLIS = 2000;
+    public static final int TIMEOUT_MILLIS = 2000;
+    public static final int MAX_FAILURES = 3;
+    // Number of nodes polled at once
+    public static final int POLLERS = 16;
+
+    private final Consumer<Node_Status> listener;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService pollers;
+    private final Map<String, Node_Status> nodes = new ConcurrentHashMap<>(); // By "ip|port"
+    private final Set<String> polling = ConcurrentHashMap.newKeySet(); // Nodes being polled
+
+    /**
+     * Starts polling, handing the status of each node to a listener, on a polling
+     * thread, after each poll.
+     *
+     * @param listener The listener.
+     */
+    public Ring_Monitor(Consumer<Node_Status> listener) {
+        this.listener = listener;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(daemon("chord-monitor"));
+        this.pollers = Executors.newFixedThreadPool(POLLERS, daemon("chord-monitor-poller"));
+        this.scheduler.scheduleWithFixedDelay(this::pollAll, PERIOD_MILLIS, PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Adds a node to poll, polling it at once if it is new.
+     *
+     * @param ip   The IP address of the node.
+     * @param port The port of the node.
+     */
+    public void watch(String ip, int port) {
+        String address = ip + "|" + port;
+        if (nodes.putIfAbsent(address, Node_Status.unknown(address)) == null) {
+            pollers.execute(() -> poll(address));
+        }
+    }
+
+    private void pollAll() {
+        for (String address : nodes.keySet()) {
+            pollers.execute(() -> poll(address));
+        }
+    }
+
+    /**
+     * Polls a node for its information, its successor and its counters, the time
+     * of the first request giving the round trip time from the GUI to the node.
+     * The service time of the requests is measured by the node itself.
+     *
+     * @param address The address of the node, "ip|port".
+     */
+    private void poll(String address) {
+        if (!polling.add(address)) {
+            return; // The previous poll of this node still runs
+        }
+        try {
+            Node_Status previous = nodes.get(address);
+            if (previous == null) {
+                return;
+            }
+            Node_Status status;
+            try {
+                String[] ipPort = address.split("\\|");
+                String ip = ipPort[0];
+                int port = Integer.parseInt(ipPort[1]);
+                long start = System.nanoTime();
+                String[] info = query(ip, port, "Get_Info").split("/");
+                long rttMicros = (System.nanoTime() - start) / 1000;
+                String successor = query(ip, port, "Get_Successor");
+                Map<String, String> metrics = new HashMap<>();
+                for (String pair : query(ip, port, "Get_Metrics").split(",")) {
+                    int equals = pair.indexOf('=');
+                    if (equals > 0) {
+                        metrics.put(pair.substring(0, equals), pair.substring(equals + 1));
+                    }
+                }
+                status = new Node_Status(address, Integer.parseInt(info[2]), info[3], info[4], metrics, rttMicros, 0);
+                // Learning the successor, which finds the whole ring after a few rounds
+                String[] next = successor.split("\\|");
+                if (next.length >= 2) {
+                    watch(next[0], Integer.parseInt(next[1]));
+                }
+            } catch (IOException | RuntimeException e) {
+                status = previous.failed();
+            }
+            if (status.failures >= MAX_FAILURES) {
+                nodes.remove(address);
+            } else {
+                nodes.put(address, status);
+            }
+            listener.accept(status);
+        } finally {
+            polling.remove(address);
+        }
+    }
+
+    /**
+     * Sends a request to a node and returns the whole response, which may span
+     * several lines, failing if the node does not connect or answer within
+     * TIMEOUT_MILLIS.
+     *
+     * @param ip      The IP address of the node.
+     * @param port    The port of the node.
+     * @param message The request.
+     * @return The response, without its trailing line break.
+     * @throws IOException If the node cannot be reached or does not answer.
+     */
+    public static String query(String ip, int port, String message) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(ip, port), TIMEOUT_MILLIS);
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println(message);
+            // The node closes the connection after its response
+            return new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+        }
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+        pollers.shutdownNow();
+    }
+
+}
+
+/*
+ * Class representing the table of the ring view: one row per node, in ID order,
+ * updated one row at a time as the statuses come in.
+ * 
+ * Methods:
+ * - update(status): Adds, replaces or removes the row of a node.
+ * - getStatus(row): Returns the status shown in a row.
+ * - getMaxKeys(), getMaxLatency(), getMaxRtt(): Return the largest load,
+ * service time and round trip time shown.
+ */
+class Ring_Table_Model extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String[] COLUMNS = { "ID", "Address", "Predecessor", "Successor", "Keys",
+            "Running", "Queued", "Rejected", "Service mean (ms)", "Service p99 (ms)", "GUI round trip (ms)",
+            "State" };
+    public static final int KEYS_COLUMN = 4;
+    // Service time of the client requests measured by the node, and the round trip
+    // time of the polls of the GUI, which includes the network
+    public static final int LATENCY_COLUMN = 9;
+    public static final int RTT_COLUMN = 10;
+
+    private final List<Node_Status> rows = new ArrayList<>();
+
+    /**
+     * Adds, replaces or removes the row of a node. Called on the event dispatch
+     * thread.
+     *
+     * @param status The new status of the node.
+     */
+    public void update(Node_Status status) {
+        int index = -1;
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i).address.equals(status.address)) {
+                index = i;
+                break;
+            }
+        }
+        if (index >= 0 && status.failures < Ring_Monitor.MAX_FAILURES && rows.get(index).id == status.id) {
+            rows.set(index, status);
+            fireTableRowsUpdated(index, index);
+            return;
+        }
+        if (index >= 0) {
+            rows.remove(index);
+            fireTableRowsDeleted(index, index);
+        }
+        if (status.failures >= Ring_Monitor.MAX_FAILURES || status.id < 0) {
+            return;
+        }
+        // Keeping the rows in ring order
+        int position = 0;
+        while (position < rows.size() && rows.get(position).id < status.id) {
+            position++;
+        }
+        rows.add(position, status);
+        fireTableRowsInserted(position, position);
+    }
+
+    public Node_Status getStatus(int row) {
+        return rows.get(row);
+    }
+
+    public long getMaxKeys() {
+        return rows.stream().mapToLong(status -> status.getMetric("keys")).max().orElse(0);
+    }
+
+    public long getMaxLatency() {
+        return rows.stream().mapToLong(status -> status.getMetric("client_latency_p99_us")).max().orElse(0);
+    }
+
+    public long getMaxRtt() {
+        return rows.stream().mapToLong(status -> status.rttMicros).max().orElse(0);
+    }
+
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    public Object getValueAt(int row, int column) {
+        Node_Status status = rows.get(row);
+        switch (column) {
+            case 0:
+                return status.id;
+            case 1:
+                return status.address.replace('|', ':');
+            case 2:
+                return status.predecessor;
+            case 3:
+                return status.successor;
+            case 4:
+                return status.getMetric("keys");
+            case 5:
+                return status.getMetric("client_running");
+            case 6:
+                return status.getMetric("client_queued");
+            case 7:
+                return status.getMetric("client_rejected") + status.getMetric("ring_rejected");
+            case 8:
+                return String.format("%.1f", status.getMetric("client_latency_mean_us") / 1000.0);
+            case 9:
+                return String.format("%.1f", status.getMetric("client_latency_p99_us") / 1000.0);
+            case 10:
+                return String.format("%.1f", status.rttMicros / 1000.0);
+            default:
+                return status.failures == 0 ? "Up" : "No answer (" + status.failures + ")";
+        }
+    }
+
+    /**
+     * Returns the color showing a value among the values of the ring, from green
+     * for the lowest to red for the highest.
+     *
+     * @param value The value.
+     * @param max   The highest value of the ring.
+     * @return The color.
+     */
+    public static Color heat(long value, long max) {
+        float share = max <= 0 ? 0 : Math.min(1f, (float) value / max);
+        return Color.getHSBColor((1 - share) / 3, 0.45f, 1f);
+    }
+
+}
+
+/*
+ * Class drawing the ring: every node at the angle of its ID, colored by its
+ * number of keys and circled in red while it does not answer.
+ */
+class Ring_View extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Ring_Table_Model model;
+
+    public Ring_View(Ring_Table_Model model) {
+        this.model = model;
+        setPreferredSize(new Dimension(320, 320));
+        model.addTableModelListener(e -> repaint());
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics) {
+        super.paintComponent(graphics);
+        Graphics2D g = (Graphics2D) graphics;
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        int size = Math.min(getWidth(), getHeight()) - 60;
+        int centerX = getWidth() / 2;
+        int centerY = getHeight() / 2;
+        g.setColor(Color.GRAY);
+        g.drawOval(centerX - size / 2, centerY - size / 2, size, size);
+        long maxKeys = model.getMaxKeys();
+        double ids = Math.pow(2, Finger_Table.M);
+        for (int row = 0; row < model.getRowCount(); row++) {
+            Node_Status status = model.getStatus(row);
+            double angle = 2 * Math.PI * status.id / ids - Math.PI / 2;
+            int x = centerX + (int) (Math.cos(angle) * size / 2);
+            int y = centerY + (int) (Math.sin(angle) * size / 2);
+            g.setColor(Ring_Table_Model.heat(status.getMetric("keys"), maxKeys));
+            g.fillOval(x - 7, y - 7, 14, 14);
+            g.setColor(status.failures == 0 ? Color.DARK_GRAY : Color.RED);
+            g.drawOval(x - 7, y - 7, 14, 14);
+            g.drawString(String.valueOf(status.id), x + 9, y + 4);
+        }
+    }
+
+}
 
 /**
  * The Chord_DHT_GUI class represents the graphical user interface (GUI) for a
@@ -11,6 +425,8 @@ import java.util.Scanner;
  * the Chord DHT.
  * The GUI consists of various panels for different operations such as creating,
  * joining, and manipulating the DHT.
+ * Requests to nodes never run on the event dispatch thread, and the ring view
+ * (Monitor Ring) polls every node of the ring in the background.
  */
 public class Chord_DHT_GUI extends JFrame {
     public JTextField nodeIpField, nodePortField, showNodeIpField, showNodePortField, existingNodeIpField,
@@ -18,6 +434,17 @@ public class Chord_DHT_GUI extends JFrame {
     public String currNodeIP, currNodePort;
     public Node curr_node;
     public JTextField currentNodeHashField, successorField, predecessorField, currentNodePortField, currentNodeIpField;
+    private Chord_Client client;
+    private String clientNode;
+    // Threads sending the requests of the Show button, off the event dispatch thread
+    private final ExecutorService queries = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "chord-gui-query");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // The ring view and its poller, while the view is open
+    private JFrame ringFrame;
+    private Ring_Monitor ringMonitor;
 
     public Chord_DHT_GUI() {
         currNodeIP = "None";
@@ -227,22 +654,22 @@ public class Chord_DHT_GUI extends JFrame {
                 // Initialize a new node with the specified IP and port
                 Node node = new Node(ip, port);
                 // Set predecessor and successor for the first node
-                node.predecessor = new Node(ip, port);
-                node.successor = new Node(ip, port);
-                // Update finger table
-                node.fingerTable.table.get(0).setNode(node.successor);
+                node.setNeighbors(node.self(), node.self());
 
-                // Update current node information and GUI components
+                // Update current node information
                 curr_node = node;
                 currNodeIP = ip;
                 currNodePort = String.valueOf(port);
-                currentNodeIpField.setText(ip);
-                currentNodePortField.setText(String.valueOf(port));
-                currentNodeHashField.setText(String.valueOf(curr_node.id));
-                predecessorField.setText(String.valueOf(curr_node.id));
-                successorField.setText(String.valueOf(curr_node.id));
-
-                // Start the node
+                // Update the GUI components on the event dispatch thread
+                SwingUtilities.invokeLater(() -> {
+                    currentNodeIpField.setText(ip);
+                    currentNodePortField.setText(String.valueOf(port));
+                    currentNodeHashField.setText(String.valueOf(node.id));
+                    predecessorField.setText(String.valueOf(node.id));
+                    successorField.setText(String.valueOf(node.id));
+                });
+
+                // Start the node, which serves requests until it stops
                 node.start();
                 return null; // Void return type
             }
@@ -293,57 +720,66 @@ public class Chord_DHT_GUI extends JFrame {
         JScrollPane fingerTableScrollPane = new JScrollPane(fingerTableArea); // Add scroll bar
         showPanel.add(fingerTableScrollPane, BorderLayout.EAST);
 
+        // Output field to display the most recent "Lookup Traces" of the node
+        JTextArea tracesArea = new JTextArea(5, 40); // Rows, Columns
+        tracesArea.setEditable(false); // Make it read-only
+        tracesArea.setBorder(BorderFactory.createTitledBorder("Lookup Traces (node@us, path order)")); // Add titled border
+        JScrollPane tracesScrollPane = new JScrollPane(tracesArea); // Add scroll bar
+
         // Button to trigger showing the data
         JButton showButton = new JButton("Show");
         showButton.addActionListener(e -> {
-            // Perform action when Show button is clicked
+            // Perform action when Show button is clicked: the requests run in parallel
+            // off the event dispatch thread, each area being filled once its answer is in
             String ip = showNodeIpField.getText();
             int port = Integer.parseInt(showNodePortField.getText());
-            String message1 = "Get_Finger_Table", message2 = "Get_Data_Store", message3 = "Get_Info";
+            String message1 = "Get_Finger_Table", message2 = "Get_Data_Store", message3 = "Get_Info",
+                    message4 = "Get_Traces";
 
             // Fetch and display finger table data
-            try (Socket socket = new Socket(ip, port);
-                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                    Scanner in = new Scanner(socket.getInputStream()).useDelimiter("\\A")) {
-                out.println(message1);
-                String fingerTableResponse = in.hasNext() ? in.next() : "";
-                fingerTableArea.setText(fingerTableResponse);
-            } catch (Exception ex) {
-                fingerTableArea.setText("Error occurred: " + ex.getMessage());
-            }
+            showWhenDone(queryNode(ip, port, message1), fingerTableArea);
 
             // Fetch and display key-value data store
-            try (Socket socket = new Socket(ip, port);
-                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                    Scanner in = new Scanner(socket.getInputStream()).useDelimiter("\\A")) {
-                out.println(message2);
-                String keyValueDataResponse = in.hasNext() ? in.next() : "";
-                keyValueDataArea.setText(keyValueDataResponse);
-            } catch (Exception ex) {
-                keyValueDataArea.setText("Error occurred: " + ex.getMessage());
-            }
+            showWhenDone(queryNode(ip, port, message2), keyValueDataArea);
 
             // Fetch and display node information
-            try (Socket socket = new Socket(ip, port);
-                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                    Scanner in = new Scanner(socket.getInputStream()).useDelimiter("\\A")) {
-                out.println(message3);
-                String information = in.hasNext() ? in.next() : "";
-                String[] info = information.split("/");
+            CompletableFuture<String> information = queryNode(ip, port, message3);
+            information.thenAccept(received -> SwingUtilities.invokeLater(() -> {
+                String[] info = received.split("/");
+                if (info.length < 5) {
+                    return; // Shown with the traces
+                }
                 currentNodeIpField.setText(info[0]);
                 currentNodePortField.setText(info[1]);
                 currentNodeHashField.setText(info[2]);
                 predecessorField.setText(info[3]);
                 successorField.setText(info[4]);
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
+            }));
+
+            // Fetch and display the recent lookup traces, after the error of the node
+            // information if it could not be read
+            CompletableFuture<String> problem = information.handle(this::informationProblem);
+            showWhenDone(queryNode(ip, port, message4).thenCombine(problem,
+                    (traces, error) -> error == null ? traces : error + "\n" + traces), tracesArea);
+        });
+
+        // Button to watch the ring of the node in the ring view
+        JButton monitorButton = new JButton("Monitor Ring");
+        monitorButton.addActionListener(e -> {
+            String ip = showNodeIpField.getText();
+            int port = Integer.parseInt(showNodePortField.getText());
+            showRingView(ip, port);
         });
 
         // Panel to center the button
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
         buttonPanel.add(showButton);
-        showPanel.add(buttonPanel, BorderLayout.SOUTH); // Align the button to the bottom
+        buttonPanel.add(monitorButton);
+        // Panel to hold the traces above the button
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(tracesScrollPane, BorderLayout.CENTER);
+        southPanel.add(buttonPanel, BorderLayout.SOUTH);
+        showPanel.add(southPanel, BorderLayout.SOUTH); // Align the traces and button to the bottom
 
         return showPanel;
     }
@@ -385,13 +821,8 @@ public class Chord_DHT_GUI extends JFrame {
             // Perform action when Insert button is clicked
             String key = keyField.getText();
             String value = valueField.getText();
-            String message = "Insert|" + key + ":" + value;
-            try (Socket socket = new Socket(currNodeIP, Integer.parseInt(currNodePort));
-                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                    Scanner in = new Scanner(socket.getInputStream())) {
-                out.println(message);
-                String response = in.nextLine();
-                outputMessageArea.setText(response);
+            try {
+                showWhenDone(getClient().put(key, value), outputMessageArea);
             } catch (Exception ex) {
                 outputMessageArea.setText("Error occurred: " + ex.getMessage());
             }
@@ -437,13 +868,8 @@ public class Chord_DHT_GUI extends JFrame {
         deleteButton.addActionListener(e -> {
             // Perform action when Delete button is clicked
             String key = keyField.getText();
-            String message = "Delete|" + key;
-            try (Socket socket = new Socket(currNodeIP, Integer.parseInt(currNodePort));
-                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                    Scanner in = new Scanner(socket.getInputStream())) {
-                out.println(message);
-                String response = in.nextLine();
-                outputMessageArea.setText(response);
+            try {
+                showWhenDone(getClient().delete(key), outputMessageArea);
             } catch (Exception ex) {
                 outputMessageArea.setText("Error occurred: " + ex.getMessage());
             }
@@ -489,13 +915,9 @@ public class Chord_DHT_GUI extends JFrame {
         searchButton.addActionListener(e -> {
             // Perform action when Search button is clicked
             String key = keyField.getText().trim(); // Get the key from the input field
-            String message = "Search|" + key;
-            try (Socket socket = new Socket(currNodeIP, Integer.parseInt(currNodePort));
-                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                    Scanner in = new Scanner(socket.getInputStream())) {
-                out.println(message);
-                String response = in.nextLine();
-                outputResultArea.setText(response);
+            try {
+                showWhenDone(getClient().get(key).thenApply(value -> value == null ? "NOT FOUND" : value),
+                        outputResultArea);
             } catch (Exception ex) {
                 outputResultArea.setText("Error occurred: " + ex.getMessage());
             }
@@ -579,21 +1001,160 @@ public class Chord_DHT_GUI extends JFrame {
             protected Void doInBackground() {
                 Node node = new Node(newIp, newPort);
                 node.join(existingIp, existingPort);
-                node.start();
                 curr_node = node;
                 currNodeIP = newIp;
                 currNodePort = String.valueOf(newPort);
-                currentNodeIpField.setText(newIp);
-                currentNodePortField.setText(String.valueOf(newPort));
-                currentNodeHashField.setText(String.valueOf(curr_node.id));
-                predecessorField.setText(String.valueOf(curr_node.predecessor.id));
-                successorField.setText(String.valueOf(curr_node.successor.id));
+                // The predecessor is only known once a node notified this one
+                Ring_State state = node.getRing();
+                // Update the GUI components on the event dispatch thread
+                SwingUtilities.invokeLater(() -> {
+                    currentNodeIpField.setText(newIp);
+                    currentNodePortField.setText(String.valueOf(newPort));
+                    currentNodeHashField.setText(String.valueOf(node.id));
+                    predecessorField.setText(state.predecessor == null ? "None" : state.predecessor.getId());
+                    successorField.setText(state.successor == null ? "None" : state.successor.getId());
+                });
+                // Start the node, which serves requests until it stops
+                node.start();
                 return null;
             }
         };
         worker.execute();
     }
 
+    /**
+     * Returns the client connected to the current node, replacing the previous
+     * client when the current node changes.
+     * 
+     * @return The client of the current node.
+     */
+    private synchronized Chord_Client getClient() {
+        String node = currNodeIP + "|" + currNodePort;
+        if (client == null || !node.equals(clientNode)) {
+            if (client != null) {
+                client.close();
+            }
+            client = new Chord_Client(List.of(new Node_Info(currNodeIP, Integer.parseInt(currNodePort))));
+            clientNode = node;
+        }
+        return client;
+    }
+
+    /**
+     * Sends a request to a node on a background thread, so a slow or stopped node
+     * never freezes the GUI.
+     * 
+     * @param ip      The IP address of the node.
+     * @param port    The port number of the node.
+     * @param message The request.
+     * @return The future response of the node.
+     */
+    private CompletableFuture<String> queryNode(String ip, int port, String message) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return Ring_Monitor.query(ip, port, message);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, queries);
+    }
+
+    /**
+     * Opens the ring view, which polls every node of the ring in the background
+     * and shows the load and latency of each, and adds a node to watch.
+     * 
+     * @param ip   The IP address of a node of the ring.
+     * @param port The port number of the node.
+     */
+    private void showRingView(String ip, int port) {
+        if (ringFrame == null) {
+            Ring_Table_Model model = new Ring_Table_Model();
+            JTable table = new JTable(model);
+            // Coloring the keys, service time and round trip time of each node among those of the ring
+            table.setDefaultRenderer(Object.class, new DefaultTableCellRenderer() {
+                @Override
+                public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                        boolean hasFocus, int row, int column) {
+                    Component cell = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row,
+                            column);
+                    if (!isSelected) {
+                        Node_Status status = model.getStatus(row);
+                        if (column == Ring_Table_Model.KEYS_COLUMN) {
+                            cell.setBackground(Ring_Table_Model.heat(status.getMetric("keys"), model.getMaxKeys()));
+                        } else if (column == Ring_Table_Model.LATENCY_COLUMN) {
+                            cell.setBackground(Ring_Table_Model.heat(status.getMetric("client_latency_p99_us"),
+                                    model.getMaxLatency()));
+                        } else if (column == Ring_Table_Model.RTT_COLUMN) {
+                            cell.setBackground(Ring_Table_Model.heat(status.rttMicros, model.getMaxRtt()));
+                        } else {
+                            cell.setBackground(status.failures == 0 ? table.getBackground() : Color.PINK);
+                        }
+                    }
+                    return cell;
+                }
+            });
+            // The statuses come in on polling threads and are shown on the event dispatch thread
+            ringMonitor = new Ring_Monitor(status -> SwingUtilities.invokeLater(() -> {
+                model.update(status);
+                // The colors of the other rows depend on the highest values
+                table.repaint();
+            }));
+
+            ringFrame = new JFrame("Chord Ring");
+            ringFrame.setSize(900, 420);
+            ringFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            ringFrame.add(new Ring_View(model), BorderLayout.WEST);
+            ringFrame.add(new JScrollPane(table), BorderLayout.CENTER);
+            ringFrame.addWindowListener(new java.awt.event.WindowAdapter() {
+                @Override
+                public void windowClosed(java.awt.event.WindowEvent e) {
+                    // Stop polling while nobody watches
+                    ringMonitor.close();
+                    ringMonitor = null;
+                    ringFrame = null;
+                }
+            });
+        }
+        ringMonitor.watch(ip, port);
+        ringFrame.setVisible(true);
+    }
+
+    /**
+     * Shows the outcome of an asynchronous operation in a text area, on the event
+     * dispatch thread, once the operation completes.
+     * 
+     * @param operation  The operation.
+     * @param outputArea The text area showing the outcome.
+     */
+    private void showWhenDone(CompletableFuture<String> operation, JTextArea outputArea) {
+        operation.whenComplete((response, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                outputArea.setText("Error occurred: " + cause.getMessage());
+            } else {
+                outputArea.setText(response);
+            }
+        }));
+    }
+
+    /**
+     * Describes what went wrong reading the information of a node, if anything.
+     * 
+     * @param information The information received, "ip/port/id/predecessor/successor".
+     * @param error       The error of the request, or null.
+     * @return The description, or null if the information was read.
+     */
+    private String informationProblem(String information, Throwable error) {
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            return "Error occurred reading the node information: " + cause.getMessage();
+        }
+        if (information.split("/").length < 5) {
+            return "Unexpected node information: " + information;
+        }
+        return null;
+    }
+
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> new Chord_DHT_GUI());
     }
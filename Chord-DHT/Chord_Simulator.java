@@ -0,0 +1,685 @@
+import java.io.*;
+import java.util.*;
+
+/*
+ * Class representing the simulated network shared by every in-memory node.
+ * Messages are delivered by calling the destination node directly, on the
+ * calling thread, while a virtual clock accumulates the injected latency.
+ *
+ * With the uniform latency model every message draws its latency at random.
+ * With the coordinates model every node is placed at a random point of a unit
+ * square and the latency between two nodes grows with their distance, so some
+ * nodes are consistently closer than others, as on a real network.
+ *
+ * Constructor:
+ * - Sim_Network(random, minLatencyMicros, maxLatencyMicros, lossRate,
+ * coordinates): Initializes an empty network.
+ *
+ * Methods:
+ * - register(node): Makes a node reachable through the network.
+ * - crash(node): Makes a node unreachable, as if its process had died.
+ * - deliver(from, ip, port, message): Delivers a message and returns the
+ * response.
+ * - post(from, ip, port, message): Delivers a message whose response is not
+ * waited for.
+ * - setTime(nanos): Sets the virtual clock at the start of an event.
+ * - getCount(operation): Returns the number of messages sent for an operation.
+ */
+class Sim_Network {
+
+    // Time charged to the sender when a message is lost or its destination is down
+    public static final long TIMEOUT_NANOS = 1_000_000_000L;
+    // Maximum nesting of recursive messages before a request is treated as timed out
+    public static final int MAX_DEPTH = 64;
+
+    private final Map<String, Node> nodes;
+    private final Map<String, double[]> positions; // Points of the nodes, with the coordinates model
+    private final Set<String> crashed;
+    private final Map<String, Long> counts;
+    private final Random random;
+    private final long minLatencyNanos;
+    private final long maxLatencyNanos;
+    private final double lossRate;
+    private long clockNanos; // Virtual time of the network
+    private int depth; // Nesting of the message being delivered
+    public long messages;
+    public long failed;
+
+    /**
+     * Initializes an empty network.
+     *
+     * @param random           The seeded random source used for latency and loss.
+     * @param minLatencyMicros The minimum one-way latency of a message.
+     * @param maxLatencyMicros The maximum one-way latency of a message.
+     * @param lossRate         The probability that a message is lost.
+     * @param coordinates      True to derive latency from the distance between
+     *                         nodes instead of drawing it per message.
+     */
+    public Sim_Network(Random random, long minLatencyMicros, long maxLatencyMicros, double lossRate,
+            boolean coordinates) {
+        this.nodes = new HashMap<>();
+        this.positions = coordinates ? new HashMap<>() : null;
+        this.crashed = new HashSet<>();
+        this.counts = new TreeMap<>();
+        this.random = random;
+        this.minLatencyNanos = minLatencyMicros * 1000;
+        this.maxLatencyNanos = Math.max(minLatencyMicros, maxLatencyMicros) * 1000;
+        this.lossRate = lossRate;
+        this.clockNanos = 0;
+        this.depth = 0;
+    }
+
+    /**
+     * Makes a node reachable through the network.
+     *
+     * @param node The node to register.
+     */
+    public void register(Node node) {
+        nodes.put(node.nodeInfo.toString(), node);
+        if (positions != null) {
+            positions.putIfAbsent(node.nodeInfo.toString(), new double[] { random.nextDouble(), random.nextDouble() });
+        }
+        crashed.remove(node.nodeInfo.toString());
+    }
+
+    /**
+     * Makes a node unreachable, as if its process had died.
+     *
+     * @param node The node to crash.
+     */
+    public void crash(Node node) {
+        crashed.add(node.nodeInfo.toString());
+    }
+
+    /**
+     * Returns the current virtual time of the network.
+     *
+     * @return The virtual time in nanoseconds.
+     */
+    public long nanoTime() {
+        return clockNanos;
+    }
+
+    /**
+     * Sets the virtual clock at the start of an event. Within the event the clock
+     * only moves forward, by the latency of the messages sent.
+     *
+     * @param nanos The virtual time of the event.
+     */
+    public void setTime(long nanos) {
+        clockNanos = nanos;
+    }
+
+    /**
+     * Returns the number of messages sent for an operation.
+     *
+     * @param operation The operation, e.g. "Find_Predecessor".
+     * @return The number of messages sent.
+     */
+    public long getCount(String operation) {
+        return counts.getOrDefault(operation, 0L);
+    }
+
+    /**
+     * Delivers a message to the node registered at the given address and returns
+     * its response. Lost messages, crashed nodes and requests nested deeper than
+     * MAX_DEPTH cost a timeout and return an empty string, like a failed socket.
+     *
+     * @param from    The address of the sender, or null if unknown.
+     * @param ip      The IP address of the destination.
+     * @param port    The port number of the destination.
+     * @param message The message to deliver.
+     * @return The response of the destination, or an empty string.
+     */
+    public String deliver(String from, String ip, int port, String message) {
+        return deliver(from, ip, port, message, true);
+    }
+
+    /**
+     * Delivers a message whose sender does not wait for the response, so that
+     * only the way to the destination is charged to the clock. The message is
+     * still handled on the calling thread, the messages it posts in turn being
+     * delivered before this method returns.
+     *
+     * @param from    The address of the sender, or null if unknown.
+     * @param ip      The IP address of the destination.
+     * @param port    The port number of the destination.
+     * @param message The message to deliver.
+     */
+    public void post(String from, String ip, int port, String message) {
+        deliver(from, ip, port, message, false);
+    }
+
+    private String deliver(String from, String ip, int port, String message, boolean awaited) {
+        messages++;
+        // Count the operation carried by the message, behind the marker of the codec
+        String operation = message.startsWith(Message_Codec.ACCEPT) ? message.substring(Message_Codec.ACCEPT.length())
+                : message.startsWith(Message_Codec.COMPRESSED) ? "Compressed" : message;
+        int separator = operation.indexOf('|');
+        counts.merge(separator < 0 ? operation : operation.substring(0, separator), 1L, Long::sum);
+
+        String address = ip + "|" + port;
+        Node target = nodes.get(address);
+        if (target == null || crashed.contains(address) || depth >= MAX_DEPTH || random.nextDouble() < lossRate) {
+            failed++;
+            clockNanos += TIMEOUT_NANOS;
+            return "";
+        }
+        clockNanos += latency(from, address); // Request travels to the destination
+        depth++;
+        try {
+            return target.processRequest(message);
+        } catch (RuntimeException e) {
+            failed++;
+            return "";
+        } finally {
+            depth--;
+            if (awaited) {
+                clockNanos += latency(from, address); // Response travels back
+            }
+        }
+    }
+
+    /**
+     * Returns a one-way latency between the configured bounds. With the
+     * coordinates model, the latency is proportional to the distance between the
+     * two nodes, the diagonal of the square costing the maximum latency.
+     *
+     * @param from The address of the sender, or null if unknown.
+     * @param to   The address of the destination.
+     * @return The latency in nanoseconds.
+     */
+    private long latency(String from, String to) {
+        if (positions != null && from != null && positions.containsKey(from) && positions.containsKey(to)) {
+            double[] a = positions.get(from);
+            double[] b = positions.get(to);
+            double distance = Math.hypot(a[0] - b[0], a[1] - b[1]) / Math.sqrt(2);
+            return minLatencyNanos + (long) (distance * (maxLatencyNanos - minLatencyNanos));
+        }
+        if (maxLatencyNanos == minLatencyNanos) {
+            return minLatencyNanos;
+        }
+        return minLatencyNanos + (long) (random.nextDouble() * (maxLatencyNanos - minLatencyNanos));
+    }
+
+}
+
+/*
+ * Class implementing the transport of a node over the simulated network.
+ *
+ * Constructor:
+ * - In_Memory_Transport(network): Attaches the transport to a network.
+ *
+ * Methods:
+ * - sendMessage(ip, port, message): Delivers a message through the network.
+ * - post(ip, port, message): Delivers a message without its response.
+ * - listen(node): Registers the node in the network and returns at once.
+ * - nanoTime(): Returns the virtual clock of the network.
+ */
+class In_Memory_Transport implements Transport {
+
+    private final Sim_Network network;
+    private String address; // Address of the node, known once it listens
+
+    /**
+     * Attaches the transport to a simulated network.
+     *
+     * @param network The network to use.
+     */
+    public In_Memory_Transport(Sim_Network network) {
+        this.network = network;
+    }
+
+    public String sendMessage(String ip, int port, String message) {
+        return network.deliver(address, ip, port, message);
+    }
+
+    public void post(String ip, int port, String message) {
+        network.post(address, ip, port, message);
+    }
+
+    public void listen(Node node) {
+        address = node.nodeInfo.toString();
+        network.register(node);
+    }
+
+    public long nanoTime() {
+        return network.nanoTime();
+    }
+
+}
+
+/*
+ * Class representing an event of the simulation, run at a virtual time. Events
+ * at the same time run in the order they were scheduled.
+ */
+class Sim_Event implements Comparable<Sim_Event> {
+
+    public final long time;
+    public final long sequence;
+    public final Runnable action;
+
+    /**
+     * Constructs an event.
+     *
+     * @param time     The virtual time of the event in nanoseconds.
+     * @param sequence The scheduling order of the event.
+     * @param action   The action to run.
+     */
+    public Sim_Event(long time, long sequence, Runnable action) {
+        this.time = time;
+        this.sequence = sequence;
+        this.action = action;
+    }
+
+    public int compareTo(Sim_Event other) {
+        if (time != other.time) {
+            return Long.compare(time, other.time);
+        }
+        return Long.compare(sequence, other.sequence);
+    }
+
+}
+
+/**
+ * This class runs many nodes in one JVM over an in-memory transport, driven by
+ * a deterministic scheduler in virtual time. Given the same seed and options, a
+ * run always produces the same results.
+ *
+ * The simulation joins the nodes one after another, runs the stabilization and
+ * finger fixing rounds of every node, optionally crashes a fraction of the
+ * nodes, and reports ring convergence, lookup hops and latency, and key balance.
+ *
+ * Usage: java Chord_Simulator [--nodes=1000] [--m=16] [--seed=1]
+ * [--duration=600] [--latency=1000-5000] [--latency-model=uniform|coordinates]
+ * [--candidates=4] [--loss=0] [--crash=0] [--lookups=2000] [--keys=10000]
+ * [--routing=recursive|async] [--verbose]
+ */
+public class Chord_Simulator {
+
+    // Period of the stabilization and finger fixing rounds, as in Node
+    public static final long ROUND_NANOS = 10_000_000_000L;
+    // Interval between two joins
+    public static final long JOIN_NANOS = 100_000_000L;
+
+    private final Random random;
+    private final Sim_Network network;
+    private final PriorityQueue<Sim_Event> events;
+    private final List<Node> live;
+    private final Set<Node> alive; // Same nodes as live, for constant time checks
+    private final Set<Integer> ids; // IDs of the live nodes
+    private long sequence;
+    private int port;
+    public int collisions;
+    public long errors;
+
+    /**
+     * Initializes a simulation.
+     *
+     * @param seed             The seed of every random choice of the simulation.
+     * @param minLatencyMicros The minimum one-way latency of a message.
+     * @param maxLatencyMicros The maximum one-way latency of a message.
+     * @param lossRate         The probability that a message is lost.
+     * @param coordinates      True to derive latency from the distance between
+     *                         nodes.
+     */
+    public Chord_Simulator(long seed, long minLatencyMicros, long maxLatencyMicros, double lossRate,
+            boolean coordinates) {
+        this.random = new Random(seed);
+        this.network = new Sim_Network(new Random(seed ^ 0x5DEECE66DL), minLatencyMicros, maxLatencyMicros,
+                lossRate, coordinates);
+        this.events = new PriorityQueue<>();
+        this.live = new ArrayList<>();
+        this.alive = new HashSet<>();
+        this.ids = new HashSet<>();
+        this.sequence = 0;
+        this.port = 1025;
+        this.collisions = 0;
+        this.errors = 0;
+    }
+
+    /**
+     * Schedules an action at a virtual time.
+     *
+     * @param time   The virtual time in nanoseconds.
+     * @param action The action to run.
+     */
+    public void schedule(long time, Runnable action) {
+        events.add(new Sim_Event(time, sequence++, action));
+    }
+
+    /**
+     * Runs every event scheduled up to the given virtual time.
+     *
+     * @param until The virtual time to stop at, in nanoseconds.
+     */
+    public void runUntil(long until) {
+        while (!events.isEmpty() && events.peek().time <= until) {
+            Sim_Event event = events.poll();
+            network.setTime(event.time);
+            try {
+                event.action.run();
+            } catch (RuntimeException e) {
+                errors++; // Maintenance rounds give up on malformed responses
+            }
+        }
+        network.setTime(until);
+    }
+
+    /**
+     * Creates a node with the next free port, skipping ports whose ID collides
+     * with a live node.
+     *
+     * @return The new node, registered in the network.
+     */
+    private Node newNode() {
+        while (true) {
+            Node node = new Node("sim", port++, new In_Memory_Transport(network));
+            if (!ids.contains(node.id)) {
+                try {
+                    node.requestHandler.listen(node);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                ids.add(node.id);
+                return node;
+            }
+            collisions++;
+        }
+    }
+
+    /**
+     * Schedules the periodic stabilization and finger fixing rounds of a node, with
+     * a random phase so that nodes do not run in lock step.
+     *
+     * @param node The node to maintain.
+     * @param from The virtual time of its first round.
+     */
+    private void scheduleMaintenance(Node node, long from) {
+        long phase = (long) (random.nextDouble() * ROUND_NANOS);
+        scheduleStabilize(node, from + phase);
+        scheduleFixFinger(node, from + (long) (random.nextDouble() * ROUND_NANOS));
+    }
+
+    private void scheduleStabilize(Node node, long time) {
+        schedule(time, () -> {
+            if (!alive.contains(node)) {
+                return;
+            }
+            scheduleStabilize(node, time + ROUND_NANOS);
+            node.stabilizeOnce();
+        });
+    }
+
+    private void scheduleFixFinger(Node node, long time) {
+        schedule(time, () -> {
+            if (!alive.contains(node)) {
+                return;
+            }
+            scheduleFixFinger(node, time + ROUND_NANOS);
+            if (Finger_Table.M > 1) {
+                node.fixFinger(random.nextInt(Finger_Table.M - 1) + 1);
+            }
+        });
+    }
+
+    /**
+     * Creates the ring and schedules the joins of the other nodes, each through a
+     * random live node.
+     *
+     * @param count The number of nodes of the ring.
+     */
+    public void build(int count) {
+        Node first = newNode();
+        first.setNeighbors(first.self(), first.self());
+        live.add(first);
+        alive.add(first);
+        scheduleMaintenance(first, 0);
+
+        for (int i = 1; i < count; i++) {
+            long time = i * JOIN_NANOS;
+            schedule(time, () -> {
+                Node bootstrap = live.get(random.nextInt(live.size()));
+                Node node = newNode();
+                node.join(bootstrap.ip, bootstrap.port);
+                live.add(node);
+                alive.add(node);
+                scheduleMaintenance(node, network.nanoTime());
+            });
+        }
+    }
+
+    /**
+     * Crashes a random fraction of the live nodes.
+     *
+     * @param fraction The fraction of nodes to crash.
+     */
+    public void crash(double fraction) {
+        int count = (int) (live.size() * fraction);
+        for (int i = 0; i < count && live.size() > 1; i++) {
+            Node node = live.remove(random.nextInt(live.size()));
+            alive.remove(node);
+            ids.remove(node.id);
+            network.crash(node);
+        }
+    }
+
+    /**
+     * Returns the live nodes sorted by ID.
+     *
+     * @return The sorted live nodes.
+     */
+    private List<Node> ring() {
+        List<Node> ring = new ArrayList<>(live);
+        ring.sort(Comparator.comparingInt(node -> node.id));
+        return ring;
+    }
+
+    /**
+     * Returns the live node responsible for an ID, the first node at or after it.
+     *
+     * @param ring The sorted live nodes.
+     * @param id   The ID to look up.
+     * @return The responsible node.
+     */
+    private static Node owner(List<Node> ring, int id) {
+        for (Node node : ring) {
+            if (node.id >= id) {
+                return node;
+            }
+        }
+        return ring.get(0);
+    }
+
+    /**
+     * Returns the fraction of live nodes whose successor is the next live node.
+     *
+     * @return The fraction of correct successors.
+     */
+    public double correctSuccessors() {
+        List<Node> ring = ring();
+        int correct = 0;
+        for (int i = 0; i < ring.size(); i++) {
+            Node node = ring.get(i);
+            Node next = ring.get((i + 1) % ring.size());
+            Peer successor = node.successor();
+            if (successor != null && successor.id == next.id) {
+                correct++;
+            }
+        }
+        return ring.isEmpty() ? 0 : (double) correct / ring.size();
+    }
+
+    /**
+     * Returns the fraction of fingers of live nodes pointing to the right node.
+     *
+     * @return The fraction of correct fingers.
+     */
+    public double correctFingers() {
+        List<Node> ring = ring();
+        int correct = 0;
+        int total = 0;
+        for (Node node : ring) {
+            for (EntryNodePair pair : node.fingerTable.getEntries()) {
+                total++;
+                if (pair.getNode() != null && pair.getNode().id == owner(ring, pair.getEntry()).id) {
+                    correct++;
+                }
+            }
+        }
+        return total == 0 ? 0 : (double) correct / total;
+    }
+
+    /**
+     * Runs random lookups from random live nodes and prints hop, latency and
+     * correctness statistics.
+     *
+     * @param count The number of lookups.
+     */
+    public void measureLookups(int count) {
+        List<Node> ring = ring();
+        long[] hops = new long[count];
+        long[] micros = new long[count];
+        int wrong = 0;
+        for (int i = 0; i < count; i++) {
+            Node origin = ring.get(random.nextInt(ring.size()));
+            int id = random.nextInt((int) Math.pow(2, Finger_Table.M));
+            // Hops of recursive and asynchronous lookups
+            long messagesBefore = network.getCount("Find_Predecessor") + network.getCount("Route");
+            long start = network.nanoTime();
+            String result = origin.findSuccessor(id);
+            hops[i] = network.getCount("Find_Predecessor") + network.getCount("Route") - messagesBefore;
+            micros[i] = (network.nanoTime() - start) / 1000;
+            if (!result.equals(owner(ring, id).describe())) {
+                wrong++;
+            }
+        }
+        Arrays.sort(hops);
+        Arrays.sort(micros);
+        System.out.printf("lookups=%d wrong=%.2f%% hops mean=%.2f p50=%d p99=%d max=%d%n", count,
+                100.0 * wrong / count, Arrays.stream(hops).average().orElse(0), percentile(hops, 50),
+                percentile(hops, 99), hops[count - 1]);
+        System.out.printf("lookup latency us mean=%.0f p50=%d p99=%d max=%d%n",
+                Arrays.stream(micros).average().orElse(0), percentile(micros, 50), percentile(micros, 99),
+                micros[count - 1]);
+    }
+
+    /**
+     * Inserts random keys through random live nodes and prints how evenly they
+     * are spread over the nodes and how many ended up on the wrong node.
+     *
+     * @param count The number of keys.
+     */
+    public void measureKeyBalance(int count) {
+        for (int i = 0; i < count; i++) {
+            Node origin = live.get(random.nextInt(live.size()));
+            origin.insertKey("key" + random.nextLong(), "v" + i);
+        }
+        List<Node> ring = ring();
+        long[] load = new long[ring.size()];
+        int misplaced = 0;
+        for (int i = 0; i < ring.size(); i++) {
+            Node node = ring.get(i);
+            load[i] = node.dataStore.size();
+            for (String key : node.dataStore.keys()) {
+                if (owner(ring, Node.keyId(key)) != node) {
+                    misplaced++;
+                }
+            }
+        }
+        Arrays.sort(load);
+        double mean = (double) count / ring.size();
+        System.out.printf("keys=%d nodes=%d per node min=%d p50=%d p99=%d max=%d max/mean=%.2f misplaced=%d%n",
+                count, ring.size(), load[0], percentile(load, 50), percentile(load, 99), load[load.length - 1],
+                load[load.length - 1] / mean, misplaced);
+    }
+
+    /**
+     * Returns a percentile of sorted values.
+     *
+     * @param sorted  The sorted values.
+     * @param percent The percentile, between 0 and 100.
+     * @return The value at the percentile.
+     */
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Prints the convergence of the ring at the current virtual time.
+     */
+    private void report() {
+        System.out.printf("t=%ds nodes=%d successors=%.1f%% fingers=%.1f%% messages=%d failed=%d%n",
+                network.nanoTime() / 1_000_000_000L, live.size(), 100 * correctSuccessors(), 100 * correctFingers(),
+                network.messages, network.failed);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = Command_Line.parseOptions(args);
+        int nodes = Integer.parseInt(options.getOrDefault("nodes", "1000"));
+        // The ID space must be set before the finger table class is first used
+        System.setProperty("chord.m", options.getOrDefault("m", "16"));
+        if (options.containsKey("candidates")) {
+            System.setProperty("chord.finger.candidates", options.get("candidates"));
+        }
+        String routing = options.getOrDefault("routing", "recursive");
+        if (!routing.equals("recursive") && !routing.equals("async")) {
+            throw new IllegalArgumentException("Unknown routing: " + routing);
+        }
+        if (routing.equals("async")) {
+            System.setProperty("chord.route.async", "true");
+            // Messages are delivered before the first hop returns, so an answer not in
+            // by then was lost, and the lost message already cost a timeout
+            System.setProperty("chord.route.timeout", "0");
+        }
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        long durationSeconds = Long.parseLong(options.getOrDefault("duration", "600"));
+        String[] latency = options.getOrDefault("latency", "1000-5000").split("-");
+        String latencyModel = options.getOrDefault("latency-model", "uniform");
+        if (!latencyModel.equals("uniform") && !latencyModel.equals("coordinates")) {
+            throw new IllegalArgumentException("Unknown latency model: " + latencyModel);
+        }
+        double loss = Double.parseDouble(options.getOrDefault("loss", "0"));
+        double crash = Double.parseDouble(options.getOrDefault("crash", "0"));
+        int lookups = Integer.parseInt(options.getOrDefault("lookups", "2000"));
+        int keys = Integer.parseInt(options.getOrDefault("keys", "10000"));
+        if (!options.containsKey("verbose")) {
+            // Nodes report every failed message on stderr, which drowns the results
+            System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        if (Math.pow(2, Finger_Table.M) < 4.0 * nodes) {
+            System.out.println("Warning: 2^" + Finger_Table.M + " IDs for " + nodes
+                    + " nodes, raise --m to avoid ID collisions");
+        }
+
+        Chord_Simulator simulator = new Chord_Simulator(seed, Long.parseLong(latency[0]),
+                Long.parseLong(latency[latency.length - 1]), loss, latencyModel.equals("coordinates"));
+        // Recursive lookups nest one call per hop, so run on a thread with a deep stack
+        Thread thread = new Thread(null, () -> {
+            simulator.build(nodes);
+            long end = durationSeconds * 1_000_000_000L;
+            long joined = nodes * JOIN_NANOS;
+            for (long time = ROUND_NANOS; time <= end; time += ROUND_NANOS) {
+                simulator.runUntil(time);
+                if (time % (6 * ROUND_NANOS) == 0 || time == end) {
+                    simulator.report();
+                }
+                if (crash > 0 && time >= joined && time < joined + ROUND_NANOS) {
+                    simulator.crash(crash);
+                    System.out.println("crashed " + (int) (crash * 100) + "% of the nodes");
+                }
+            }
+            simulator.measureLookups(lookups);
+            simulator.measureKeyBalance(keys);
+            System.out.println("id collisions skipped=" + simulator.collisions + " maintenance errors="
+                    + simulator.errors);
+        }, "simulator", 1L << 30);
+        thread.start();
+        thread.join();
+    }
+
+}
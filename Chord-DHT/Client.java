@@ -1,5 +1,4 @@
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -8,18 +7,24 @@ import java.util.Scanner;
 public class Client {
 
     /**
-     * Main method to run the client application.
+     * Main method to run the client application. Without arguments the client
+     * runs the interactive menu; with "--name=value" options it runs the load
+     * generator instead (see Load_Generator for the options).
      * 
-     * @param args Command-line arguments (not used in this program).
+     * @param args Command-line arguments, empty for the interactive menu.
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            Load_Generator.main(args);
+            return;
+        }
         String ip = "192.168.240.106"; // IP address of the server
         Scanner scanner = new Scanner(System.in);
 
         System.out.print("Give the port number of a node: ");
         int port = scanner.nextInt(); // Port number of the server
 
-        try {
+        try (Chord_Client client = new Chord_Client(List.of(new Node_Info(ip, port)))) {
             while (true) {
                 // Displaying menu options
                 System.out.println("+++++++++++++++++++++++++MENU ++++++++++++++++++++++++");
@@ -32,9 +37,7 @@ public class Client {
                 System.out.print("Choice: ");
                 String choice = scanner.next();
 
-                try (Socket socket = new Socket(ip, port);
-                     PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                     Scanner in = new Scanner(socket.getInputStream())) {
+                try {
 
                     if (choice.equals("1")) {
                         // Option to insert data
@@ -42,29 +45,24 @@ public class Client {
                         String key = scanner.next();
                         System.out.print("ENTER THE VALUE : ");
                         String val = scanner.next();
-                        String message = "Insert|" + key + ":" + val;
-                        out.println(message);
-                        String response = in.nextLine();
+                        String response = client.put(key, val).join();
                         System.out.println(response);
                     } else if (choice.equals("2")) {
                         // Option to search for data
                         System.out.print("ENTER THE KEY : ");
                         String key = scanner.next();
-                        String message = "Search|" + key;
-                        out.println(message);
-                        String response = in.nextLine();
-                        System.out.println("The value corresponding to the key is : " + response);
+                        String response = client.get(key).join();
+                        System.out.println("The value corresponding to the key is : "
+                                + (response == null ? "NOT FOUND" : response));
                     } else if (choice.equals("3")) {
                         // Option to delete data
                         System.out.print("ENTER THE KEY : ");
                         String key = scanner.next();
-                        String message = "Delete|" + key;
-                        out.println(message);
-                        String response = in.nextLine();
+                        String response = client.delete(key).join();
                         System.out.println(response);
                     } else if (choice.equals("4")) {
                         // Option to exit the program
-                        System.out.println("Closing the socket");
+                        System.out.println("Closing the connections");
                         System.out.println("Exiting Client");
                         break;
                     } else {
@@ -0,0 +1,57 @@
+import java.util.*;
+
+/*
+ * Class to evict keys with the CLOCK algorithm, an approximation of LRU: a read
+ * only sets the reference bit of the key, and the hand going around the keys
+ * gives a second chance to the keys whose bit is set, clearing it, and evicts
+ * the first key whose bit is clear. Reads do not reorder anything, so they are
+ * cheaper than with LRU.
+ * 
+ * Constructor:
+ * - Clock_Policy(): Initializes an empty policy.
+ */
+class Clock_Policy implements Eviction_Policy {
+
+    // Keys in the order of the hand, with their reference bits; the hand points at
+    // the first key, and a key passed by the hand is moved to the end
+    private final LinkedHashMap<String, Boolean> ring;
+
+    public Clock_Policy() {
+        this.ring = new LinkedHashMap<>();
+    }
+
+    public synchronized void onInsert(String key) {
+        ring.put(key, Boolean.TRUE);
+    }
+
+    public synchronized void onAccess(String key) {
+        ring.replace(key, Boolean.TRUE);
+    }
+
+    public synchronized void onRemove(String key) {
+        ring.remove(key);
+    }
+
+    public synchronized String victim(Set<String> exclude) {
+        // Two turns at most: the first one may clear every bit
+        for (int step = 0; step < 2 * ring.size(); step++) {
+            Map.Entry<String, Boolean> hand = ring.entrySet().iterator().next();
+            String key = hand.getKey();
+            if (!hand.getValue() && !exclude.contains(key)) {
+                return key;
+            }
+            ring.remove(key);
+            ring.put(key, Boolean.FALSE);
+        }
+        return null;
+    }
+
+    public boolean admit(String candidate, String victim) {
+        return true;
+    }
+
+    public String getName() {
+        return "clock";
+    }
+
+}
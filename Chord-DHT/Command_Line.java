@@ -0,0 +1,35 @@
+import java.util.*;
+
+/*
+ * Class to parse the "--name=value" options of the command-line tools, the
+ * simulator and the load generator.
+ *
+ * Methods:
+ * - parseOptions(args): Returns the options of the command line by name.
+ */
+class Command_Line {
+
+    /**
+     * Parses the "--name=value" options of the command line. An option without a
+     * value, such as "--preload", has the value "true".
+     *
+     * @param args The command-line arguments.
+     * @return The options by name.
+     */
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            }
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+        return options;
+    }
+
+}
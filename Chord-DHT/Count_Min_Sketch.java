@@ -0,0 +1,93 @@
+/*
+ * Class to estimate how often keys are read with a count-min sketch: a few rows
+ * of counters, each indexed by a different hash of the key. The estimate of a
+ * key is its smallest counter, which can only overcount. Once the number of
+ * reads reaches ten times the width, every counter is halved, so the estimates
+ * follow the recent popularity of the keys.
+ *
+ * Constructor:
+ * - Count_Min_Sketch(width): Initializes the sketch with 4 rows of counters.
+ *
+ * Methods:
+ * - add(key): Counts a read of a key and returns its new estimate.
+ * - estimate(key): Returns the estimated number of recent reads of a key.
+ */
+class Count_Min_Sketch {
+
+    private static final int DEPTH = 4;
+
+    private final int[][] counts;
+    private final int mask; // The width is a power of two
+    private final int sampleSize; // Reads between two halvings
+    private int additions;
+
+    /**
+     * Initializes the sketch.
+     *
+     * @param width The number of counters per row, rounded up to a power of two.
+     */
+    public Count_Min_Sketch(int width) {
+        int size = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+        this.counts = new int[DEPTH][size];
+        this.mask = size - 1;
+        this.sampleSize = 10 * size;
+        this.additions = 0;
+    }
+
+    /**
+     * Returns the counter index of a key in a row, using double hashing.
+     *
+     * @param hash The hash code of the key.
+     * @param row  The row.
+     * @return The index in the row.
+     */
+    private int index(int hash, int row) {
+        int h1 = hash * 0x9E3779B9;
+        int h2 = (Integer.rotateLeft(hash, 16) * 0x85EBCA6B) | 1;
+        return (h1 + row * h2) >>> 8 & mask;
+    }
+
+    /**
+     * Counts a read of a key.
+     *
+     * @param key The key read.
+     * @return The estimated number of recent reads of the key, this one included.
+     */
+    public synchronized int add(String key) {
+        int hash = key.hashCode();
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int i = index(hash, row);
+            if (counts[row][i] < Integer.MAX_VALUE) {
+                counts[row][i]++;
+            }
+            min = Math.min(min, counts[row][i]);
+        }
+        if (++additions >= sampleSize) {
+            // Age the counters so that keys which cooled down stop being hot
+            for (int[] row : counts) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>>= 1;
+                }
+            }
+            additions /= 2;
+        }
+        return min;
+    }
+
+    /**
+     * Returns the estimated number of recent reads of a key.
+     *
+     * @param key The key.
+     * @return The estimate.
+     */
+    public synchronized int estimate(String key) {
+        int hash = key.hashCode();
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, counts[row][index(hash, row)]);
+        }
+        return min;
+    }
+
+}
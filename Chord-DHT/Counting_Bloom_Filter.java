@@ -0,0 +1,197 @@
+import java.util.*;
+
+/*
+ * Class to tell quickly that a key is not stored, with a counting Bloom filter:
+ * every key increments a few counters, each chosen by a different hash of the
+ * key, and decrements them when it is removed. A key with any counter at 0 is
+ * certainly not stored; one with all counters set probably is. Counters stop at
+ * 255 and are then never decremented, which only adds false positives.
+ * 
+ * The filter is sized for BITS_PER_KEY counters per key and grows, rebuilt from
+ * the keys, once it holds more keys than it was sized for. Its counters are
+ * only allocated with the first key. A snapshot of the filter can be encoded to
+ * be sent to a client, which then answers misses itself.
+ *
+ * Constructor:
+ * - Counting_Bloom_Filter(): Initializes an empty filter.
+ *
+ * Methods:
+ * - add(key): Counts a key added to the store.
+ * - remove(key): Uncounts a key removed from the store.
+ * - mightContain(key): Returns false if the key is certainly not stored.
+ * - isFull(): Returns whether the filter holds more keys than it was sized for.
+ * - resize(keys): Rebuilds the filter for the given keys.
+ * - encode(): Returns the filter as "size|hashes|base64 of the counters set".
+ * - decode(encoded): Returns a filter built from an encoded one.
+ */
+class Counting_Bloom_Filter {
+
+    // Number of counters per key, 10 giving about 1% of false positives
+    public static final int BITS_PER_KEY = Math.max(4, Integer.getInteger("chord.bloom.bits", 10));
+    // Initial number of keys the filter is sized for
+    public static final int MIN_CAPACITY = 1024;
+
+    private byte[] counts; // Unsigned counters, allocated with the first key
+    private int hashes; // Number of counters per key
+    private int keys; // Number of keys counted
+    private int capacity; // Number of keys the filter is sized for
+
+    public Counting_Bloom_Filter() {
+        this.counts = null;
+        // The number of hashes minimizing false positives is ln 2 per counter per key
+        this.hashes = Math.max(1, (int) Math.round(BITS_PER_KEY * Math.log(2)));
+        this.keys = 0;
+        this.capacity = MIN_CAPACITY;
+    }
+
+    /**
+     * Returns the counter index of a key for one of its hashes, using double
+     * hashing.
+     *
+     * @param h1   The first hash of the key.
+     * @param h2   The second hash of the key, odd.
+     * @param hash The number of the hash, from 0.
+     * @param size The number of counters.
+     * @return The index.
+     */
+    private static int index(int h1, int h2, int hash, int size) {
+        return Math.floorMod(h1 + hash * h2, size);
+    }
+
+    private static int firstHash(String key) {
+        return key.hashCode() * 0x9E3779B9;
+    }
+
+    private static int secondHash(String key) {
+        int hash = 0x811C9DC5; // FNV-1a, independent of String.hashCode
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x01000193;
+        }
+        return hash | 1;
+    }
+
+    /**
+     * Counts a key added to the store.
+     *
+     * @param key The key.
+     */
+    public synchronized void add(String key) {
+        if (counts == null) {
+            counts = new byte[capacity * BITS_PER_KEY];
+        }
+        int h1 = firstHash(key);
+        int h2 = secondHash(key);
+        for (int i = 0; i < hashes; i++) {
+            int j = index(h1, h2, i, counts.length);
+            if ((counts[j] & 0xFF) < 0xFF) {
+                counts[j]++;
+            }
+        }
+        keys++;
+    }
+
+    /**
+     * Uncounts a key removed from the store.
+     *
+     * @param key The key, which must have been added.
+     */
+    public synchronized void remove(String key) {
+        if (counts == null) {
+            return;
+        }
+        int h1 = firstHash(key);
+        int h2 = secondHash(key);
+        for (int i = 0; i < hashes; i++) {
+            int j = index(h1, h2, i, counts.length);
+            if (counts[j] != 0 && (counts[j] & 0xFF) < 0xFF) {
+                counts[j]--;
+            }
+        }
+        keys = Math.max(0, keys - 1);
+    }
+
+    /**
+     * Returns whether a key may be stored.
+     *
+     * @param key The key.
+     * @return False if the key is certainly not stored.
+     */
+    public synchronized boolean mightContain(String key) {
+        if (counts == null) {
+            return false;
+        }
+        int h1 = firstHash(key);
+        int h2 = secondHash(key);
+        for (int i = 0; i < hashes; i++) {
+            if (counts[index(h1, h2, i, counts.length)] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized boolean isFull() {
+        return keys > capacity;
+    }
+
+    /**
+     * Rebuilds the filter for the given keys, sized for twice as many.
+     *
+     * @param all The keys of the store.
+     */
+    public synchronized void resize(Collection<String> all) {
+        capacity = Math.max(MIN_CAPACITY, 2 * all.size());
+        counts = null;
+        keys = 0;
+        for (String key : all) {
+            add(key);
+        }
+    }
+
+    /**
+     * Returns the filter as "size|hashes|counters", the counters being one bit
+     * each, set if the counter is not 0, encoded in base64.
+     *
+     * @return The encoded filter.
+     */
+    public synchronized String encode() {
+        if (counts == null) {
+            return "0|" + hashes + "|";
+        }
+        BitSet bits = new BitSet(counts.length);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                bits.set(i);
+            }
+        }
+        return counts.length + "|" + hashes + "|" + Base64.getEncoder().encodeToString(bits.toByteArray());
+    }
+
+    /**
+     * Returns a filter built from an encoded one, which answers mightContain as
+     * the encoded filter did.
+     *
+     * @param encoded The filter encoded by encode().
+     * @return The filter.
+     * @throws IllegalArgumentException If the filter cannot be decoded.
+     */
+    public static Counting_Bloom_Filter decode(String encoded) {
+        String[] parts = encoded.trim().split("\\|", -1);
+        if (parts.length < 3) {
+            throw new IllegalArgumentException("Invalid Bloom filter: " + encoded);
+        }
+        Counting_Bloom_Filter filter = new Counting_Bloom_Filter();
+        int size = Integer.parseInt(parts[0]);
+        filter.hashes = Integer.parseInt(parts[1]);
+        if (size > 0) {
+            BitSet bits = BitSet.valueOf(Base64.getDecoder().decode(parts[2]));
+            filter.counts = new byte[size];
+            filter.capacity = Math.max(1, size / BITS_PER_KEY);
+            for (int i = bits.nextSetBit(0); i >= 0 && i < size; i = bits.nextSetBit(i + 1)) {
+                filter.counts[i] = 1;
+            }
+        }
+        return filter;
+    }
+
+}
@@ -0,0 +1,664 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Class to store data in a node in the DHT ring.
+ * 
+ * The map is only reached through the methods below, as requests are served by
+ * several threads at once. With a codec, values longer than its threshold are
+ * kept compressed and expanded again when read.
+ * 
+ * A key may be given a time to live. Its deadline is kept apart from the value
+ * and scheduled on a timer wheel, which expireDue() advances from a single
+ * thread; a key read after its deadline but before the wheel reached it is
+ * expired on the spot.
+ * 
+ * The memory of the pairs may be bounded by a budget in bytes, estimated from
+ * the length of the stored keys and values. Once it is reached, a store refuses
+ * new writes, while a cache evicts the keys chosen by its eviction policy. Pairs
+ * handed over by another node are always restored, as the sender drops them.
+ * 
+ * Every stored value has a version, which moves with the key to another node.
+ * Versions come from a counter of the store, raised to the versions of the pairs
+ * handed over, so a key gets a higher version on each write and never gets a
+ * version again after it was deleted. A write may be made conditional on the
+ * version read, so clients update a value without losing a concurrent write.
+ * 
+ * Constructor:
+ * - Data_Store(): Initializes the hashmap to store data.
+ * - Data_Store(codec): Initializes the hashmap, compressing large values.
+ * - Data_Store(codec, tickMillis): Initializes the hashmap, with the given
+ * precision of expiration.
+ * 
+ * Methods:
+ * - insert(key, value): Inserts a key-value pair into the hashmap.
+ * - insert(key, value, ttlMillis): Inserts a key-value pair which expires after
+ * the given time, or never if it is 0. Returns false if it does not fit.
+ * - restore(key, value, ttlMillis): Inserts a pair handed over by another node,
+ * whatever the budget.
+ * - restore(key, value, ttlMillis, version): Inserts a pair handed over by
+ * another node with its version.
+ * - compareAndSet(key, expectedVersion, value, ttlMillis): Inserts a pair if the
+ * key still has the given version, 0 meaning absent.
+ * - increment(key, delta, ttlMillis): Adds to the number stored at a key.
+ * - append(key, element, ttlMillis): Appends an element to the list stored at a
+ * key.
+ * - countElements(list): Returns the number of elements of a list.
+ * - getVersion(key): Returns the version of a key, or 0.
+ * - getVersioned(key): Returns the value of a key annotated with its version.
+ * - setBudget(budgetBytes, policy): Bounds the memory of the pairs, evicting
+ * with the given policy or refusing writes if it is null.
+ * - getMetrics(): Returns the memory and eviction counters.
+ * - getTree(): Returns the Merkle tree of the pairs.
+ * - getFilter(): Returns the Bloom filter of the keys.
+ * - mightContain(key): Returns false if a key is certainly not stored.
+ * - getTtl(key): Returns the time left before a key expires, or 0.
+ * - expireDue(now): Deletes the keys whose deadline has passed.
+ * - getExpired(): Returns the number of keys expired so far.
+ * - parseTtl(args): Returns the time to live given in the arguments of a
+ * request, or 0.
+ * - parseVersion(response): Returns the version annotated on a response, or 0.
+ * - delete(key): Deletes the given key from the hashmap.
+ * - delete(key, value): Deletes a key if it still has the given value.
+ * - search(key): Searches for the given key in the hashmap.
+ * - get(key): Returns the value of a key, or null.
+ * - containsKey(key): Checks whether a key is stored.
+ * - keys(): Returns a snapshot of the stored keys.
+ * - size(): Returns the number of stored keys.
+ * - getCodec(): Returns the codec of the values at rest, or null.
+ */
+class Data_Store {
+
+    public static final String TTL_OPTION = "ttl="; // Optional argument of inserts, in milliseconds
+    public static final String VERSION_OPTION = "version"; // Argument asking a search for the version
+    public static final String VERSION_ANNOTATION = "|version="; // Version appended to a value
+    public static final String LIST_SEPARATOR = ","; // Separator of the elements of a list
+
+    // Key-Value Data
+    private final Map<String, String> data;
+    // Codec compressing the values at rest, or null to store them as given
+    private final Message_Codec codec;
+    // Deadlines of the keys which expire, in milliseconds since the epoch
+    private final Map<String, Long> deadlines;
+    // Wheel scheduling the deadlines
+    private final Timer_Wheel wheel;
+    // Number of keys expired so far
+    private final AtomicLong expired;
+    // Estimated memory of the pairs, and the budget it may not exceed, or 0 for no
+    // budget
+    private long bytes;
+    private long budget;
+    // Policy choosing the keys to evict, or null to refuse writes over the budget
+    private Eviction_Policy policy;
+    // Number of keys evicted, and of writes refused or not admitted
+    private final AtomicLong evicted;
+    private final AtomicLong rejected;
+    // Summary of the pairs, to compare them with a copy on another node
+    private final Merkle_Tree tree;
+    // Version of each stored key, and the last version given to a write
+    private final Map<String, Long> versions;
+    private long lastVersion;
+    // Filter answering quickly for the keys which are not stored
+    private final Counting_Bloom_Filter filter;
+
+    /**
+     * Initializes Data_Store with an empty HashMap to store data.
+     */
+    public Data_Store() {
+        this(null);
+    }
+
+    /**
+     * Initializes Data_Store with an empty HashMap, compressing the large values
+     * with the given codec.
+     *
+     * @param codec The codec, or null to store values as given.
+     */
+    public Data_Store(Message_Codec codec) {
+        this(codec, Timer_Wheel.DEFAULT_TICK_MILLIS);
+    }
+
+    /**
+     * Initializes Data_Store with an empty HashMap, compressing the large values
+     * with the given codec and expiring keys with the given precision.
+     *
+     * @param codec      The codec, or null to store values as given.
+     * @param tickMillis The duration of a tick of the timer wheel.
+     */
+    public Data_Store(Message_Codec codec, long tickMillis) {
+        this.data = new ConcurrentHashMap<>();
+        this.codec = codec;
+        this.deadlines = new ConcurrentHashMap<>();
+        this.wheel = new Timer_Wheel(tickMillis, System.currentTimeMillis());
+        this.expired = new AtomicLong();
+        this.bytes = 0;
+        this.budget = 0;
+        this.policy = null;
+        this.evicted = new AtomicLong();
+        this.rejected = new AtomicLong();
+        this.tree = new Merkle_Tree();
+        this.versions = new ConcurrentHashMap<>();
+        this.lastVersion = 0;
+        this.filter = new Counting_Bloom_Filter();
+    }
+
+    public Merkle_Tree getTree() {
+        return tree;
+    }
+
+    public Counting_Bloom_Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Returns whether a key may be stored, without touching the pairs.
+     *
+     * @param key The key.
+     * @return False if the key is certainly not stored.
+     */
+    public boolean mightContain(String key) {
+        return filter.mightContain(key);
+    }
+
+    /**
+     * Returns a stored value as it was given, expanded if compressed.
+     *
+     * @param stored The stored value, or null.
+     * @return The value as given, or null.
+     */
+    private String plainOf(String stored) {
+        return stored == null || codec == null ? stored : codec.decompress(stored);
+    }
+
+    /**
+     * Bounds the memory of the pairs. Pairs already stored over the budget are
+     * evicted by the next write.
+     *
+     * @param budgetBytes The budget in bytes, or 0 for no budget.
+     * @param policy      The policy choosing the keys to evict, or null to refuse
+     *                    the writes which do not fit.
+     */
+    public synchronized void setBudget(long budgetBytes, Eviction_Policy policy) {
+        this.budget = Math.max(0, budgetBytes);
+        this.policy = policy;
+        if (policy != null) {
+            for (String key : data.keySet()) {
+                policy.onInsert(key);
+            }
+        }
+    }
+
+    /**
+     * Returns the estimated memory of a pair: two bytes per character, and the
+     * overhead of the strings and of the map entry.
+     *
+     * @param key   The key.
+     * @param value The stored value.
+     * @return The estimated number of bytes.
+     */
+    static long sizeOf(String key, String value) {
+        return 2L * (key.length() + value.length()) + 96;
+    }
+
+    /**
+     * Inserts a key-value pair into the data store.
+     *
+     * @param key   The key to insert.
+     * @param value The value associated with the key.
+     * @return False if the pair does not fit in the budget.
+     */
+    public boolean insert(String key, String value) {
+        return insert(key, value, 0);
+    }
+
+    /**
+     * Inserts a key-value pair into the data store, replacing the deadline of any
+     * previous value of the key. Over the budget, a cache evicts keys until the
+     * pair fits, unless its policy does not admit the new key, and a store refuses
+     * the pair.
+     *
+     * @param key       The key to insert.
+     * @param value     The value associated with the key.
+     * @param ttlMillis The time after which the key expires, or 0 to keep it.
+     * @return False if the pair does not fit in the budget.
+     */
+    public boolean insert(String key, String value, long ttlMillis) {
+        return put(key, value, ttlMillis, false, 0) > 0;
+    }
+
+    /**
+     * Inserts a pair handed over by another node, even over the budget, as the
+     * other node no longer holds it.
+     *
+     * @param key       The key to insert.
+     * @param value     The value associated with the key.
+     * @param ttlMillis The time after which the key expires, or 0 to keep it.
+     */
+    public void restore(String key, String value, long ttlMillis) {
+        put(key, value, ttlMillis, true, 0);
+    }
+
+    /**
+     * Inserts a pair handed over by another node, even over the budget, keeping
+     * the version it had there.
+     *
+     * @param key       The key to insert.
+     * @param value     The value associated with the key.
+     * @param ttlMillis The time after which the key expires, or 0 to keep it.
+     * @param version   The version of the pair, or 0 to count it as a new write.
+     */
+    public void restore(String key, String value, long ttlMillis, long version) {
+        put(key, value, ttlMillis, true, version);
+    }
+
+    /**
+     * Inserts a pair only if the key still has the version the writer read, in one
+     * step, so that two writers updating the same value cannot both succeed.
+     *
+     * @param key             The key to insert.
+     * @param expectedVersion The version read by the writer, or 0 if the key must
+     *                        not be stored.
+     * @param value           The value associated with the key.
+     * @param ttlMillis       The time after which the key expires, or 0 to keep it.
+     * @return The new version, -1 if the key has another version, or 0 if the pair
+     *         does not fit in the budget.
+     */
+    public synchronized long compareAndSet(String key, long expectedVersion, String value, long ttlMillis) {
+        get(key); // Expiring the key first if its time to live is over
+        if (getVersion(key) != expectedVersion) {
+            return -1;
+        }
+        return put(key, value, ttlMillis, false, 0);
+    }
+
+    /**
+     * Adds to the number stored at a key in one step, a missing key counting as 0.
+     * The time to live is only given to a new key, so a counter keeps the window
+     * it was created with.
+     *
+     * @param key       The key.
+     * @param delta     The number to add, which may be negative.
+     * @param ttlMillis The time after which a new key expires, or 0 to keep it.
+     * @return The new number, or null if it does not fit in the budget.
+     * @throws NumberFormatException If the value of the key is not a number.
+     * @throws ArithmeticException   If the number overflows.
+     */
+    public synchronized String increment(String key, long delta, long ttlMillis) {
+        String current = get(key);
+        String value = Long.toString(Math.addExact(current == null ? 0 : Long.parseLong(current.trim()), delta));
+        return put(key, value, current == null ? ttlMillis : getTtl(key), false, 0) > 0 ? value : null;
+    }
+
+    /**
+     * Appends an element to the list stored at a key in one step, a missing key
+     * being an empty list. The time to live is only given to a new key.
+     *
+     * @param key       The key.
+     * @param element   The element, which may not contain the separator.
+     * @param ttlMillis The time after which a new key expires, or 0 to keep it.
+     * @return The new list, or null if it does not fit in the budget.
+     */
+    public synchronized String append(String key, String element, long ttlMillis) {
+        String current = get(key);
+        String value = current == null ? element : current + LIST_SEPARATOR + element;
+        return put(key, value, current == null ? ttlMillis : getTtl(key), false, 0) > 0 ? value : null;
+    }
+
+    /**
+     * Returns the number of elements of a list built by append.
+     *
+     * @param list The list.
+     * @return The number of elements.
+     */
+    public static int countElements(String list) {
+        int count = 1;
+        for (int i = list.indexOf(LIST_SEPARATOR); i >= 0; i = list.indexOf(LIST_SEPARATOR, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the version of a key.
+     *
+     * @param key The key.
+     * @return The version, or 0 if the key is not stored.
+     */
+    public long getVersion(String key) {
+        return versions.getOrDefault(key, 0L);
+    }
+
+    /**
+     * Returns the value of a key followed by its version, read together.
+     *
+     * @param key The key.
+     * @return The value and "|version=<version>", or null if the key is not stored.
+     */
+    public synchronized String getVersioned(String key) {
+        String value = get(key);
+        return value == null ? null : value + VERSION_ANNOTATION + getVersion(key);
+    }
+
+    /**
+     * Stores a pair, evicting or refusing as the budget requires.
+     *
+     * @param key       The key to insert.
+     * @param value     The value associated with the key.
+     * @param ttlMillis The time after which the key expires, or 0 to keep it.
+     * @param force     True to store the pair whatever the budget.
+     * @param version   The version of the pair, or 0 for the next version of the
+     *                  store.
+     * @return The version of the pair stored, or 0 if it was refused.
+     */
+    private long put(String key, String value, long ttlMillis, boolean force, long version) {
+        String plain = value;
+        if (codec != null) {
+            // A value that looks compressed is always wrapped, so it reads back as is
+            value = codec.compress(value, value.startsWith(Message_Codec.COMPRESSED));
+        }
+        synchronized (this) {
+            if (policy != null) {
+                policy.onAccess(key); // Counting the write before deciding whether to admit it
+            }
+            String previous = data.get(key);
+            long growth = sizeOf(key, value) - (previous == null ? 0 : sizeOf(key, previous));
+            if (!force && budget > 0 && bytes + growth > budget && !makeRoom(key, previous == null, growth)) {
+                rejected.incrementAndGet();
+                return 0;
+            }
+            data.put(key, value);
+            if (previous == null) {
+                filter.add(key);
+                if (filter.isFull()) {
+                    filter.resize(data.keySet());
+                }
+            }
+            // Never giving a version twice, even to a key deleted and written again, so
+            // a writer holding an old version cannot overwrite the new value
+            if (version <= 0) {
+                version = ++lastVersion;
+            } else {
+                lastVersion = Math.max(lastVersion, version);
+            }
+            versions.put(key, version);
+            bytes += growth;
+            tree.update(key, plainOf(previous), plain);
+            if (policy != null) {
+                policy.onInsert(key);
+            }
+            if (ttlMillis > 0) {
+                long deadline = System.currentTimeMillis() + ttlMillis;
+                deadlines.put(key, deadline);
+                // A replaced deadline stays on the wheel, and is ignored when it fires
+                wheel.schedule(key, deadline);
+            } else {
+                deadlines.remove(key);
+            }
+            return version;
+        }
+    }
+
+    /**
+     * Evicts keys until a write fits in the budget, if the store is a cache and its
+     * policy admits the key written in place of every victim. The victims are all
+     * chosen before any is evicted, so a refused write evicts nothing.
+     *
+     * @param key    The key written.
+     * @param isNew  True if the key is not stored yet.
+     * @param growth The number of bytes the write adds.
+     * @return True if the write now fits.
+     */
+    private boolean makeRoom(String key, boolean isNew, long growth) {
+        if (policy == null || growth > budget) {
+            return false; // A store, or a pair larger than the whole budget
+        }
+        List<String> victims = new ArrayList<>();
+        Set<String> exclude = new HashSet<>();
+        exclude.add(key);
+        long freed = 0;
+        while (bytes - freed + growth > budget) {
+            String victim = policy.victim(exclude);
+            if (victim == null) {
+                return false;
+            }
+            // A new key only replaces keys the policy finds less valuable
+            if (isNew && !policy.admit(key, victim)) {
+                return false;
+            }
+            victims.add(victim);
+            exclude.add(victim);
+            String stored = data.get(victim);
+            freed += stored == null ? 0 : sizeOf(victim, stored);
+        }
+        for (String victim : victims) {
+            remove(victim);
+            evicted.incrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * Removes a key, its deadline and its memory.
+     *
+     * @param key The key.
+     */
+    private void remove(String key) {
+        String value = data.remove(key);
+        if (value != null) {
+            bytes -= sizeOf(key, value);
+            tree.update(key, plainOf(value), null);
+            filter.remove(key);
+        }
+        deadlines.remove(key);
+        versions.remove(key);
+        if (policy != null) {
+            policy.onRemove(key);
+        }
+    }
+
+    /**
+     * Deletes the given key from the data store.
+     *
+     * @param key The key to delete.
+     */
+    public synchronized void delete(String key) {
+        remove(key);
+    }
+
+    /**
+     * Deletes a key if it still has the given value.
+     *
+     * @param key   The key to delete.
+     * @param value The value the key must have.
+     * @return True if the key was deleted.
+     */
+    public synchronized boolean delete(String key, String value) {
+        if (value == null || !value.equals(get(key))) {
+            return false;
+        }
+        remove(key);
+        return true;
+    }
+
+    /**
+     * Returns the time left before a key expires.
+     *
+     * @param key The key.
+     * @return The time left in milliseconds, at least 1, or 0 if the key does not
+     *         expire.
+     */
+    public long getTtl(String key) {
+        Long deadline = deadlines.get(key);
+        return deadline == null ? 0 : Math.max(1, deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * Advances the timer wheel and deletes the keys whose deadline has passed.
+     *
+     * @param now The current time in milliseconds since the epoch.
+     * @return The number of keys deleted.
+     */
+    public int expireDue(long now) {
+        int count = 0;
+        for (Map.Entry<String, Long> due : wheel.advance(now)) {
+            if (expire(due.getKey(), due.getValue())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Deletes a key if its deadline is still the given one, as the key may have
+     * been written again since it was scheduled.
+     *
+     * @param key      The key.
+     * @param deadline The deadline which passed.
+     * @return True if the key was deleted.
+     */
+    private synchronized boolean expire(String key, long deadline) {
+        Long current = deadlines.get(key);
+        if (current == null || current != deadline) {
+            return false;
+        }
+        remove(key);
+        expired.incrementAndGet();
+        return true;
+    }
+
+    public long getExpired() {
+        return expired.get();
+    }
+
+    public int getScheduled() {
+        return wheel.size();
+    }
+
+    /**
+     * Returns the memory and eviction counters of the store.
+     *
+     * @return The counters as "name=value" pairs separated by commas.
+     */
+    public synchronized String getMetrics() {
+        return "bytes=" + bytes + ",budget=" + budget + ",policy=" + (policy == null ? "none" : policy.getName())
+                + ",evicted=" + evicted.get() + ",rejected=" + rejected.get();
+    }
+
+    /**
+     * Returns the time to live given by a "ttl=<ms>" argument of a request.
+     *
+     * @param args The arguments of the request.
+     * @return The time to live in milliseconds, or 0 if none is given.
+     */
+    public static long parseTtl(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith(TTL_OPTION)) {
+                try {
+                    return Math.max(0, Long.parseLong(arg.substring(TTL_OPTION.length()).trim()));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the version annotated on a response by getVersioned.
+     *
+     * @param response The response.
+     * @return The version, or 0 if the response carries none.
+     */
+    public static long parseVersion(String response) {
+        int index = response.lastIndexOf(VERSION_ANNOTATION);
+        if (index < 0) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(response.substring(index + VERSION_ANNOTATION.length()).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Searches for the given key in the data store and returns its value if found.
+     * A key the filter knows is not stored is answered without reading the pairs.
+     *
+     * @param searchKey The key to search for.
+     * @return The value associated with the search key, or null if not found.
+     */
+    public String search(String searchKey) {
+        return mightContain(searchKey) ? get(searchKey) : null;
+    }
+
+    /**
+     * Returns the value of a key.
+     *
+     * @param key The key.
+     * @return The value, or null if the key is not stored.
+     */
+    public String get(String key) {
+        // Expiring the key on the spot if the wheel did not reach it yet
+        Long deadline = deadlines.get(key);
+        if (deadline != null && deadline <= System.currentTimeMillis() && expire(key, deadline)) {
+            return null;
+        }
+        String value = data.get(key);
+        if (policy != null) {
+            policy.onAccess(key); // Counting misses too, so a key read often is admitted once written
+        }
+        return value == null || codec == null ? value : codec.decompress(value);
+    }
+
+    /**
+     * Checks whether a key is stored.
+     *
+     * @param key The key.
+     * @return True if the key is stored.
+     */
+    public boolean containsKey(String key) {
+        return data.containsKey(key) && get(key) != null;
+    }
+
+    /**
+     * Returns a snapshot of the stored keys, which can be iterated while the store
+     * changes.
+     *
+     * @return The keys.
+     */
+    public List<String> keys() {
+        return new ArrayList<>(data.keySet());
+    }
+
+    /**
+     * Returns the number of stored keys.
+     *
+     * @return The number of keys.
+     */
+    public int size() {
+        return data.size();
+    }
+
+    public Message_Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Returns the stored pairs as "{key=value, ...}", with values expanded.
+     *
+     * @return The pairs.
+     */
+    public String toString() {
+        if (codec == null) {
+            return data.toString();
+        }
+        Map<String, String> values = new HashMap<>();
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            values.put(entry.getKey(), codec.decompress(entry.getValue()));
+        }
+        return values.toString();
+    }
+
+}
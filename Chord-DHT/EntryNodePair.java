@@ -0,0 +1,67 @@
+import java.util.*;
+
+/*
+ * Represents a pair containing an entry and a node in the Finger Table.
+ * 
+ * Besides the successor of the entry, a pair keeps the next few nodes of the
+ * finger interval as candidates. Any of them can replace the finger when
+ * routing, so lookups may go through the one with the lowest round trip time.
+ * 
+ * A pair is an immutable copy of one entry, taken from a single snapshot of
+ * the table, so its entry, node and candidates always belong together however
+ * the table changes meanwhile. Entries are changed through the table.
+ * 
+ * Constructor:
+ * - EntryNodePair(entry, node, candidates): Constructs the pair of an entry.
+ * 
+ * Methods:
+ * - getEntry(): Returns the entry in the Finger Table.
+ * - getNode(): Returns the corresponding node.
+ * - getCandidates(): Returns the candidates for the finger.
+ */
+final class EntryNodePair {
+
+    private final int entry; // The start of the interval of the entry
+    private final Peer node; // The finger, or null
+    private final List<Peer> candidates; // The candidates, the finger first
+
+    /**
+     * Constructs the pair of an entry of a Finger Table.
+     *
+     * @param entry      The start of the interval of the entry.
+     * @param node       The finger, or null if the entry has none yet.
+     * @param candidates The candidates, the finger first.
+     */
+    public EntryNodePair(int entry, Peer node, Peer[] candidates) {
+        this.entry = entry;
+        this.node = node;
+        this.candidates = Collections.unmodifiableList(Arrays.asList(candidates.clone()));
+    }
+
+    /**
+     * Returns the entry in the Finger Table.
+     *
+     * @return The entry in the Finger Table.
+     */
+    public int getEntry() {
+        return this.entry;
+    }
+
+    /**
+     * Returns the corresponding node.
+     *
+     * @return The corresponding node.
+     */
+    public Peer getNode() {
+        return this.node;
+    }
+
+    /**
+     * Returns the candidates for the finger, the node itself first.
+     *
+     * @return The candidates, an immutable list.
+     */
+    public List<Peer> getCandidates() {
+        return this.candidates;
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.*;
+
+/*
+ * Interface for the policy choosing the keys a Data_Store evicts when its memory
+ * budget is reached. The store tells the policy about every key requested,
+ * stored and removed; the methods may be called from several threads at once.
+ * 
+ * Methods:
+ * - onInsert(key): Records that a key is stored.
+ * - onAccess(key): Records a read or a write of a key, stored or not.
+ * - onRemove(key): Forgets a removed key.
+ * - victim(exclude): Returns the key to evict next.
+ * - admit(candidate, victim): Returns whether a new key may replace a victim.
+ * - getName(): Returns the name of the policy.
+ * - create(name, capacity): Returns the policy of the given name.
+ */
+interface Eviction_Policy {
+
+    void onInsert(String key);
+
+    void onAccess(String key);
+
+    void onRemove(String key);
+
+    /**
+     * Returns the key to evict next, which is not removed until the store calls
+     * onRemove.
+     *
+     * @param exclude The keys which are never chosen: the key being written and
+     *                the victims already chosen for it.
+     * @return The key, or null if there is no other key.
+     */
+    String victim(Set<String> exclude);
+
+    /**
+     * Returns whether a new key may take the place of a victim.
+     *
+     * @param candidate The new key.
+     * @param victim    The key which would be evicted.
+     * @return True to evict the victim, false to refuse the new key.
+     */
+    boolean admit(String candidate, String victim);
+
+    String getName();
+
+    /**
+     * Returns the policy of the given name: "lru", "clock" or "tinylfu".
+     *
+     * @param name     The name of the policy.
+     * @param capacity The expected number of keys, sizing the frequency sketch.
+     * @return The policy.
+     */
+    static Eviction_Policy create(String name, int capacity) {
+        switch (name.toLowerCase()) {
+            case "lru":
+                return new Lru_Policy();
+            case "clock":
+                return new Clock_Policy();
+            case "tinylfu":
+                return new Tiny_Lfu_Policy(capacity);
+            default:
+                throw new IllegalArgumentException("Unknown eviction policy: " + name);
+        }
+    }
+
+}
@@ -0,0 +1,227 @@
+import java.util.*;
+
+/*
+ * Class to represent the finger table of a node.
+ * 
+ * The entries are kept as arrays, one slot per entry: the start of the
+ * interval, the ID of the finger, the finger and its candidates. They are
+ * published together as an immutable snapshot through a volatile reference.
+ * Lookups read the snapshot without locking and always see whole entries, while
+ * the few writers copy the arrays, change them and publish the copy under the
+ * lock of the table.
+ * 
+ * Constructor:
+ * - Finger_Table(myID): Initializes every entry of the finger table with -1 as
+ * its successor.
+ * 
+ * Methods:
+ * - getSnapshot(): Returns the entries as published last.
+ * - get(index): Returns an entry as published last.
+ * - getEntries(): Returns every entry, from the same snapshot.
+ * - setNode(index, node): Sets the finger of an entry, without candidates.
+ * - setCandidates(index, candidates): Sets the finger and candidates of an
+ * entry.
+ * - print(): Prints every entry and its successor for the node.
+ * - replace(nodeInfo, replacement): Replaces a node which left in every entry.
+ * - rebase(myId): Moves the interval starts after the node changed its ID.
+ */
+class Finger_Table {
+
+    // Number of bits of an ID, 8 unless overridden with -Dchord.m for larger rings
+    public static final int M = Integer.getInteger("chord.m", 8);
+    // Number of candidates kept per finger, 1 for plain Chord fingers
+    public static final int CANDIDATES = Math.max(1, Integer.getInteger("chord.finger.candidates", 4));
+
+    private static final Peer[] NO_CANDIDATES = new Peer[0];
+
+    /*
+     * Immutable state of the entries: slot i of each array belongs to entry i.
+     * The arrays are never changed once published.
+     */
+    static final class Snapshot {
+        final int[] starts; // Start of the interval of each entry
+        final int[] ids; // ID of the finger of each entry, or -1
+        final Peer[] nodes; // Finger of each entry, or null
+        final Peer[][] candidates; // Candidates of each entry, the finger first
+
+        Snapshot(int[] starts, int[] ids, Peer[] nodes, Peer[][] candidates) {
+            this.starts = starts;
+            this.ids = ids;
+            this.nodes = nodes;
+            this.candidates = candidates;
+        }
+    }
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * Initializes a Finger Table for a node.
+     *
+     * @param myId The ID of the node.
+     */
+    public Finger_Table(int myId) {
+        int[] starts = new int[M];
+        int[] ids = new int[M];
+        Peer[][] candidates = new Peer[M][];
+        for (int i = 0; i < M; i++) {
+            starts[i] = (int) ((myId + (1L << i)) % (1L << M));
+            ids[i] = -1;
+            candidates[i] = NO_CANDIDATES;
+        }
+        this.snapshot = new Snapshot(starts, ids, new Peer[M], candidates);
+    }
+
+    /**
+     * Returns the entries as published last. The snapshot does not change, so a
+     * lookup reads a consistent table however the fingers are being fixed.
+     *
+     * @return The snapshot.
+     */
+    public Snapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * Returns an entry as published last.
+     *
+     * @param index The index of the entry.
+     * @return The entry, its node and candidates read from one snapshot.
+     */
+    public EntryNodePair get(int index) {
+        Snapshot current = this.snapshot;
+        return new EntryNodePair(current.starts[index], current.nodes[index], current.candidates[index]);
+    }
+
+    /**
+     * Returns every entry, all read from the same snapshot.
+     *
+     * @return The entries, in index order, an immutable list.
+     */
+    public List<EntryNodePair> getEntries() {
+        Snapshot current = this.snapshot;
+        List<EntryNodePair> entries = new ArrayList<>(M);
+        for (int index = 0; index < M; index++) {
+            entries.add(new EntryNodePair(current.starts[index], current.nodes[index], current.candidates[index]));
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Sets the finger of an entry, dropping its candidates.
+     *
+     * @param index The index of the entry.
+     * @param node  The finger, or null.
+     */
+    public void setNode(int index, Peer node) {
+        setCandidates(index, node == null ? Collections.emptyList() : Collections.singletonList(node));
+    }
+
+    /**
+     * Sets the finger and the candidates of an entry.
+     *
+     * @param index      The index of the entry.
+     * @param candidates The candidates, the finger first, or an empty list.
+     */
+    public synchronized void setCandidates(int index, List<Peer> candidates) {
+        Snapshot current = this.snapshot;
+        int[] ids = current.ids.clone();
+        Peer[] nodes = current.nodes.clone();
+        Peer[][] allCandidates = current.candidates.clone();
+        Peer node = candidates.isEmpty() ? null : candidates.get(0);
+        ids[index] = node == null ? -1 : node.id;
+        nodes[index] = node;
+        allCandidates[index] = candidates.toArray(NO_CANDIDATES);
+        this.snapshot = new Snapshot(current.starts, ids, nodes, allCandidates);
+    }
+
+    /**
+     * Moves the interval starts of every entry after the node changed its ID. The
+     * nodes of the entries are kept, as the node only moves by a small step; they
+     * are corrected by the next finger fixing rounds.
+     *
+     * @param myId The new ID of the node.
+     */
+    public synchronized void rebase(int myId) {
+        Snapshot current = this.snapshot;
+        int[] starts = new int[M];
+        for (int i = 0; i < M; i++) {
+            starts[i] = (int) ((myId + (1L << i)) % (1L << M));
+        }
+        this.snapshot = new Snapshot(starts, current.ids, current.nodes, current.candidates);
+    }
+
+    /**
+     * Replaces a node which left the ring in every entry and candidate list, or
+     * drops it from the candidates if the replacement is already one of them.
+     *
+     * @param nodeInfo    The address of the node which left, as "ip|port".
+     * @param replacement The successor of the node which left.
+     * @return True if any entry changed.
+     */
+    public synchronized boolean replace(String nodeInfo, Peer replacement) {
+        boolean changed = false;
+        for (int index = 0; index < M; index++) {
+            List<Peer> candidates = new ArrayList<>();
+            boolean found = false;
+            for (Peer candidate : this.snapshot.candidates[index]) {
+                if (candidate.isAt(nodeInfo)) {
+                    found = true;
+                    candidate = replacement;
+                }
+                String info = candidate.address;
+                if (candidates.stream().noneMatch(known -> known.isAt(info))) {
+                    candidates.add(candidate);
+                }
+            }
+            if (found) {
+                setCandidates(index, candidates);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Prints the contents of the Finger Table.
+     */
+    public void print() {
+        Snapshot current = this.snapshot;
+        for (int index = 0; index < M; index++) {
+            if (current.nodes[index] == null) {
+                System.out.println("Entry: " + index + " Interval start: " + current.starts[index] + " Successor: None");
+            } else {
+                System.out.println("Entry: " + index + " Interval start: " + current.starts[index] + " Successor: "
+                        + current.ids[index]);
+            }
+        }
+    }
+
+    /**
+     * Returns a string containing information about the fingers of a node.
+     * 
+     * @return A string containing finger table information.
+     */
+    public String getFingerTableInfo() {
+        Snapshot current = this.snapshot;
+        StringBuilder info = new StringBuilder();
+        for (int index = 0; index < M; index++) {
+            if (current.nodes[index] == null) {
+                info.append("Entry: ").append(index).append(" Interval start: ").append(current.starts[index])
+                        .append(" Successor: None\n");
+            } else {
+                info.append("Entry: ").append(index).append(" Interval start: ").append(current.starts[index])
+                        .append(" Successor: ").append(current.ids[index]);
+                Peer[] candidates = current.candidates[index];
+                if (candidates.length > 1) {
+                    info.append(" Candidates:");
+                    for (Peer candidate : candidates) {
+                        info.append(" ").append(candidate.id);
+                    }
+                }
+                info.append("\n");
+            }
+        }
+        return info.toString();
+    }
+
+}
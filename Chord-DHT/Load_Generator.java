@@ -0,0 +1,580 @@
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Interface for the distribution of the keys used by the load generator. Keys
+ * are identified by their rank, between 0 and the number of keys.
+ *
+ * Methods:
+ * - next(random): Returns the rank of the next key.
+ */
+interface Key_Distribution {
+
+    /**
+     * Returns the rank of the next key.
+     *
+     * @param random The random source of the calling thread.
+     * @return The rank of the key, between 0 and the number of keys.
+     */
+    long next(Random random);
+
+}
+
+/*
+ * Class for keys chosen uniformly at random.
+ */
+class Uniform_Keys implements Key_Distribution {
+
+    private final long keys;
+
+    /**
+     * @param keys The number of keys.
+     */
+    public Uniform_Keys(long keys) {
+        this.keys = keys;
+    }
+
+    public long next(Random random) {
+        return (long) (random.nextDouble() * keys);
+    }
+
+}
+
+/*
+ * Class for keys chosen with a Zipfian distribution, the key of rank r having a
+ * probability proportional to 1 / (r + 1)^theta. Uses the rejection-free method
+ * of Gray et al. ("Quickly Generating Billion-Record Synthetic Databases"), so
+ * each key is drawn in constant time after an O(keys) setup.
+ */
+class Zipfian_Keys implements Key_Distribution {
+
+    private final long keys;
+    private final double theta;
+    private final double alpha;
+    private final double zetan;
+    private final double eta;
+
+    /**
+     * @param keys  The number of keys.
+     * @param theta The skew of the distribution, 0.99 in most benchmarks.
+     */
+    public Zipfian_Keys(long keys, double theta) {
+        this.keys = keys;
+        this.theta = theta;
+        this.alpha = 1.0 / (1.0 - theta);
+        this.zetan = zeta(keys, theta);
+        this.eta = (1 - Math.pow(2.0 / keys, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+
+    public long next(Random random) {
+        double u = random.nextDouble();
+        double uz = u * zetan;
+        if (uz < 1.0) {
+            return 0;
+        }
+        if (uz < 1.0 + Math.pow(0.5, theta)) {
+            return 1;
+        }
+        return Math.min(keys - 1, (long) (keys * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+}
+
+/*
+ * Class for keys split into a small hot set receiving most of the operations
+ * and a cold set receiving the rest, each chosen uniformly.
+ */
+class Hotspot_Keys implements Key_Distribution {
+
+    private final long keys;
+    private final long hotKeys;
+    private final double hotOperations;
+
+    /**
+     * @param keys          The number of keys.
+     * @param hotFraction   The fraction of keys in the hot set.
+     * @param hotOperations The fraction of operations going to the hot set.
+     */
+    public Hotspot_Keys(long keys, double hotFraction, double hotOperations) {
+        this.keys = keys;
+        this.hotKeys = Math.max(1, Math.min(keys, (long) (keys * hotFraction)));
+        this.hotOperations = hotOperations;
+    }
+
+    public long next(Random random) {
+        if (hotKeys == keys || random.nextDouble() < hotOperations) {
+            return (long) (random.nextDouble() * hotKeys);
+        }
+        return hotKeys + (long) (random.nextDouble() * (keys - hotKeys));
+    }
+
+}
+
+/*
+ * Class to record latencies in a log-linear histogram, in the spirit of
+ * HdrHistogram: values below 128 are exact and larger values keep 64
+ * sub-buckets per power of two, about 1.6% precision. Recording is lock-free.
+ *
+ * Methods:
+ * - record(value): Records a value.
+ * - getCount(), getMax(), getMean(): Return summary statistics.
+ * - getValueAtPercentile(percentile): Returns a percentile.
+ * - writePercentileDistribution(out, scale): Writes the distribution in the
+ * HdrHistogram text format.
+ */
+class Latency_Histogram {
+
+    private static final int LINEAR = 128;
+    private static final int SUB_BUCKETS = 64;
+    private static final int SUB_BITS = 6;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong total;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public Latency_Histogram() {
+        this.counts = new AtomicLongArray(LINEAR + (64 - 7) * SUB_BUCKETS);
+        this.total = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    private static int indexOf(long value) {
+        if (value < LINEAR) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - 7) * SUB_BUCKETS + sub;
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int exponent = (index - LINEAR) / SUB_BUCKETS + 7;
+        long sub = (index - LINEAR) % SUB_BUCKETS;
+        long low = (1L << exponent) | (sub << (exponent - SUB_BITS));
+        return low + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value The value, in microseconds for the load generator.
+     */
+    public void record(long value) {
+        counts.incrementAndGet(indexOf(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = total.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * Returns the value at a percentile, as the highest value of its bucket.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The value at the percentile, or 0 if the histogram is empty.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Writes the percentile distribution in the text format of HdrHistogram, so it
+     * can be plotted with the usual HdrHistogram tools.
+     *
+     * @param out   The output to write to.
+     * @param scale The ratio of the recorded unit to the written unit, e.g. 1000
+     *              to write microseconds as milliseconds.
+     */
+    public void writePercentileDistribution(PrintStream out, double scale) {
+        out.println(String.format("%12s %14s %10s %14s", "Value", "Percentile", "TotalCount", "1/(1-Percentile)"));
+        out.println();
+        long count = total.get();
+        long seen = 0;
+        for (int i = 0; i < counts.length() && count > 0; i++) {
+            long bucket = counts.get(i);
+            if (bucket == 0) {
+                continue;
+            }
+            seen += bucket;
+            double percentile = (double) seen / count;
+            String inverse = seen == count ? "" : String.format("%14.2f", 1 / (1 - percentile));
+            out.println(String.format(Locale.ROOT, "%12.3f %2.12f %10d %s",
+                    Math.min(highestValueAt(i), max.get()) / scale, percentile, seen, inverse));
+        }
+        double mean = getMean();
+        out.println(String.format(Locale.ROOT, "#[Mean    = %12.3f, StdDeviation   = %12.3f]", mean / scale,
+                standardDeviation(mean) / scale));
+        out.println(String.format(Locale.ROOT, "#[Max     = %12.3f, Total count    = %12d]", getMax() / scale, count));
+        out.println(String.format("#[Buckets = %12d, SubBuckets     = %12d]", 64 - 7, SUB_BUCKETS));
+    }
+
+    private double standardDeviation(double mean) {
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+        double squares = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            long bucket = counts.get(i);
+            if (bucket > 0) {
+                double deviation = Math.min(highestValueAt(i), max.get()) - mean;
+                squares += deviation * deviation * bucket;
+            }
+        }
+        return Math.sqrt(squares / count);
+    }
+
+}
+
+/**
+ * This class generates load against a node of the Chord ring with the same
+ * Insert, Search and Delete messages as the interactive Client, and reports
+ * throughput and latency.
+ *
+ * In closed-loop mode (rate 0) every thread sends its next operation as soon as
+ * the previous one completes. In open-loop mode the operations are scheduled at
+ * a fixed total rate and latency is measured from the time an operation was
+ * scheduled to start, not from the time it was sent, so that a stalled node is
+ * charged for the operations queued behind it (no coordinated omission).
+ *
+ * By default the operations go through a Chord_Client, over persistent
+ * connections, as an application would send them. With --connect=per-op every
+ * operation opens a connection of its own instead, like the interactive Client,
+ * so the latency includes the connection setup.
+ *
+ * Usage: java Load_Generator [--host=192.168.240.106] [--port=5000]
+ * [--keys=100000] [--distribution=uniform|zipfian|hotspot] [--theta=0.99]
+ * [--hot-keys=0.01] [--hot-ops=0.9] [--reads=0.9] [--deletes=0]
+ * [--value-size=100] [--threads=8] [--rate=0] [--duration=60] [--preload]
+ * [--connect=client|per-op] [--csv=results.csv] [--hdr=latency.hgrm]
+ */
+public class Load_Generator {
+
+    private static final char[] ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789"
+            .toCharArray();
+
+    private final String host;
+    private final int port;
+    private final long keys;
+    private final Key_Distribution distribution;
+    private final double reads;
+    private final double deletes;
+    private final int valueSize;
+    private final int threads;
+    private final double rate;
+    private final Chord_Client client; // Null when every operation opens a connection
+
+    private final Latency_Histogram total;
+    private final AtomicReference<Latency_Histogram> interval;
+    private final AtomicLong readCount;
+    private final AtomicLong writeCount;
+    private final AtomicLong deleteCount;
+    private final AtomicLong missCount;
+    private final AtomicLong errorCount;
+
+    /**
+     * Initializes a load generator from its command-line options.
+     *
+     * @param options The options by name.
+     */
+    public Load_Generator(Map<String, String> options) {
+        this.host = options.getOrDefault("host", "192.168.240.106");
+        this.port = Integer.parseInt(options.getOrDefault("port", "5000"));
+        this.keys = Long.parseLong(options.getOrDefault("keys", "100000"));
+        String name = options.getOrDefault("distribution", "uniform");
+        switch (name) {
+            case "uniform":
+                this.distribution = new Uniform_Keys(keys);
+                break;
+            case "zipfian":
+                this.distribution = new Zipfian_Keys(keys, Double.parseDouble(options.getOrDefault("theta", "0.99")));
+                break;
+            case "hotspot":
+                this.distribution = new Hotspot_Keys(keys,
+                        Double.parseDouble(options.getOrDefault("hot-keys", "0.01")),
+                        Double.parseDouble(options.getOrDefault("hot-ops", "0.9")));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown distribution: " + name);
+        }
+        this.reads = Double.parseDouble(options.getOrDefault("reads", "0.9"));
+        this.deletes = Double.parseDouble(options.getOrDefault("deletes", "0"));
+        this.valueSize = Integer.parseInt(options.getOrDefault("value-size", "100"));
+        this.threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        String connect = options.getOrDefault("connect", "client");
+        switch (connect) {
+            case "client":
+                // One pooled connection per thread, so no operation waits for a connection
+                this.client = new Chord_Client(List.of(new Node_Info(host, port)), threads, 5000, 2);
+                break;
+            case "per-op":
+                this.client = null;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown connection mode: " + connect);
+        }
+
+        this.total = new Latency_Histogram();
+        this.interval = new AtomicReference<>(new Latency_Histogram());
+        this.readCount = new AtomicLong();
+        this.writeCount = new AtomicLong();
+        this.deleteCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+        this.errorCount = new AtomicLong();
+    }
+
+    /**
+     * Sends a message to the node and returns the first line of the response,
+     * through the client or on a connection of its own.
+     *
+     * @param message The message to send.
+     * @return The response.
+     * @throws IOException If the node cannot be reached.
+     */
+    private String send(String message) throws IOException {
+        if (client != null) {
+            return sendThroughClient(message);
+        }
+        try (Socket socket = new Socket(host, port);
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println(message);
+            String response = in.readLine();
+            return response == null ? "" : response;
+        }
+    }
+
+    /**
+     * Runs an Insert, Search or Delete message as the matching operation of the
+     * client, and returns the response the node would have sent.
+     *
+     * @param message The message.
+     * @return The response.
+     * @throws IOException If the operation failed.
+     */
+    private String sendThroughClient(String message) throws IOException {
+        String[] parts = message.split("\\|", 2);
+        try {
+            switch (parts[0]) {
+                case "Search":
+                    String value = client.get(parts[1]).join();
+                    return value == null ? "NOT FOUND" : value;
+                case "Delete":
+                    return client.delete(parts[1]).join();
+                case "Insert":
+                    String[] pair = parts[1].split(":", 2);
+                    return client.put(pair[0], pair[1]).join();
+                default:
+                    throw new IllegalArgumentException("Unknown operation: " + parts[0]);
+            }
+        } catch (CompletionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Builds a random value of the configured size. Values never contain the ':'
+     * and '|' separators of the protocol.
+     *
+     * @param random The random source of the calling thread.
+     * @return The value.
+     */
+    private String value(Random random) {
+        char[] value = new char[Math.max(1, valueSize)];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return new String(value);
+    }
+
+    /**
+     * Runs one operation chosen by the read/write/delete mix and records its
+     * latency.
+     *
+     * @param random         The random source of the calling thread.
+     * @param intendedNanos The time the operation was scheduled to start.
+     */
+    private void runOperation(Random random, long intendedNanos) {
+        String key = "key" + distribution.next(random);
+        double choice = random.nextDouble();
+        String response;
+        try {
+            if (choice < reads) {
+                response = send("Search|" + key);
+                readCount.incrementAndGet();
+                if (response.equals("NOT FOUND")) {
+                    missCount.incrementAndGet();
+                }
+            } else if (choice < reads + deletes) {
+                response = send("Delete|" + key);
+                deleteCount.incrementAndGet();
+            } else {
+                response = send("Insert|" + key + ":" + value(random));
+                writeCount.incrementAndGet();
+            }
+            if (response.isEmpty() || response.startsWith("Error")) {
+                errorCount.incrementAndGet();
+            }
+        } catch (IOException e) {
+            errorCount.incrementAndGet();
+        }
+        long micros = (System.nanoTime() - intendedNanos) / 1000;
+        total.record(micros);
+        interval.get().record(micros);
+    }
+
+    /**
+     * Inserts every key once before the measurement so that reads hit.
+     */
+    public void preload() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicLong next = new AtomicLong();
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                Random random = new Random();
+                for (long rank = next.getAndIncrement(); rank < keys; rank = next.getAndIncrement()) {
+                    try {
+                        send("Insert|key" + rank + ":" + value(random));
+                    } catch (IOException e) {
+                        errorCount.incrementAndGet();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        System.out.println("Preloaded " + keys + " keys, errors=" + errorCount.getAndSet(0));
+    }
+
+    /**
+     * Runs the load for the given duration, printing one line per second and
+     * appending the same line to the CSV output if any.
+     *
+     * @param seconds The duration of the run.
+     * @param csv     The CSV output, or null.
+     */
+    public void run(long seconds, PrintStream csv) throws InterruptedException {
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        // In open-loop mode every thread owns an equal share of the target rate
+        long periodNanos = rate > 0 ? (long) (1e9 * threads / rate) : 0;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            long offset = periodNanos * t / threads;
+            pool.execute(() -> {
+                Random random = new Random();
+                long intended = start + offset;
+                while (true) {
+                    long now = System.nanoTime();
+                    if (periodNanos == 0) {
+                        intended = now;
+                    } else if (intended > now) {
+                        LockSupport.parkNanos(intended - now);
+                    }
+                    if (intended >= end) {
+                        break;
+                    }
+                    runOperation(random, intended);
+                    intended += periodNanos;
+                }
+            });
+        }
+        pool.shutdown();
+
+        String header = "time_s,ops,reads,writes,deletes,misses,errors,mean_us,p50_us,p90_us,p99_us,p999_us,max_us";
+        System.out.println(header);
+        if (csv != null) {
+            csv.println(header);
+        }
+        long[] last = new long[5];
+        boolean done = false;
+        for (int second = 1; !done; second++) {
+            // Wait for the end of the current second or of the run
+            long tick = start + second * 1_000_000_000L;
+            done = pool.awaitTermination(Math.max(0, tick - System.nanoTime()), TimeUnit.NANOSECONDS);
+            Latency_Histogram current = interval.getAndSet(new Latency_Histogram());
+            long[] now = { readCount.get(), writeCount.get(), deleteCount.get(), missCount.get(), errorCount.get() };
+            String line = String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%d,%d,%.0f,%d,%d,%d,%d,%d", second,
+                    current.getCount(), now[0] - last[0], now[1] - last[1], now[2] - last[2], now[3] - last[3],
+                    now[4] - last[4], current.getMean(), current.getValueAtPercentile(50),
+                    current.getValueAtPercentile(90), current.getValueAtPercentile(99),
+                    current.getValueAtPercentile(99.9), current.getMax());
+            last = now;
+            System.out.println(line);
+            if (csv != null) {
+                csv.println(line);
+            }
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format(Locale.ROOT,
+                "Total ops=%d throughput=%.1f ops/s errors=%d mean=%.0fus p50=%dus p99=%dus p999=%dus max=%dus",
+                total.getCount(), total.getCount() / elapsed, errorCount.get(), total.getMean(),
+                total.getValueAtPercentile(50), total.getValueAtPercentile(99), total.getValueAtPercentile(99.9),
+                total.getMax()));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = Command_Line.parseOptions(args);
+        Load_Generator generator = new Load_Generator(options);
+        if (options.containsKey("preload")) {
+            generator.preload();
+        }
+        long duration = Long.parseLong(options.getOrDefault("duration", "60"));
+        try (PrintStream csv = options.containsKey("csv") ? new PrintStream(options.get("csv")) : null) {
+            generator.run(duration, csv);
+        }
+        if (options.containsKey("hdr")) {
+            try (PrintStream hdr = new PrintStream(options.get("hdr"))) {
+                // Recorded in microseconds, written in milliseconds like HdrHistogram logs
+                generator.total.writePercentileDistribution(hdr, 1000.0);
+            }
+        }
+        if (generator.client != null) {
+            generator.client.close();
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+import java.util.*;
+
+/*
+ * Class to evict the least recently used key first, keeping the keys in access
+ * order.
+ * 
+ * Constructor:
+ * - Lru_Policy(): Initializes an empty policy.
+ */
+class Lru_Policy implements Eviction_Policy {
+
+    protected final LinkedHashMap<String, Boolean> order; // Least recently used first
+
+    public Lru_Policy() {
+        this.order = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public synchronized void onInsert(String key) {
+        order.put(key, Boolean.TRUE);
+    }
+
+    public synchronized void onAccess(String key) {
+        order.get(key); // Moving the key to the end of the access order
+    }
+
+    public synchronized void onRemove(String key) {
+        order.remove(key);
+    }
+
+    public synchronized String victim(Set<String> exclude) {
+        for (String key : order.keySet()) {
+            if (!exclude.contains(key)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    public boolean admit(String candidate, String victim) {
+        return true;
+    }
+
+    public String getName() {
+        return "lru";
+    }
+
+}
@@ -0,0 +1,109 @@
+import java.util.*;
+
+/*
+ * Class to summarize the pairs of a Data_Store as a Merkle tree, so that two
+ * nodes holding copies of the same pairs can find where they differ by
+ * exchanging a few hashes. The ring is cut into 2^LEAF_BITS buckets of
+ * consecutive key IDs; the hash of a bucket is the XOR of the hashes of its
+ * pairs, so a write updates it in constant time, and each parent hashes its two
+ * children up to the root. The tree is kept as an array: the root at index 1,
+ * the children of node i at 2i and 2i + 1, and bucket b at LEAVES + b.
+ *
+ * Constructor:
+ * - Merkle_Tree(): Initializes the tree of an empty store.
+ *
+ * Methods:
+ * - update(key, oldValue, newValue): Replaces the pair of a key in the tree.
+ * - getHash(index): Returns the hash of a node of the tree.
+ * - getKeys(bucket): Returns the keys of a bucket.
+ * - bucketOf(key): Returns the bucket of a key.
+ */
+class Merkle_Tree {
+
+    public static final int LEAF_BITS = Math.min(10, Finger_Table.M);
+    public static final int LEAVES = 1 << LEAF_BITS;
+
+    private long[] hashes; // Allocated with the first pair
+    private final Map<Integer, Set<String>> keys; // Keys of each non-empty bucket
+
+    public Merkle_Tree() {
+        this.hashes = null;
+        this.keys = new HashMap<>();
+    }
+
+    /**
+     * Returns the bucket of a key, from the high bits of its ID.
+     *
+     * @param key The key.
+     * @return The bucket.
+     */
+    public static int bucketOf(String key) {
+        return Node.keyId(key) >>> (Finger_Table.M - LEAF_BITS);
+    }
+
+    /**
+     * Returns the 64 bit FNV-1a hash of a pair.
+     *
+     * @param key   The key.
+     * @param value The value.
+     * @return The hash.
+     */
+    private static long hashOf(String key, String value) {
+        long hash = 0xcbf29ce484222325L;
+        String pair = key + "|" + value;
+        for (int i = 0; i < pair.length(); i++) {
+            hash = (hash ^ pair.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Replaces the pair of a key in the tree, updating the hashes from its bucket
+     * up to the root.
+     *
+     * @param key      The key.
+     * @param oldValue The previous value of the key, or null if it was absent.
+     * @param newValue The new value of the key, or null if it is removed.
+     */
+    public synchronized void update(String key, String oldValue, String newValue) {
+        if (hashes == null) {
+            hashes = new long[2 * LEAVES];
+        }
+        int bucket = bucketOf(key);
+        int index = LEAVES + bucket;
+        if (oldValue != null) {
+            hashes[index] ^= hashOf(key, oldValue);
+        }
+        if (newValue != null) {
+            hashes[index] ^= hashOf(key, newValue);
+            keys.computeIfAbsent(bucket, b -> new HashSet<>()).add(key);
+        } else if (keys.containsKey(bucket)) {
+            keys.get(bucket).remove(key);
+            if (keys.get(bucket).isEmpty()) {
+                keys.remove(bucket);
+            }
+        }
+        for (index /= 2; index > 0; index /= 2) {
+            long left = hashes[2 * index];
+            long right = hashes[2 * index + 1];
+            // Not symmetric, so swapped children give another hash; empty stays 0
+            hashes[index] = left == 0 && right == 0 ? 0
+                    : (left * 0x9e3779b97f4a7c15L) ^ Long.rotateLeft(right, 31) ^ 0x632be59bd9b4e019L;
+        }
+    }
+
+    /**
+     * Returns the hash of a node of the tree, 0 for an empty subtree.
+     *
+     * @param index The index of the node, 1 for the root.
+     * @return The hash.
+     */
+    public synchronized long getHash(int index) {
+        return hashes == null ? 0 : hashes[index];
+    }
+
+    public synchronized List<String> getKeys(int bucket) {
+        return new ArrayList<>(keys.getOrDefault(bucket, Collections.emptySet()));
+    }
+
+}
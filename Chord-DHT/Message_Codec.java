@@ -0,0 +1,174 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * Class to compress text with Deflate at its fastest level. A compressed text
+ * is written "~Z~<base64>", which the line protocol can carry as any other
+ * token. Texts shorter than the threshold, or which do not shrink, are left as
+ * they are. The codec counts the bytes before and after compression and the
+ * time spent, to judge whether compression pays off.
+ * 
+ * On the wire, a node starts its requests with "~z~" to tell the receiver that
+ * it accepts compressed responses. A receiver supporting compression answers
+ * with a compressed response or starts its plain response with "~z~" too, so the
+ * sender learns that it may send compressed requests to that node from then on.
+ * Nodes without compression take "~z~Find_Predecessor" for an unknown request,
+ * so it is off unless chord.compress=true is given to every node of the ring.
+ * 
+ * Constructor:
+ * - Message_Codec(threshold, enabled): Initializes a codec.
+ * 
+ * Methods:
+ * - isEnabled(): Returns whether compression is enabled.
+ * - compress(text): Compresses a text if it is long enough and shrinks.
+ * - compress(text, force): Compresses a text, always if forced.
+ * - decompress(text): Expands a compressed text, or returns it as is.
+ * - getMetrics(prefix): Returns the counters of the codec.
+ */
+class Message_Codec {
+
+    public static final String ACCEPT = "~z~"; // Starts a message whose sender accepts compression
+    public static final String COMPRESSED = "~Z~"; // Starts a compressed message or value
+    // Largest size a compressed text may expand to, so that a small text sent by
+    // anyone cannot fill the memory of the node
+    public static final int MAX_EXPANDED_BYTES = Integer.getInteger("chord.compress.max", 4 << 20);
+
+    private final int threshold;
+    private final boolean enabled;
+    private final AtomicLong compressed; // Number of texts compressed
+    private final AtomicLong bytesBefore;
+    private final AtomicLong bytesAfter;
+    private final AtomicLong compressNanos;
+    private final AtomicLong decompressed; // Number of texts expanded
+    private final AtomicLong decompressNanos;
+
+    /**
+     * Initializes a codec.
+     *
+     * @param threshold The length from which texts are compressed.
+     * @param enabled   False to never compress, while still expanding compressed
+     *                  texts.
+     */
+    public Message_Codec(int threshold, boolean enabled) {
+        this.threshold = threshold;
+        this.enabled = enabled;
+        this.compressed = new AtomicLong();
+        this.bytesBefore = new AtomicLong();
+        this.bytesAfter = new AtomicLong();
+        this.compressNanos = new AtomicLong();
+        this.decompressed = new AtomicLong();
+        this.decompressNanos = new AtomicLong();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Compresses a text if it is at least as long as the threshold and shrinks.
+     *
+     * @param text The text.
+     * @return The compressed text, or the same text.
+     */
+    public String compress(String text) {
+        return compress(text, false);
+    }
+
+    /**
+     * Compresses a text if it is long enough and shrinks, or always if forced.
+     *
+     * @param text  The text.
+     * @param force True to compress the text whatever its length.
+     * @return The compressed text, or the same text.
+     */
+    public String compress(String text, boolean force) {
+        if (!force && (!enabled || text.length() < threshold)) {
+            return text;
+        }
+        long start = System.nanoTime();
+        byte[] input = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 16);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                output.write(chunk, 0, deflater.deflate(chunk));
+            }
+        } finally {
+            deflater.end();
+        }
+        String result = COMPRESSED + Base64.getEncoder().encodeToString(output.toByteArray());
+        compressNanos.addAndGet(System.nanoTime() - start);
+        if (!force && result.length() >= text.length()) {
+            return text; // Incompressible, such as random or already compressed data
+        }
+        compressed.incrementAndGet();
+        bytesBefore.addAndGet(input.length);
+        bytesAfter.addAndGet(result.length());
+        return result;
+    }
+
+    /**
+     * Expands a compressed text. Other texts are returned as they are. The
+     * expansion stops as soon as it passes MAX_EXPANDED_BYTES.
+     *
+     * @param text The text.
+     * @return The expanded text.
+     * @throws IllegalArgumentException If the compressed text is corrupt or
+     *                                  expands beyond MAX_EXPANDED_BYTES.
+     */
+    public String decompress(String text) {
+        if (!text.startsWith(COMPRESSED)) {
+            return text;
+        }
+        long start = System.nanoTime();
+        byte[] input = Base64.getDecoder().decode(text.substring(COMPRESSED.length()));
+        Inflater inflater = new Inflater();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(Math.min(input.length * 4, MAX_EXPANDED_BYTES));
+        try {
+            inflater.setInput(input);
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(chunk);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated compressed text");
+                }
+                if (output.size() + count > MAX_EXPANDED_BYTES) {
+                    throw new IllegalArgumentException("Compressed text expands beyond " + MAX_EXPANDED_BYTES + " bytes");
+                }
+                output.write(chunk, 0, count);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed text", e);
+        } finally {
+            inflater.end();
+        }
+        decompressed.incrementAndGet();
+        decompressNanos.addAndGet(System.nanoTime() - start);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the counters of the codec: the number of texts compressed, their
+     * bytes before and after, the ratio, and the time spent in each direction.
+     *
+     * @param prefix The prefix of the counter names.
+     * @return The counters as "name=value" pairs separated by commas.
+     */
+    public String getMetrics(String prefix) {
+        long after = bytesAfter.get();
+        return prefix + "compressed=" + compressed.get() + "," + prefix + "bytes_before=" + bytesBefore.get() + ","
+                + prefix + "bytes_after=" + after + "," + prefix + "ratio="
+                + (after == 0 ? "1.00" : String.format(Locale.ROOT, "%.2f", (double) bytesBefore.get() / after))
+                + "," + prefix + "compress_us=" + compressNanos.get() / 1000 + "," + prefix + "decompressed="
+                + decompressed.get() + "," + prefix + "decompress_us=" + decompressNanos.get() / 1000;
+    }
+
+}
@@ -1,294 +1,948 @@
 import java.io.*;
 import java.net.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 /*
- * Class to store data in a node in the DHT ring.
+ * Class implementing the transport over TCP sockets, one connection per
+ * message.
  * 
  * Constructor:
- * - Data_Store(): Initializes the hashmap to store data.
+ * - Socket_Transport(): Initializes the transport.
  * 
  * Methods:
- * - insert(key, value): Inserts a key-value pair into the hashmap.
- * - delete(key): Deletes the given key from the hashmap.
- * - search(key): Searches for the given key in the hashmap.
+ * - sendMessage(ip, port, message): Sends a message to the provided address.
+ * - post(ip, port, message): Sends a message from a bounded pool of background
+ * threads, closing the connection without reading the response.
+ * - listen(node): Accepts connections and serves each one on a pooled thread,
+ * turning them away once the node has too many.
+ * - nanoTime(): Returns the system clock.
  */
-class Data_Store {
+class Socket_Transport implements Transport {
+
+    // Number of threads sending the posted messages, and of messages waiting for
+    // one of them
+    public static final int POSTERS = Math.max(1, Integer.getInteger("chord.posters", 8));
+    public static final int POST_QUEUE = Math.max(1, Integer.getInteger("chord.posters.queue", 1024));
 
-    // Key-Value Data
-    public Map<String, String> data;
+    // Threads sending the posted messages, so that the caller never waits for a
+    // connection to be opened. They are bounded, as are the messages waiting for
+    // them: a message posted while the queue is full is dropped, as one which
+    // cannot be delivered, instead of piling up threads against a slow node.
+    private final ThreadPoolExecutor poster;
+    // Threads serving the accepted connections, kept for the next ones
+    private final ExecutorService server = Executors.newCachedThreadPool();
 
     /**
-     * Initializes Data_Store with an empty HashMap to store data.
+     * Initializes the transport, whose posting threads are started on demand and
+     * stop after a minute without messages.
      */
-    public Data_Store() {
-        this.data = new HashMap<>();
+    public Socket_Transport() {
+        this.poster = new ThreadPoolExecutor(POSTERS, POSTERS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(POST_QUEUE), runnable -> {
+                    Thread thread = new Thread(runnable, "chord-poster");
+                    thread.setDaemon(true);
+                    return thread;
+                }, (runnable, executor) -> {
+                    System.err.println("Dropping a posted message: " + POST_QUEUE + " messages waiting");
+                });
+        this.poster.allowCoreThreadTimeOut(true);
     }
 
+    // Suppressing resource warnings since Socket and Scanner need to be closed
+    // properly
+    @SuppressWarnings("resource")
+
     /**
-     * Inserts a key-value pair into the data store.
+     * Sends a message to a specified IP address and port using a Socket for
+     * communication.
      *
-     * @param key   The key to insert.
-     * @param value The value associated with the key.
+     * @param ip      The IP address of the destination.
+     * @param port    The port number of the destination.
+     * @param message The message to be sent.
+     * @return The response received from the destination, or an empty string if an
+     *         error occurs or no response is received.
      */
-    public void insert(String key, String value) {
-        data.put(key, value);
+    public String sendMessage(String ip, int port, String message) {
+        try (Socket socket = new Socket(ip, port)) {
+            // Try-with-resources block for proper resource management
+
+            // Obtaining the output stream from the socket
+            OutputStream output = socket.getOutputStream();
+            // Creating a PrintWriter for writing text to the output stream
+            PrintWriter writer = new PrintWriter(output, true);
+
+            // Sending the message to the output stream
+            writer.println(message);
+
+            // Obtaining the input stream from the socket
+            InputStream input = socket.getInputStream();
+            // Creating a Scanner for reading text from the input stream
+            Scanner scanner = new Scanner(input);
+            // Checking if there is another line in the input stream
+            if (scanner.hasNextLine()) {
+                // Returning the next line if available
+                return scanner.nextLine();
+            }
+        } catch (IOException e) {
+            // Handling IOException by printing the stack trace
+            e.printStackTrace();
+        }
+
+        // If an exception occurs or no line is received, return an empty string
+        return "";
     }
 
     /**
-     * Deletes the given key from the data store.
+     * Sends a message to a specified IP address and port from a background thread,
+     * closing the connection once the message is written: the response is not
+     * waited for. The message is dropped if too many are waiting to be sent.
      *
-     * @param key The key to delete.
+     * @param ip      The IP address of the destination.
+     * @param port    The port number of the destination.
+     * @param message The message to be sent.
      */
-    public void delete(String key) {
-        data.remove(key);
+    public void post(String ip, int port, String message) {
+        poster.execute(() -> {
+            try (Socket socket = new Socket(ip, port)) {
+                PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+                writer.println(message);
+            } catch (IOException e) {
+                System.err.println("Error posting to " + ip + ":" + port + ": " + e.getMessage());
+            }
+        });
     }
 
     /**
-     * Searches for the given key in the data store and returns its value if found.
-     * If not found, prints "Not Found" and returns null.
+     * Initializes a server socket bound to the address of the node and
+     * continuously accepts incoming connections, serving each one on a pooled
+     * thread. A connection over the limit of the admission control of the node is
+     * answered OVERLOADED and closed at once. The sockets are backed by channels,
+     * so that blobs can be sent from files without copying.
      *
-     * @param searchKey The key to search for.
-     * @return The value associated with the search key, or null if not found.
+     * @param node The node whose requests are served.
+     * @throws IOException If the server socket cannot be opened.
      */
-    public String search(String searchKey) {
-        if (data.containsKey(searchKey)) {
-            return data.get(searchKey);
-        } else {
-            System.out.println("Not Found");
-            System.out.println(data);
-            return null;
+    public void listen(Node node) throws IOException {
+        // Create a server socket bound to the specific address and port
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(new InetSocketAddress(InetAddress.getByName(node.nodeInfo.ip), node.nodeInfo.port),
+                    50);
+
+            // Continuously accepting incoming connections
+            while (true) {
+                // Accepting a new connection from the server socket
+                Socket socket = serverChannel.accept().socket();
+
+                // Turning the connection away without a thread if the node serves too many
+                if (!node.admission.openConnection()) {
+                    try (Socket rejected = socket) {
+                        rejected.getOutputStream()
+                                .write((Admission_Control.OVERLOADED + "\n").getBytes(StandardCharsets.UTF_8));
+                    } catch (IOException e) {
+                        // The client sees a failed connection instead
+                    }
+                    continue;
+                }
+
+                // Getting the address of the remote socket
+                SocketAddress addr = socket.getRemoteSocketAddress();
+
+                // Serving the incoming request on a pooled thread
+                server.execute(() -> {
+                    try {
+                        node.serveRequests(socket, addr);
+                    } finally {
+                        node.admission.closeConnection();
+                    }
+                });
+            }
         }
     }
 
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
 }
 
 /*
- * Class representing actual information about the Node in the DHT Ring, stores
- * IP and port of a node.
+ * Class to handle requests and responsible for sending messages over the
+ * network through the transport of the node.
+ * 
+ * The handler also measures the round trip time to the nodes it talks to, from
+ * the traffic the node sends anyway. Only requests answered by the destination
+ * itself are timed, since the time of a forwarded lookup includes the hops
+ * after it: a lookup hop answering with its own address was the last hop.
+ * Samples are smoothed like TCP does, with a weight of 1/8 for the new sample.
+ * A node which did not answer is marked unreachable until it answers again.
+ * The nodes talked to are kept as well, so the node knows candidates for its
+ * fingers without asking for them.
+ * 
+ * Messages are compressed as described in Message_Codec: every request offers
+ * to accept compression, and requests are compressed only for nodes which
+ * showed they support it in an earlier response.
  * 
  * Constructor:
- * - Node_Info(): Initializes IP and port of the Node.
+ * - Request_Handler(): Uses the socket transport.
+ * - Request_Handler(transport): Uses the given transport.
  * 
  * Methods:
- * - toString(): An overridden function of the Object class, converts the object
- * to a string.
+ * - sendMessage(ip, port, message): Sends a message to the provided address.
+ * - sendMessage(peer, message): Sends a message to another node.
+ * - post(peer, message): Sends a message to another node without waiting for the
+ * response.
+ * - listen(node): Serves incoming requests for the given node.
+ * - getRtt(node): Returns the smoothed round trip time to a node.
+ * - getContacted(): Returns the nodes this node sent requests to.
+ * 
+ * Example:
+ * - Message Sent: "join_request|<node_id>" (Joining node sends a request to an
+ * existing node to join the ring)
+ * - Response Received:
+ * "successor_info|<successor_id>|<successor_ip>|<successor_port>"
  */
-class Node_Info {
+class Request_Handler {
 
-    // Declare IP address and Port Number
-    public String ip;
-    public int port;
+    // Requests answered without contacting other nodes, whose time is a round trip
+    public static final Set<String> TIMED_OPERATIONS = new HashSet<>(Arrays.asList("Get_Successor",
+            "Get_Predecessor", "Get_Id", "Notify", "Insert_Server", "Search_Server", "Delete_Server"));
+    // Lookups timed only when the destination answers with itself, as the last hop
+    public static final Set<String> LOOKUP_OPERATIONS = new HashSet<>(Arrays.asList("Find_Predecessor"));
+    // Round trip time of a node which was never timed, and of one which did not answer
+    public static final long UNKNOWN_RTT = -1;
+    public static final long UNREACHABLE_RTT = Long.MAX_VALUE;
+    // Number of nodes talked to which are kept
+    private static final int MAX_CONTACTED = 4096;
+
+    public Transport transport;
+    public Map<String, Long> rtts; // Smoothed round trip times in nanoseconds by "ip|port"
+    private final Map<String, Peer> contacted; // Nodes this node sent requests to, by "ip|port"
+    public Message_Codec codec; // Codec of the messages exchanged with other nodes
+    public Set<String> compressingPeers; // Nodes known to accept compressed requests, by "ip|port"
+
+    /**
+     * Initializes a Request_Handler sending messages over TCP sockets.
+     */
+    public Request_Handler() {
+        this(new Socket_Transport());
+    }
 
     /**
-     * Initializes Node_Info with the given IP address and port number.
+     * Initializes a Request_Handler sending messages through the given transport.
      *
-     * @param ip   The IP address of the node.
-     * @param port The port number of the node.
+     * @param transport The transport to use.
      */
-    public Node_Info(String ip, int port) {
-        this.ip = ip;
-        this.port = port;
+    public Request_Handler(Transport transport) {
+        this.transport = transport;
+        this.rtts = new ConcurrentHashMap<>();
+        this.contacted = new ConcurrentHashMap<>();
+        this.codec = new Message_Codec(Integer.getInteger("chord.compress.threshold", 512),
+                Boolean.getBoolean("chord.compress"));
+        this.compressingPeers = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Sends a message to a specified IP address and port through the transport.
+     *
+     * @param ip      The IP address of the destination.
+     * @param port    The port number of the destination.
+     * @param message The message to be sent.
+     * @return The response received from the destination, or an empty string if an
+     *         error occurs or no response is received.
+     */
+    public String sendMessage(String ip, int port, String message) {
+        return sendMessage(ip, port, ip + "|" + port, message);
     }
 
     /**
-     * Combines the IP address and the port number as a string.
+     * Sends a message to another node through the transport, using the address
+     * kept with the reference to key the round trip times and compression state.
      *
-     * @return A string representation of the IP address and port number.
+     * @param peer    The destination.
+     * @param message The message to be sent.
+     * @return The response received from the destination, or an empty string if an
+     *         error occurs or no response is received.
      */
-    public String toString() {
-        StringBuffer buffer = new StringBuffer();
-        buffer.append(this.ip).append("|").append(this.port);
-        return buffer.toString();
+    public String sendMessage(Peer peer, String message) {
+        if (contacted.size() < MAX_CONTACTED || contacted.containsKey(peer.address)) {
+            contacted.put(peer.address, peer);
+        }
+        return sendMessage(peer.ip, peer.port, peer.address, message);
+    }
+
+    /**
+     * Sends a message to another node through the transport without waiting for
+     * it to be handled. Posted messages are not timed, and their responses are
+     * dropped.
+     *
+     * @param peer    The destination.
+     * @param message The message to be sent.
+     */
+    public void post(Peer peer, String message) {
+        transport.post(peer.ip, peer.port, encodeRequest(peer.address, message));
+    }
+
+    private String sendMessage(String ip, int port, String address, String message) {
+        long start = transport.nanoTime();
+        String response = decodeResponse(address, transport.sendMessage(ip, port, encodeRequest(address, message)));
+        int separator = message.indexOf('|');
+        // An overloaded node did not handle the request: for the requests of the
+        // ring, this is the same as no answer, which their callers expect. The
+        // requests forwarded for a client pass the answer on, so it retries later
+        String operation = separator < 0 ? message : message.substring(0, separator);
+        if (response.equals(Admission_Control.OVERLOADED) && Admission_Control.isRingOperation(operation)
+                && !operation.endsWith("_Server")) {
+            return "";
+        }
+        boolean timed = TIMED_OPERATIONS.contains(operation) || LOOKUP_OPERATIONS.contains(operation);
+        if (timed && response.isEmpty()) {
+            rtts.put(address, UNREACHABLE_RTT);
+        } else if (TIMED_OPERATIONS.contains(operation)
+                || (LOOKUP_OPERATIONS.contains(operation) && response.startsWith(address + "|"))) {
+            long sample = transport.nanoTime() - start;
+            rtts.merge(address, sample, (rtt, next) -> rtt == UNREACHABLE_RTT ? next : rtt + (next - rtt) / 8);
+        }
+        return response;
+    }
+
+    /**
+     * Prepares a request for the wire: compressed if the destination accepts it
+     * and the request is large, otherwise offering to accept compression.
+     *
+     * @param address The address of the destination, "ip|port".
+     * @param message The request.
+     * @return The request to send.
+     */
+    private String encodeRequest(String address, String message) {
+        if (!codec.isEnabled()) {
+            return message;
+        }
+        if (compressingPeers.contains(address)) {
+            String compressed = codec.compress(message);
+            if (compressed != message) {
+                return compressed;
+            }
+        }
+        return Message_Codec.ACCEPT + message;
+    }
+
+    /**
+     * Restores a response received from the wire, learning from its marker
+     * whether the destination accepts compressed requests.
+     *
+     * @param address  The address of the destination, "ip|port".
+     * @param response The response as received.
+     * @return The plain response.
+     */
+    private String decodeResponse(String address, String response) {
+        if (response.startsWith(Message_Codec.ACCEPT)) {
+            compressingPeers.add(address);
+            return response.substring(Message_Codec.ACCEPT.length());
+        }
+        if (response.startsWith(Message_Codec.COMPRESSED)) {
+            compressingPeers.add(address);
+            try {
+                return codec.decompress(response);
+            } catch (IllegalArgumentException e) {
+                e.printStackTrace();
+                return "";
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Returns the smoothed round trip time to a node.
+     *
+     * @param node The node.
+     * @return The round trip time in nanoseconds, UNKNOWN_RTT if the node was never
+     *         timed, or UNREACHABLE_RTT if it did not answer last time.
+     */
+    public long getRtt(Peer node) {
+        return rtts.getOrDefault(node.address, UNKNOWN_RTT);
+    }
+
+    /**
+     * Returns the nodes this node sent requests to, in no order.
+     *
+     * @return The nodes.
+     */
+    public Collection<Peer> getContacted() {
+        return Collections.unmodifiableCollection(contacted.values());
+    }
+
+    /**
+     * Serves incoming requests for the given node through the transport.
+     *
+     * @param node The node whose requests are served.
+     * @throws IOException If the node cannot be reached through the transport.
+     */
+    public void listen(Node node) throws IOException {
+        transport.listen(node);
     }
 
 }
 
 /*
- * Represents a pair containing an entry and a node in the Finger Table.
- * 
- * Constructor:
- * - EntryNodePair(entry, node): Constructs an EntryNodePair with the specified
- * entry and node.
- * 
+ * Class with helpers to carry a lookup trace on the wire.
+ *
+ * A trace id travels with a request as an extra "trace=<trace_id>" argument.
+ * Every node that handles a traced request appends its hop to the response as
+ * "|trace=<trace_id>:<hops>", where hops is a comma separated list of
+ * "<node_id>@<elapsed_us>" in path order. The elapsed time of a hop is measured
+ * on that node and includes the time spent waiting for the next hop.
+ *
  * Methods:
- * - getEntry(): Returns the entry in the Finger Table.
- * - getNode(): Returns the corresponding node.
- * - setNode(newNode): Sets the node to the specified new node.
+ * - newTraceId(): Generates a new trace id.
+ * - sample(rate): Decides whether an untraced request should be traced.
+ * - option(traceId): Returns the argument to append to a request message.
+ * - getTraceId(args): Extracts the trace id from request arguments.
+ * - strip(response): Removes the trace annotation from a response.
+ * - hops(response): Returns the hops carried by a response.
+ * - addHop(response, traceId, nodeId, startNanos): Prepends the hop of the
+ * current node to a response.
+ * - withHops(response, traceId, hops): Replaces the hops carried by a response.
  */
-class EntryNodePair {
+class Lookup_Trace {
 
-    public int entry; // The entry in the Finger Table
-    public Node node; // The corresponding node
+    public static final String OPTION = "trace=";
+    public static final String ANNOTATION = "|" + OPTION;
 
     /**
-     * Constructs an EntryNodePair with the specified entry and node.
+     * Generates a new trace id, a hexadecimal string which never contains any of
+     * the protocol separators.
      *
-     * @param entry The entry in the Finger Table.
-     * @param node  The corresponding node.
+     * @return A new trace id.
      */
-    public EntryNodePair(int entry, Node node) {
-        this.entry = entry;
-        this.node = node;
+    public static String newTraceId() {
+        return Long.toHexString(new Random().nextLong() & Long.MAX_VALUE);
     }
 
     /**
-     * Returns the entry in the Finger Table.
+     * Decides whether an untraced request should be traced.
      *
-     * @return The entry in the Finger Table.
+     * @param rate The fraction of requests to trace, between 0 and 1.
+     * @return True if the request should be traced.
      */
-    public int getEntry() {
-        return this.entry;
+    public static boolean sample(double rate) {
+        return rate > 0 && Math.random() < rate;
     }
 
     /**
-     * Returns the corresponding node.
+     * Returns the argument to append to a request message for the given trace.
      *
-     * @return The corresponding node.
+     * @param traceId The trace id, or null if the request is not traced.
+     * @return The argument including its leading separator, or an empty string.
      */
-    public Node getNode() {
-        return this.node;
+    public static String option(String traceId) {
+        if (traceId == null) {
+            return "";
+        }
+        return "|" + OPTION + traceId;
     }
 
     /**
-     * Sets the node to the specified new node.
+     * Extracts the trace id from the arguments of a request.
      *
-     * @param newNode The new node to set.
+     * @param args The arguments of the request.
+     * @return The trace id, or null if the request is not traced.
      */
-    public void setNode(Node newNode) {
-        this.node = newNode;
+    public static String getTraceId(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith(OPTION) && arg.length() > OPTION.length()) {
+                return arg.substring(OPTION.length());
+            }
+        }
+        return null;
     }
+
+    /**
+     * Removes the trace annotation from a response.
+     *
+     * @param response The response, possibly annotated.
+     * @return The response without its trace annotation.
+     */
+    public static String strip(String response) {
+        if (response == null) {
+            return null;
+        }
+        int index = response.indexOf(ANNOTATION);
+        return index < 0 ? response : response.substring(0, index);
+    }
+
+    /**
+     * Returns the hops carried by a response.
+     *
+     * @param response The response, possibly annotated.
+     * @return The comma separated hops, or an empty string if there are none.
+     */
+    public static String hops(String response) {
+        if (response == null) {
+            return "";
+        }
+        int index = response.indexOf(ANNOTATION);
+        if (index < 0) {
+            return "";
+        }
+        int colon = response.indexOf(':', index + ANNOTATION.length());
+        return colon < 0 ? "" : response.substring(colon + 1);
+    }
+
+    /**
+     * Prepends the hop of the current node to the hops carried by a response.
+     *
+     * @param response   The response received from the next hop or produced
+     *                   locally.
+     * @param traceId    The trace id, or null if the request is not traced.
+     * @param nodeId     The ID of the current node.
+     * @param startNanos The value of System.nanoTime() when the current node
+     *                   started handling the request.
+     * @return The annotated response, or the response unchanged if the request is
+     *         not traced.
+     */
+    public static String addHop(String response, String traceId, int nodeId, long startNanos) {
+        if (traceId == null) {
+            return response;
+        }
+        long elapsedMicros = (System.nanoTime() - startNanos) / 1000;
+        String hop = nodeId + "@" + elapsedMicros;
+        String downstream = hops(response);
+        return withHops(response, traceId, downstream.isEmpty() ? hop : hop + "," + downstream);
+    }
+
+    /**
+     * Replaces the hops carried by a response.
+     *
+     * @param response The response, possibly annotated.
+     * @param traceId  The trace id.
+     * @param hops     The comma separated hops to carry.
+     * @return The annotated response.
+     */
+    public static String withHops(String response, String traceId, String hops) {
+        return strip(response) + ANNOTATION + traceId + ":" + hops;
+    }
+
 }
 
 /*
- * Class to represent the finger table of a node.
- * 
+ * Class to keep the most recent lookup traces completed at a node in a fixed
+ * size ring buffer.
+ *
  * Constructor:
- * - Finger_Table(myID): Initializes every entry of the finger table with -1 as
- * its successor.
- * 
+ * - Trace_Buffer(capacity): Initializes the ring buffer.
+ *
  * Methods:
- * - print(): Prints every entry and its successor for the node.
+ * - add(trace): Adds a completed trace, overwriting the oldest one when full.
+ * - dump(): Returns the traces, newest first, one per line.
  */
-class Finger_Table {
+class Trace_Buffer {
 
-    public ArrayList<EntryNodePair> table;
-    public static final int M = 8;
+    private final String[] traces;
+    private int next; // Index of the slot to write next
+    private int size; // Number of traces stored
 
     /**
-     * Initializes a Finger Table for a node.
+     * Initializes the ring buffer.
      *
-     * @param myId The ID of the node.
+     * @param capacity The maximum number of traces kept.
      */
-    public Finger_Table(int myId) {
-        this.table = new ArrayList<>();
+    public Trace_Buffer(int capacity) {
+        this.traces = new String[Math.max(1, capacity)];
+        this.next = 0;
+        this.size = 0;
+    }
 
-        for (int i = 0; i < M; i++) {
-            int x = (int) Math.pow(2, i);
-            int entry = (myId + x) % (int) Math.pow(2, M);
-            Node init_node = null;
-            EntryNodePair pair = new EntryNodePair(entry, init_node);
-            this.table.add(pair);
+    /**
+     * Adds a completed trace, overwriting the oldest one when the buffer is full.
+     *
+     * @param trace The trace to add.
+     */
+    public synchronized void add(String trace) {
+        traces[next] = trace;
+        next = (next + 1) % traces.length;
+        size = Math.min(size + 1, traces.length);
+    }
+
+    /**
+     * Returns the traces kept in the buffer, newest first, one per line.
+     *
+     * @return The traces, or "None" if no trace was recorded.
+     */
+    public synchronized String dump() {
+        if (size == 0) {
+            return "None";
+        }
+        StringBuilder info = new StringBuilder();
+        for (int i = 1; i <= size; i++) {
+            info.append(traces[(next - i + traces.length) % traces.length]).append("\n");
         }
+        return info.toString();
     }
 
+}
+
+/*
+ * Class to cache the values of hot keys at the nodes clients send their
+ * searches to. The owner of a key grants a lease with the value once the key is
+ * hot; the value is then served from the cache until the lease expires, so a
+ * cached value is at most one lease older than the value on the owner. Writes
+ * going through a node drop its cached copy at once.
+ *
+ * Constructor:
+ * - Hot_Cache(capacity): Initializes an empty cache.
+ *
+ * Methods:
+ * - get(key, now): Returns the cached value of a key if its lease is valid.
+ * - put(key, value, expires): Caches a value until the lease expires.
+ * - invalidate(key): Drops the cached value of a key.
+ * - getLease(response): Returns the lease carried by a "Search_Server" response.
+ * - stripLease(response): Removes the lease from a "Search_Server" response.
+ * - getStats(): Returns the hit and miss counts and the cached keys.
+ */
+class Hot_Cache {
+
+    public static final String OPTION = "cache"; // Argument asking the owner for a lease
+    public static final String ANNOTATION = "|lease="; // Lease in milliseconds appended by the owner
+
+    private final LinkedHashMap<String, Map.Entry<String, Long>> entries; // Value and expiry by key, in access order
+    private long hits;
+    private long misses;
+
     /**
-     * Prints the contents of the Finger Table.
+     * Initializes an empty cache.
+     *
+     * @param capacity The maximum number of cached values, the least recently used
+     *                 one being dropped first.
      */
-    public void print() {
-        for (int index = 0; index < table.size(); index++) {
-            EntryNodePair pair = table.get(index);
-            if (pair.getNode() == null) {
-                System.out.println("Entry: " + index + " Interval start: " + pair.getEntry() + " Successor: None");
-            } else {
-                System.out.println("Entry: " + index + " Interval start: " + pair.getEntry() + " Successor: "
-                        + pair.getNode().getId());
+    public Hot_Cache(int capacity) {
+        this.entries = new LinkedHashMap<String, Map.Entry<String, Long>>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Map.Entry<String, Long>> eldest) {
+                return size() > capacity;
             }
+        };
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    /**
+     * Returns the cached value of a key if its lease is still valid.
+     *
+     * @param key The key.
+     * @param now The current time in nanoseconds, from the clock of the transport.
+     * @return The value, or null if the key is not cached or its lease expired.
+     */
+    public synchronized String get(String key, long now) {
+        Map.Entry<String, Long> entry = entries.get(key);
+        if (entry != null && now - entry.getValue() < 0) {
+            hits++;
+            return entry.getKey();
+        }
+        if (entry != null) {
+            entries.remove(key);
         }
+        misses++;
+        return null;
     }
 
     /**
-     * Returns a string containing information about the fingers of a node.
-     * 
-     * @return A string containing finger table information.
+     * Caches the value of a key until its lease expires.
+     *
+     * @param key     The key.
+     * @param value   The value.
+     * @param expires The expiry time of the lease in nanoseconds.
      */
-    public String getFingerTableInfo() {
-        StringBuilder info = new StringBuilder();
-        for (int index = 0; index < table.size(); index++) {
-            EntryNodePair pair = table.get(index);
-            if (pair.getNode() == null) {
-                info.append("Entry: ").append(index).append(" Interval start: ").append(pair.getEntry())
-                        .append(" Successor: None\n");
-            } else {
-                info.append("Entry: ").append(index).append(" Interval start: ").append(pair.getEntry())
-                        .append(" Successor: ").append(pair.getNode().getId()).append("\n");
-            }
+    public synchronized void put(String key, String value, long expires) {
+        entries.put(key, new AbstractMap.SimpleImmutableEntry<>(value, expires));
+    }
+
+    /**
+     * Drops the cached value of a key.
+     *
+     * @param key The key.
+     */
+    public synchronized void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Returns the lease carried by a "Search_Server" response.
+     *
+     * @param response The response, without trace annotation.
+     * @return The lease in milliseconds, or 0 if the owner granted none.
+     */
+    public static long getLease(String response) {
+        int index = response.lastIndexOf(ANNOTATION);
+        if (index < 0) {
+            return 0;
         }
-        return info.toString();
+        try {
+            return Long.parseLong(response.substring(index + ANNOTATION.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Removes the lease from a "Search_Server" response.
+     *
+     * @param response The response, without trace annotation.
+     * @return The response without lease.
+     */
+    public static String stripLease(String response) {
+        int index = response.lastIndexOf(ANNOTATION);
+        return index < 0 ? response : response.substring(0, index);
+    }
+
+    /**
+     * Returns the hit and miss counts of the cache and the keys it holds.
+     *
+     * @return A string of the form "hits=<n>,misses=<n>,cached=[<keys>]".
+     */
+    public synchronized String getStats() {
+        return "hits=" + hits + ",misses=" + misses + ",cached=" + entries.keySet();
     }
 
 }
 
 /*
- * Class to handle requests and responsible for sending messages over a network
- * using a Socket.
+ * Class to move keys from a node to other nodes in the background, so that
+ * joins and leaves do not hold up the threads serving requests. Moves are run
+ * one at a time by a single low priority thread, in batches of pairs sent with
+ * "Take_Keys". A pair is deleted from the node once the target confirmed it.
  * 
- * Methods:
- * - sendMessage(ip, port, message): Sends a message to the provided address.
+ * The rate of the moves is bounded by a number of keys and of bytes per second.
+ * Before each batch the thread waits, for a bounded time, until the node serves
+ * no request, so client requests go first. A target which answers "Busy" is
+ * given time before the batch is sent again, with a delay doubling up to a
+ * second, for at most BUSY_MILLIS; so is a target which does not answer, up to
+ * MAX_ATTEMPTS times. The move then fails with its keys left on the node, for
+ * its owner to queue it again. Moves can be paused and resumed.
  * 
- * Example:
- * - Message Sent: "join_request|<node_id>" (Joining node sends a request to an
- * existing node to join the ring)
- * - Response Received:
- * "successor_info|<successor_id>|<successor_ip>|<successor_port>"
+ * Constructor:
+ * - Rebalancer(node, keysPerSecond, bytesPerSecond, batchSize): Initializes an
+ * idle rebalancer; 0 means no limit.
+ * 
+ * Methods:
+ * - submit(name, target, keys, yielding): Queues a move of keys to another node.
+ * - pause(): Pauses the moves after the current batch.
+ * - resume(): Resumes the moves.
+ * - getProgress(): Returns the state and counters of the moves.
  */
-class Request_Handler {
+class Rebalancer {
 
-    // Suppressing resource warnings since Socket and Scanner need to be closed
-    // properly
-    @SuppressWarnings("resource")
+    public static final long YIELD_MILLIS = 100; // Longest wait for the node to be idle before a batch
+    public static final long MAX_BACKOFF_MILLIS = 1000;
+    public static final int MAX_ATTEMPTS = 10; // Attempts of a batch to a target which does not answer
+    // Longest time a batch is retried while the target answers "Busy", in milliseconds
+    public static final long BUSY_MILLIS = Long.getLong("chord.rebalance.busy", 30000);
+
+    private final Node node;
+    private final int keysPerSecond;
+    private final long bytesPerSecond;
+    private final int batchSize;
+    private final BlockingQueue<Move> moves;
+    private volatile boolean paused;
+    private volatile Move current;
+    private Thread worker; // Started with the first move
+    private final AtomicLong moved; // Keys confirmed by targets
+    private final AtomicLong bytes;
+    private final AtomicLong backoffs; // Batches refused by a busy target
+    private final AtomicLong failed; // Moves given up, whose keys stay on the node
+
+    /*
+     * A move of keys to another node, and the future of the number of keys moved.
+     */
+    private static class Move {
+        final String name;
+        final Peer target;
+        final List<String> keys;
+        final boolean yielding; // Whether the move waits for the node to be idle
+        final CompletableFuture<Integer> done;
+        volatile int sent;
+
+        Move(String name, Peer target, List<String> keys, boolean yielding) {
+            this.name = name;
+            this.target = target;
+            this.keys = keys;
+            this.yielding = yielding;
+            this.done = new CompletableFuture<>();
+        }
+    }
 
     /**
-     * Sends a message to a specified IP address and port using a Socket for
-     * communication.
+     * Initializes an idle rebalancer.
      *
-     * @param ip      The IP address of the destination.
-     * @param port    The port number of the destination.
-     * @param message The message to be sent.
-     * @return The response received from the destination, or an empty string if an
-     *         error occurs or no response is received.
+     * @param node           The node whose keys are moved.
+     * @param keysPerSecond  The largest number of keys moved per second, or 0.
+     * @param bytesPerSecond The largest number of bytes moved per second, or 0.
+     * @param batchSize      The number of pairs per message.
      */
-    public String sendMessage(String ip, int port, String message) {
-        try (Socket socket = new Socket(ip, port)) {
-            // Try-with-resources block for proper resource management
+    public Rebalancer(Node node, int keysPerSecond, long bytesPerSecond, int batchSize) {
+        this.node = node;
+        this.keysPerSecond = Math.max(0, keysPerSecond);
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.batchSize = Math.max(1, batchSize);
+        this.moves = new LinkedBlockingQueue<>();
+        this.paused = false;
+        this.moved = new AtomicLong();
+        this.bytes = new AtomicLong();
+        this.backoffs = new AtomicLong();
+        this.failed = new AtomicLong();
+    }
 
-            // Obtaining the output stream from the socket
-            OutputStream output = socket.getOutputStream();
-            // Creating a PrintWriter for writing text to the output stream
-            PrintWriter writer = new PrintWriter(output, true);
+    /**
+     * Queues a move of keys to another node.
+     *
+     * @param name     The name of the move, shown in the progress.
+     * @param target   The node to move the keys to.
+     * @param keys     The keys to move; keys deleted meanwhile are skipped.
+     * @param yielding True to let the requests of the node go first, false for
+     *                 a move which must end soon, such as when the node leaves.
+     * @return The future of the number of keys moved, failed if the target stops
+     *         answering.
+     */
+    public synchronized CompletableFuture<Integer> submit(String name, Peer target, List<String> keys,
+            boolean yielding) {
+        Move move = new Move(name, target, new ArrayList<>(keys), yielding);
+        moves.add(move);
+        if (worker == null) {
+            worker = new Thread(this::run, "chord-rebalancer");
+            worker.setDaemon(true);
+            worker.setPriority(Thread.MIN_PRIORITY);
+            worker.start();
+        }
+        return move.done;
+    }
 
-            // Sending the message to the output stream
-            writer.println(message);
+    public void pause() {
+        paused = true;
+    }
 
-            // Obtaining the input stream from the socket
-            InputStream input = socket.getInputStream();
-            // Creating a Scanner for reading text from the input stream
-            Scanner scanner = new Scanner(input);
-            // Checking if there is another line in the input stream
-            if (scanner.hasNextLine()) {
-                // Returning the next line if available
-                return scanner.nextLine();
+    public void resume() {
+        paused = false;
+    }
+
+    /**
+     * Returns the state of the rebalancer, the move in progress and the counters.
+     *
+     * @return The progress as "name=value" pairs separated by commas.
+     */
+    public String getProgress() {
+        Move move = current;
+        String state = paused ? "paused" : (move == null ? "idle" : "running");
+        return "state=" + state + ",queued=" + moves.size()
+                + (move == null ? "" : ",current=" + move.name + ",sent=" + move.sent + ",total=" + move.keys.size())
+                + ",moved=" + moved.get() + ",bytes=" + bytes.get() + ",backoffs=" + backoffs.get()
+                + ",failed=" + failed.get();
+    }
+
+    /**
+     * Runs the queued moves one after another.
+     */
+    private void run() {
+        while (true) {
+            Move move;
+            try {
+                move = moves.take();
+            } catch (InterruptedException e) {
+                return;
             }
-        } catch (IOException e) {
-            // Handling IOException by printing the stack trace
-            e.printStackTrace();
+            current = move;
+            try {
+                move.done.complete(runMove(move));
+            } catch (RuntimeException | InterruptedException e) {
+                failed.incrementAndGet();
+                move.done.completeExceptionally(e);
+            }
+            current = null;
         }
+    }
 
-        // If an exception occurs or no line is received, return an empty string
-        return "";
+    /**
+     * Sends the keys of a move in batches, at the allowed rate.
+     *
+     * @param move The move.
+     * @return The number of keys moved.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    private int runMove(Move move) throws InterruptedException {
+        int count = 0;
+        while (move.sent < move.keys.size()) {
+            while (paused) {
+                Thread.sleep(50);
+            }
+            // Letting the requests being served go first, for a while
+            long yieldStart = System.currentTimeMillis();
+            while (move.yielding && node.getInFlight() > 0 && System.currentTimeMillis() - yieldStart < YIELD_MILLIS) {
+                Thread.sleep(1);
+            }
+            long start = System.currentTimeMillis();
+            List<String> keys = move.keys.subList(move.sent, Math.min(move.sent + batchSize, move.keys.size()));
+            StringBuilder batch = new StringBuilder();
+            Map<String, String> values = new HashMap<>();
+            for (String key : keys) {
+                if (node.appendPair(batch, key)) {
+                    values.put(key, node.dataStore.get(key));
+                }
+            }
+            if (batch.length() > 0) {
+                long backoff = 10;
+                int attempts = 0;
+                long busyUntil = System.currentTimeMillis() + BUSY_MILLIS;
+                String response;
+                // Retrying for a while if the target is busy, or if it does not answer, as a
+                // joining node may not listen yet
+                while (((response = node.requestHandler.sendMessage(move.target, "Take_Keys|" + batch))
+                        .equals("Busy") && System.currentTimeMillis() < busyUntil)
+                        || (response.isEmpty() && ++attempts < MAX_ATTEMPTS)) {
+                    backoffs.incrementAndGet();
+                    Thread.sleep(backoff);
+                    backoff = Math.min(2 * backoff, MAX_BACKOFF_MILLIS);
+                }
+                if (!response.equals("Taken")) {
+                    throw new IllegalStateException("Move " + move.name + " refused by " + move.target.nodeInfo
+                            + ": " + response);
+                }
+                // Deleting the pairs moved, unless they were written again meanwhile
+                for (Map.Entry<String, String> pair : values.entrySet()) {
+                    node.dataStore.delete(pair.getKey(), pair.getValue());
+                }
+                count += values.size();
+                moved.addAndGet(values.size());
+                bytes.addAndGet(batch.length());
+            }
+            move.sent += keys.size();
+            // Waiting for the rate of keys and bytes to fall within the limits
+            long needed = Math.max(keysPerSecond > 0 ? 1000L * keys.size() / keysPerSecond : 0,
+                    bytesPerSecond > 0 ? 1000L * batch.length() / bytesPerSecond : 0);
+            long elapsed = System.currentTimeMillis() - start;
+            if (needed > elapsed) {
+                Thread.sleep(needed - elapsed);
+            }
+        }
+        return count;
     }
 
 }
@@ -298,20 +952,42 @@ class Request_Handler {
  * 
  * Constructor:
  * - Node(ip, port): Initializes a new node with the given IP address and port.
+ * - Node(ip, port, transport): Initializes a new node using the given transport.
  * 
  * Methods:
  * - hash(message): Calculates the hash value of a message using SHA-256
  * algorithm.
+ * - keyId(key): Returns the position of a key on the ring.
+ * - peer(info): Returns the reference to another node from its information.
+ * - self(): Returns the reference to this node.
+ * - isSelf(peer): Checks whether a reference is to this node.
+ * - getRing(): Returns the current neighbors of the node.
+ * - successor(), predecessor(): Return the current successor and predecessor.
+ * - setSuccessor(successor), setPredecessor(predecessor), setNeighbors(
+ * predecessor, successor): Replace neighbors of the node.
+ * - updateRing(expected, next): Replaces the neighbors if they did not change.
+ * - describe(): Returns the information of the node, its ID included.
  * - processRequest(message): Processes incoming request messages and performs
  * corresponding operations.
+ * - getInFlight(): Returns the number of requests in progress.
  * - serveRequests(Socket conn, SocketAddress addr): Serves incoming requests
- * from a client socket.
- * - start(): Starts the Chord DHT node by initializing a server socket and
- * continuously accepting incoming connections.
+ * from a client socket, as far as the rate limits and admission control let
+ * them in.
+ * - start(): Starts the Chord DHT node by starting the maintenance threads and
+ * serving incoming requests through the transport.
  * - insertKey(key, value): Inserts a key-value pair into the Chord DHT network.
+ * - insertKey(key, value, ttlMillis, traceId): Inserts a key-value pair which
+ * expires after the given time.
+ * - expireKeys(): Periodically deletes the keys whose time to live is over.
+ * - compareAndSet(key, expectedVersion, value, ttlMillis, traceId): Inserts a
+ * key-value pair if the key still has the version the client read.
+ * - sendToOwner(operation, key, request, traceId): Sends a write to the owner of
+ * a key and returns its answer.
  * - deleteKey(key): Deletes a key from the Chord DHT network.
  * - searchKey(key): Searches for the value corresponding to a given key in the
  * Chord DHT network.
+ * - searchKey(key, traceId, withVersion): Searches for the value of a key, with
+ * its version if asked.
  * - joinRequestFromOtherNode(nodeId): Handles a join request from another node
  * by finding its successor.
  * - join(nodeIp, nodePort): Joins the Chord DHT network by connecting to an
@@ -320,15 +996,44 @@ class Request_Handler {
  * given key.
  * - findSuccessor(searchId): Finds the successor node responsible for a given
  * key.
+ * - routeSuccessor(searchId, traceId): Finds the successor of a key with a
+ * lookup answered straight to this node.
+ * - routeHop(searchId, requestId, origin, traceId, hops): Performs one hop of
+ * such a lookup.
  * - closestPrecedingNode(searchId): Finds the closest preceding node to a given
  * key.
  * - sendKeys(idOfJoiningNode): Sends keys to a joining node.
+ * - requestKeys(idOfJoiningNode, nodeIp, nodePort): Queues the move of keys to a
+ * joining node, queued again if it fails.
+ * - watchMove(donor): Takes the keys at once if the donor stops moving them.
+ * - appendPair(data, key): Appends a stored pair, with its time to live and
+ * version, to the keys sent to another node.
+ * - storePairs(data): Stores the pairs received from another node.
+ * - scan(from, to, limit): Returns the pairs of a key range, in key order.
+ * - balanceOnce(): Moves the node forward if its successor holds many more keys.
+ * - handOver(newId, nodeIp, nodePort): Gives keys to a predecessor moving
+ * forward.
  * - stabilize(): Periodically stabilizes the Chord DHT network by updating
  * successor and predecessor information.
+ * - stabilizeOnce(): Runs a single stabilization round.
  * - notify(nodeId, nodeIp, nodePort): Notifies the node about a new predecessor
  * in the network.
  * - fixFingers(): Fixes fingers in the finger table by updating entries with
  * successors found in the network.
+ * - fixFinger(index): Fixes a single finger of the finger table.
+ * - replicate(message): Sends a write to the replica on the successor.
+ * - replicateInsert(key, value, ttlMillis, version): Sends a write of a pair to
+ * the replica on the successor.
+ * - antiEntropy(): Periodically repairs the replicas on the successor.
+ * - antiEntropyOnce(): Compares the pairs with their replicas and repairs the
+ * buckets which differ.
+ * - getReplicaHashes(indexes): Returns hashes of the Merkle tree of the replicas.
+ * - syncReplicaBuckets(buckets, data): Replaces buckets of the replicas.
+ * - promoteReplicas(): Takes over the replicas which fall in the node's range.
+ * - leave(): Hands the keys over to the successor and leaves the ring.
+ * - pushBlob(key, target): Copies a blob to another node.
+ * - replaceNode(nodeInfo, replacementInfo): Replaces a node which left in the
+ * finger table, passing the change on to the predecessor.
  * - getSuccessor(): Returns the successor node's information.
  * - getPredecessor(): Returns the predecessor node's information.
  * - getId(): Returns the ID of the node as a string.
@@ -345,15 +1050,91 @@ class Request_Handler {
  */
 public class Node {
 
+    // Placement of the keys: "hash" spreads keys uniformly, "order" keeps them in
+    // key order around the ring so that key ranges can be scanned
+    public static final boolean ORDERED = "order".equals(System.getProperty("chord.placement", "hash"));
+    // Whether nodes move forward to take keys from a loaded successor, on by
+    // default with the order preserving placement
+    public static final boolean BALANCE = Boolean.parseBoolean(System.getProperty("chord.balance",
+            String.valueOf(ORDERED)));
+    // A node takes keys from its successor when the successor holds this many times
+    // more keys, and at least BALANCE_MIN_KEYS
+    public static final int BALANCE_FACTOR = 2;
+    public static final int BALANCE_MIN_KEYS = 16;
+    // Number of copies of each pair: 2 keeps a replica of every pair on the
+    // successor of its owner, repaired by anti-entropy every ANTI_ENTROPY_MILLIS
+    public static final int REPLICAS = Integer.getInteger("chord.replicas", 1);
+    public static final long ANTI_ENTROPY_MILLIS = Long.getLong("chord.antientropy.period", 30000L);
+    // Number of buckets per repair message
+    public static final int REPAIR_BATCH = 16;
+    // Number of requests in progress from which moves of keys to the node are held
+    // back
+    public static final int REBALANCE_BUSY = Integer.getInteger("chord.rebalance.busy", 32);
+    // A move of keys to a joining node which fails is queued again up to
+    // MOVE_RETRIES times, after a wait doubling from a second. The joining node
+    // checks every MOVE_CHECK_MILLIS that its donor is still moving keys, and
+    // takes the rest at once with "Send_Keys" after MOVE_CHECK_MISSES checks in a
+    // row find it unreachable or idle
+    public static final int MOVE_RETRIES = 5;
+    public static final long MOVE_CHECK_MILLIS = Long.getLong("chord.rebalance.check", 5000L);
+    public static final int MOVE_CHECK_MISSES = 3;
+    // Whether lookups are forwarded hop to hop without waiting, the last hop
+    // answering the node which started them, and how long that node waits for the
+    // answer before looking the key up again hop by hop
+    public static final boolean ASYNC_ROUTING = Boolean.getBoolean("chord.route.async");
+    public static final long ROUTE_TIMEOUT_MILLIS = Long.getLong("chord.route.timeout", 5000L);
+    // Argument carrying the hops of a traced asynchronous lookup
+    public static final String HOPS_OPTION = "hops=";
+    // Pairs and bytes returned by a scan at most, whatever the limit asked for, and
+    // nodes asked at once by a scan with the hash placement
+    public static final int MAX_SCAN_PAIRS = Integer.getInteger("chord.scan.max", 1000);
+    public static final int MAX_SCAN_BYTES = Integer.getInteger("chord.scan.bytes", 1 << 20);
+    public static final int SCAN_THREADS = Integer.getInteger("chord.scan.threads", 8);
+
     public String ip;
     public int port;
     public Node_Info nodeInfo;
-    public int id;
-    public Node predecessor;
-    public Node successor;
+    public volatile int id; // Hash of the address, until the node moves to balance load
+    // Predecessor and successor, replaced as a whole whenever one of them changes
+    private final AtomicReference<Ring_State> ring = new AtomicReference<>(Ring_State.EMPTY);
     public Finger_Table fingerTable;
     public Data_Store dataStore;
     public Request_Handler requestHandler;
+    public Admission_Control admission;
+    public Trace_Buffer traceBuffer;
+    public double traceSampleRate;
+    public Count_Min_Sketch readSketch;
+    public Hot_Cache hotCache;
+    public int hotThreshold;
+    public long hotLeaseMillis;
+    public Blob_Store blobStore;
+    // Set while the node hands its keys over before leaving, when it refuses writes,
+    // then once it left, when it no longer answers
+    public volatile boolean leaving;
+    public volatile boolean left;
+    // Requests in progress, which key moves give way to
+    public final AtomicInteger inFlight = new AtomicInteger();
+    // Mover of the keys to other nodes
+    public Rebalancer rebalancer;
+    // Node moving the keys of this node's range to it after a join, or null, and
+    // the keys written here meanwhile, which the moved pairs must not overwrite
+    public volatile Peer pendingDonor;
+    public final Set<String> touchedDuringMove = ConcurrentHashMap.newKeySet();
+    // Replicas of the pairs of the predecessor, if replicas are kept, and the
+    // thread sending the writes to the successor, started with the first one
+    public Data_Store replicaStore;
+    private ExecutorService replicator;
+    private ExecutorService scanners; // Threads of the scans, started with the first one
+    // Number of searches answered as misses by the Bloom filter of the keys
+    public final AtomicLong filteredMisses = new AtomicLong();
+    // Anti-entropy counters: rounds run, buckets found different and keys sent
+    public final AtomicLong repairRounds = new AtomicLong();
+    public final AtomicLong repairBuckets = new AtomicLong();
+    public final AtomicLong repairKeys = new AtomicLong();
+    // Asynchronous lookups started by this node and waiting for their answer, by
+    // request ID
+    private final AtomicLong nextRouteId = new AtomicLong();
+    private final Map<Long, CompletableFuture<String>> pendingRoutes = new ConcurrentHashMap<>();
 
     /**
      * Initializes a Node with the given IP address and port.
@@ -362,6 +1143,18 @@ public class Node {
      * @param port The port of the node.
      */
     public Node(String ip, int port) {
+        this(ip, port, new Socket_Transport());
+    }
+
+    /**
+     * Initializes a Node with the given IP address and port, exchanging messages
+     * through the given transport.
+     * 
+     * @param ip        The IP address of the node.
+     * @param port      The port of the node.
+     * @param transport The transport used to reach other nodes.
+     */
+    public Node(String ip, int port, Transport transport) {
         // Set the IP address and port of the node
         this.ip = ip;
         this.port = port;
@@ -372,27 +1165,64 @@ public class Node {
         // Calculate the hash value of the Node_Info object to get the ID of the node
         this.id = hash(String.valueOf(this.nodeInfo));
 
-        // Set the predecessor and successor of the node to null initially
-        this.predecessor = null;
-        this.successor = null;
-
         // Initialize the Finger Table of the node using its ID
         this.fingerTable = new Finger_Table(this.id);
 
-        // Initialize the Data Store of the node
-        this.dataStore = new Data_Store();
+        // Bound the requests served at once, per lane
+        this.admission = new Admission_Control();
+
+        // Initialize the Data Store of the node, keeping large values compressed if
+        // enabled
+        this.dataStore = new Data_Store(Boolean.getBoolean("chord.compress.store")
+                ? new Message_Codec(Integer.getInteger("chord.compress.threshold", 512), true)
+                : null, Long.getLong("chord.ttl.tick", Timer_Wheel.DEFAULT_TICK_MILLIS));
+        // Bound its memory if a budget is given: a store refuses the writes over it,
+        // while a cache evicts keys with the chosen policy
+        long budget = Long.getLong("chord.memory.budget", 0L);
+        if (budget > 0) {
+            boolean cache = "cache".equals(System.getProperty("chord.memory.mode", "store"));
+            this.dataStore.setBudget(budget, cache ? Eviction_Policy.create(System.getProperty("chord.eviction",
+                    "lru"), (int) Math.min(1 << 20, budget / Data_Store.sizeOf("", ""))) : null);
+        }
 
         // Initialize the Request Handler of the node
-        this.requestHandler = new Request_Handler();
+        this.requestHandler = new Request_Handler(transport);
+
+        // Initialize the buffer of completed lookup traces and the sampling rate of
+        // untraced client requests
+        this.traceBuffer = new Trace_Buffer(Integer.getInteger("chord.trace.buffer", 64));
+        this.traceSampleRate = Double.parseDouble(System.getProperty("chord.trace.sample", "0"));
+
+        // Initialize the read frequency sketch of the owned keys, the number of recent
+        // reads making a key hot, the lease granted on hot values and the cache of hot
+        // values of other nodes
+        this.readSketch = new Count_Min_Sketch(Integer.getInteger("chord.hot.sketch", 1024));
+        this.hotThreshold = Integer.getInteger("chord.hot.threshold", 64);
+        this.hotLeaseMillis = Long.getLong("chord.hot.lease", 1000L);
+        this.hotCache = new Hot_Cache(Integer.getInteger("chord.hot.cache", 1024));
+
+        // Initialize the store of the replicas of the predecessor's pairs
+        this.replicaStore = REPLICAS > 1
+                ? new Data_Store(null, Long.getLong("chord.ttl.tick", Timer_Wheel.DEFAULT_TICK_MILLIS))
+                : null;
+
+        // Initialize the mover of keys, with its rate limits
+        this.rebalancer = new Rebalancer(this, Integer.getInteger("chord.rebalance.keys", 1000),
+                Long.getLong("chord.rebalance.bytes", 1L << 20), Integer.getInteger("chord.rebalance.batch", 128));
+
+        // Initialize the store of large values, one directory per node
+        this.blobStore = new Blob_Store(Paths.get(System.getProperty("chord.blob.dir",
+                System.getProperty("java.io.tmpdir") + File.separator + "chord-blobs"), ip + "_" + port));
     }
 
     /**
-     * Calculates the hash value of a message using the SHA-256 algorithm.
+     * Calculates the hash value of a message using the SHA-256 algorithm. Clients
+     * use the same function to find the owner of a key themselves.
      * 
      * @param message The message for which the hash value is to be calculated.
      * @return The hash value of the message.
      */
-    public int hash(String message) {
+    public static int hash(String message) {
         try {
             // Create a MessageDigest instance using the SHA-256 algorithm
             MessageDigest md = MessageDigest.getInstance("SHA-256");
@@ -410,14 +1240,213 @@ public class Node {
         }
     }
 
+    /**
+     * Returns the position of a key on the ring. With the hash placement, this is
+     * the hash of the key. With the order preserving placement, this is the first
+     * M bits of its UTF-8 bytes, so that a key never comes before a smaller key;
+     * keys sharing those bits share a position, and a node.
+     * 
+     * @param key The key.
+     * @return The ID of the key.
+     */
+    public static int keyId(String key) {
+        if (!ORDERED) {
+            return hash(key);
+        }
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        long position = 0;
+        for (int i = 0; i < 8; i++) {
+            position = (position << 8) | (i < bytes.length ? bytes[i] & 0xFF : 0);
+        }
+        return (int) (position >>> (64 - Finger_Table.M));
+    }
+
+    /**
+     * Creates a reference to another node from its information, "ip|port|id".
+     * Without an ID, as sent by older nodes, the ID is the hash of the address.
+     * 
+     * @param info The information of the node.
+     * @return The reference to the node.
+     */
+    public static Peer peer(String info) {
+        return Peer.of(info);
+    }
+
+    /**
+     * Creates a reference to another node whose ID is known.
+     * 
+     * @param ip   The IP address of the node.
+     * @param port The port of the node.
+     * @param id   The ID of the node.
+     * @return The reference to the node.
+     */
+    public static Peer peer(String ip, int port, int id) {
+        return Peer.of(ip, port, id);
+    }
+
+    /**
+     * Returns the reference to this node, as its successor or predecessor when it
+     * is alone in the ring.
+     * 
+     * @return The reference, with the current ID of the node.
+     */
+    public Peer self() {
+        return Peer.of(this.ip, this.port, this.id);
+    }
+
+    /**
+     * Checks whether a reference is to this node, whatever the ID it was taken
+     * with.
+     * 
+     * @param peer The reference, or null.
+     * @return True if the reference has the address of this node.
+     */
+    public boolean isSelf(Peer peer) {
+        return peer != null && peer.port == this.port && peer.ip.equals(this.ip);
+    }
+
+    /**
+     * Returns the current neighbors of the node. Code reading both neighbors, or
+     * one of them several times, reads them from one state so that they belong
+     * together.
+     * 
+     * @return The state, with no neighbors before the node joined a ring.
+     */
+    public Ring_State getRing() {
+        return this.ring.get();
+    }
+
+    /**
+     * Returns the current successor.
+     * 
+     * @return The successor, or null before the node joined a ring.
+     */
+    public Peer successor() {
+        return this.ring.get().successor;
+    }
+
+    /**
+     * Returns the current predecessor.
+     * 
+     * @return The predecessor, or null if not known.
+     */
+    public Peer predecessor() {
+        return this.ring.get().predecessor;
+    }
+
+    /**
+     * Replaces the successor, whatever the neighbors are, and makes it the first
+     * finger.
+     * 
+     * @param successor The new successor.
+     */
+    public void setSuccessor(Peer successor) {
+        this.followSuccessor(this.ring.updateAndGet(state -> state.withSuccessor(successor)).successor);
+    }
+
+    /**
+     * Replaces the predecessor, whatever the neighbors are.
+     * 
+     * @param predecessor The new predecessor, or null.
+     */
+    public void setPredecessor(Peer predecessor) {
+        this.ring.updateAndGet(state -> state.withPredecessor(predecessor));
+    }
+
+    /**
+     * Replaces both neighbors at once, as when the node creates or joins a ring.
+     * 
+     * @param predecessor The new predecessor, or null.
+     * @param successor   The new successor.
+     */
+    public void setNeighbors(Peer predecessor, Peer successor) {
+        this.followSuccessor(this.ring.updateAndGet(state -> state.with(predecessor, successor)).successor);
+    }
+
+    /**
+     * Replaces the neighbors if they are still those of the given state, so that a
+     * change decided on neighbors which have changed since is dropped. The first
+     * finger follows the successor.
+     * 
+     * @param expected The state the change was decided on.
+     * @param next     The new state, from one of the "with" methods of expected.
+     * @return True if the neighbors were replaced.
+     */
+    public boolean updateRing(Ring_State expected, Ring_State next) {
+        if (!this.ring.compareAndSet(expected, next)) {
+            return false;
+        }
+        if (next.successor != null && next.successor != expected.successor) {
+            this.followSuccessor(next.successor);
+        }
+        return true;
+    }
+
+    /**
+     * Makes the first finger the successor just written. Two threads changing the
+     * successor may set the finger in the other order than the state, so the
+     * finger is set again until the state still has the successor it was set to:
+     * whichever thread sets the finger last then sets the current successor.
+     * 
+     * @param successor The successor of the state just written.
+     */
+    private void followSuccessor(Peer successor) {
+        while (successor != null) {
+            this.fingerTable.setNode(0, successor);
+            Peer current = this.ring.get().successor;
+            if (current == successor) {
+                return;
+            }
+            successor = current;
+        }
+    }
+
+    /**
+     * Returns the information of the node as sent to other nodes, "ip|port|id".
+     * The ID is sent along since a node may have moved away from the hash of its
+     * address.
+     * 
+     * @return The information of the node.
+     */
+    public String describe() {
+        return this.nodeInfo + "|" + this.id;
+    }
+
     /**
      * Processes the incoming request message and performs the corresponding
-     * operation.
+     * operation, counting the requests in progress.
      * 
      * @param message The incoming request message.
      * @return The result of the operation.
      */
     public String processRequest(String message) {
+        // Answering nothing once the node left, as if it were stopped
+        if (this.left) {
+            return "";
+        }
+        this.inFlight.incrementAndGet();
+        try {
+            // Unwrapping a request from a node which accepts compression
+            if (message.startsWith(Message_Codec.ACCEPT) || message.startsWith(Message_Codec.COMPRESSED)) {
+                return this.processCompressedRequest(message);
+            }
+            return this.handleRequest(message);
+        } finally {
+            this.inFlight.decrementAndGet();
+        }
+    }
+
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * Performs the operation of a plain request message.
+     * 
+     * @param message The incoming request message, without codec marker.
+     * @return The result of the operation.
+     */
+    private String handleRequest(String message) {
         // Splitting the message to extract operation and arguments
         String[] parts = message.split("\\|");
         // Extracting the operation from the message
@@ -429,6 +1458,9 @@ public class Node {
         }
 
         String result = "Done";
+        // Extracting the optional trace id of the request
+        String traceId = Lookup_Trace.getTraceId(args);
+        long start = System.nanoTime();
 
         // Switch case to handle different operations based on the message
         switch (operation) {
@@ -437,23 +1469,155 @@ public class Node {
                 String[] data = parts[1].split(":"); // Splitting data into key-value pair
                 String key = data[0]; // Extracting key
                 String value = data[1]; // Extracting value
-                this.dataStore.insert(key, value); // Inserting key-value pair into data store
-                result = "Inserted";
+                if ((result = this.checkOwner(args, key, 1)) != null) { // Rejecting a client with a stale topology
+                    break;
+                }
+                if (this.leaving) { // Refusing writes once the keys are being handed over
+                    result = Lookup_Trace.addHop("Error: node leaving", traceId, this.id, start);
+                    break;
+                }
+                this.hotCache.invalidate(key); // Dropping the copy cached by this node, if any
+                if (this.pendingDonor != null) { // Keeping this write over the pair still to come
+                    this.touchedDuringMove.add(key);
+                }
+                // Inserting key-value pair into data store, expiring with the optional TTL,
+                // unless it does not fit in the memory budget
+                long insertTtl = Data_Store.parseTtl(args);
+                if (!this.dataStore.insert(key, value, insertTtl)) {
+                    result = Lookup_Trace.addHop("Error: memory budget of the node reached", traceId, this.id,
+                            start);
+                    break;
+                }
+                // Copying the write to the replica on the successor, if replicas are kept
+                this.replicateInsert(key, value, insertTtl, this.dataStore.getVersion(key));
+                result = Lookup_Trace.addHop("Inserted", traceId, this.id, start);
+                break;
+
+            case "CAS_Server": // If the operation is to insert data in the server if its version is unchanged
+                String casKey = parts[1]; // Extracting key
+                long expectedVersion = Long.parseLong(parts[2]); // Extracting the version read by the client
+                String casValue = parts[3]; // Extracting value
+                if ((result = this.checkOwner(args, casKey, 3)) != null) { // Rejecting a client with a stale topology
+                    break;
+                }
+                if (this.leaving) { // Refusing writes once the keys are being handed over
+                    result = Lookup_Trace.addHop("Error: node leaving", traceId, this.id, start);
+                    break;
+                }
+                this.hotCache.invalidate(casKey); // Dropping the copy cached by this node, if any
+                this.pullPending(casKey); // Comparing with the pair still to come, if any
+                long casTtl = Data_Store.parseTtl(args);
+                long newVersion = this.dataStore.compareAndSet(casKey, expectedVersion, casValue, casTtl);
+                if (newVersion == 0) {
+                    result = Lookup_Trace.addHop("Error: memory budget of the node reached", traceId, this.id,
+                            start);
+                } else if (newVersion < 0) {
+                    result = Lookup_Trace.addHop("Conflict" + Data_Store.VERSION_ANNOTATION
+                            + this.dataStore.getVersion(casKey), traceId, this.id, start);
+                } else {
+                    // Copying the write to the replica on the successor, if replicas are kept
+                    this.replicateInsert(casKey, casValue, casTtl, newVersion);
+                    result = Lookup_Trace.addHop("Stored" + Data_Store.VERSION_ANNOTATION + newVersion, traceId,
+                            this.id, start);
+                }
+                break;
+
+            case "Increment_Server": // If the operation is to add to a number in the server
+            case "Append_Server": // If the operation is to append to a list in the server
+                String updateKey = parts[1]; // Extracting key
+                if ((result = this.checkOwner(args, updateKey, 2)) != null) { // Rejecting a client with a stale topology
+                    break;
+                }
+                if (this.leaving) { // Refusing writes once the keys are being handed over
+                    result = Lookup_Trace.addHop("Error: node leaving", traceId, this.id, start);
+                    break;
+                }
+                this.hotCache.invalidate(updateKey); // Dropping the copy cached by this node, if any
+                this.pullPending(updateKey); // Updating the pair still to come, if any
+                if (operation.equals("Increment_Server") && !parts[2].matches("-?\\d{1,18}")) {
+                    result = Lookup_Trace.addHop("Error: delta is not a number", traceId, this.id, start);
+                    break;
+                }
+                String updated;
+                try {
+                    // Reading, updating and writing the value under the lock of the store
+                    updated = operation.equals("Increment_Server")
+                            ? this.dataStore.increment(updateKey, Long.parseLong(parts[2]), Data_Store.parseTtl(args))
+                            : this.dataStore.append(updateKey, parts[2], Data_Store.parseTtl(args));
+                } catch (NumberFormatException e) {
+                    result = Lookup_Trace.addHop("Error: value is not a number", traceId, this.id, start);
+                    break;
+                } catch (ArithmeticException e) {
+                    result = Lookup_Trace.addHop("Error: number overflow", traceId, this.id, start);
+                    break;
+                }
+                if (updated == null) {
+                    result = Lookup_Trace.addHop("Error: memory budget of the node reached", traceId, this.id,
+                            start);
+                    break;
+                }
+                // Copying the write to the replica on the successor, if replicas are kept
+                this.replicateInsert(updateKey, updated, this.dataStore.getTtl(updateKey),
+                        this.dataStore.getVersion(updateKey));
+                // Answering the new number, or the new number of elements of the list
+                result = Lookup_Trace.addHop(operation.equals("Increment_Server") ? updated
+                        : Integer.toString(Data_Store.countElements(updated)), traceId, this.id, start);
                 break;
 
             case "Delete_Server": // If the operation is to delete data from the server
                 String dataToDelete = parts[1]; // Extracting data to delete
+                if ((result = this.checkOwner(args, dataToDelete, 1)) != null) { // Rejecting a client with a stale topology
+                    break;
+                }
+                if (this.leaving) { // Refusing writes once the keys are being handed over
+                    result = Lookup_Trace.addHop("Error: node leaving", traceId, this.id, start);
+                    break;
+                }
+                this.hotCache.invalidate(dataToDelete); // Dropping the copy cached by this node, if any
+                if (this.pendingDonor != null) { // Keeping this delete over the pair still to come
+                    this.touchedDuringMove.add(dataToDelete);
+                }
                 this.dataStore.delete(dataToDelete); // Deleting data from data store
-                result = "Deleted";
+                this.replicate("Replica_Delete|" + dataToDelete);
+                result = Lookup_Trace.addHop("Deleted", traceId, this.id, start);
                 break;
 
             case "Search_Server": // If the operation is to search data in the server
                 String searchData = parts[1]; // Extracting data to search
-                if (this.dataStore.data.containsKey(searchData)) { // Checking if data exists in data store
-                    return dataStore.data.get(searchData); // Returning data if found
+                if ((result = this.checkOwner(args, searchData, 1)) != null) { // Rejecting a client with a stale topology
+                    break;
+                }
+                int reads = this.readSketch.add(searchData); // Counting the read to detect hot keys
+                boolean versioned = hasOption(args, 1, Data_Store.VERSION_OPTION);
+                // Reading the value with its version if asked, in which case it is not leased,
+                // unless the filter tells the key is not stored
+                String found = null;
+                if (!this.dataStore.mightContain(searchData)) {
+                    this.filteredMisses.incrementAndGet();
                 } else {
-                    return "NOT FOUND";
+                    found = versioned ? this.dataStore.getVersioned(searchData) : this.dataStore.get(searchData);
+                }
+                if (found != null) { // Checking if data exists in data store
+                    // Granting a lease on a hot value to the node asking, so it can cache it
+                    // The lease ends with the value if it expires first
+                    if (!versioned && reads >= this.hotThreshold && hasOption(args, 1, Hot_Cache.OPTION)) {
+                        long ttl = this.dataStore.getTtl(searchData);
+                        found += Hot_Cache.ANNOTATION + (ttl > 0 ? Math.min(ttl, this.hotLeaseMillis)
+                                : this.hotLeaseMillis);
+                    }
+                    // Returning data if found
+                    return Lookup_Trace.addHop(found, traceId, this.id, start);
+                }
+                // Reading a pair not moved here yet from the node moving it
+                Peer donor = this.pendingDonor;
+                if (donor != null && !this.touchedDuringMove.contains(searchData)) {
+                    String moving = Lookup_Trace.strip(this.requestHandler.sendMessage(donor,
+                            "Search_Server|" + searchData + (versioned ? "|" + Data_Store.VERSION_OPTION : "")));
+                    if (!moving.isEmpty()) {
+                        return Lookup_Trace.addHop(moving, traceId, this.id, start);
+                    }
                 }
+                return Lookup_Trace.addHop("NOT FOUND", traceId, this.id, start);
 
             case "Send_Keys": // If the operation is to send keys to a joining node
                 int idOfJoiningNode = Integer.parseInt(args[0]); // Extracting joining node's ID
@@ -464,17 +1628,33 @@ public class Node {
                 String[] insertData = parts[1].split(":"); // Splitting data into key-value pair
                 String insertKey = insertData[0]; // Extracting key
                 String insertValue = insertData[1]; // Extracting value
-                result = this.insertKey(insertKey, insertValue);
+                result = this.insertKey(insertKey, insertValue, Data_Store.parseTtl(args), traceId);
                 break;
 
             case "Delete": // If the operation is to delete data
                 String deleteKey = parts[1]; // Extracting key to delete
-                result = this.deleteKey(deleteKey);
+                result = this.deleteKey(deleteKey, traceId);
                 break;
 
             case "Search": // If the operation is to search data
                 String searchKey = parts[1]; // Extracting key to search
-                result = this.searchKey(searchKey);
+                // Answering "value|version=<version>" if the client asked for the version
+                result = this.searchKey(searchKey, traceId, hasOption(args, 1, Data_Store.VERSION_OPTION));
+                break;
+
+            case "CAS": // If the operation is to insert data if its version is unchanged
+                result = this.compareAndSet(parts[1], Long.parseLong(parts[2]), parts[3], Data_Store.parseTtl(args),
+                        traceId);
+                break;
+
+            case "Increment": // If the operation is to add to a number
+                result = this.sendToOwner("Increment", parts[1], "Increment_Server|" + parts[1] + "|" + parts[2]
+                        + ttlOption(args), traceId);
+                break;
+
+            case "Append": // If the operation is to append to a list
+                result = this.sendToOwner("Append", parts[1], "Append_Server|" + parts[1] + "|" + parts[2]
+                        + ttlOption(args), traceId);
                 break;
 
             case "Join_Request": // If the operation is a join request from another node
@@ -484,12 +1664,31 @@ public class Node {
 
             case "Find_Predecessor": // If the operation is to find predecessor node
                 int searchID = Integer.parseInt(args[0]); // Extracting ID to search
-                result = this.findPredecessor(searchID);
+                result = this.findPredecessor(searchID, traceId);
                 break;
 
             case "Find_Successor": // If the operation is to find successor node
                 searchID = Integer.parseInt(args[0]); // Extracting ID to search
-                result = this.findSuccessor(searchID);
+                result = this.findSuccessor(searchID, traceId);
+                break;
+
+            case "Route": // If the operation is a hop of an asynchronous lookup
+                String hops = "";
+                for (String arg : args) {
+                    if (arg.startsWith(HOPS_OPTION)) {
+                        hops = arg.substring(HOPS_OPTION.length());
+                    }
+                }
+                this.routeHop(Integer.parseInt(args[0]), Long.parseLong(args[1]),
+                        Node.peer(args[2] + "|" + args[3] + "|" + args[4]), traceId, hops);
+                result = "Routed";
+                break;
+
+            case "Route_Reply": // If the operation is the answer to a lookup started by this node
+                CompletableFuture<String> route = this.pendingRoutes.remove(Long.parseLong(args[0]));
+                if (route != null) { // Dropping an answer which came after the timeout
+                    route.complete(String.join("|", Arrays.copyOfRange(args, 1, args.length)));
+                }
                 break;
 
             case "Get_Successor": // If the operation is to get successor node
@@ -509,11 +1708,134 @@ public class Node {
                 break;
 
             case "Get_Data_Store": // If the operation is to get data store of the node (using GUI)
-                result = this.dataStore.data.toString();
+                result = this.dataStore.toString();
+                break;
+
+            case "Get_Traces": // If the operation is to get the recent lookup traces of the node (using GUI)
+                result = this.traceBuffer.dump();
+                break;
+
+            case "Scan": // If the operation is to read a key range through the ring, in key order
+                result = this.scan(args[0], args[1], Integer.parseInt(args[2]));
+                break;
+
+            case "Scan_Server": // If the operation is to read a key range from this node only
+                result = this.scanLocal(args[0], args[1], Integer.parseInt(args[2]));
+                break;
+
+            case "Get_Load": // If the operation is to get the number of keys and their median ID
+                result = this.getLoad();
+                break;
+
+            case "Hand_Over": // If the operation is a predecessor moving forward to take keys
+                result = this.handOver(Integer.parseInt(args[0]), args[1], Integer.parseInt(args[2]));
+                break;
+
+            case "Leave": // If the operation is to leave the ring gracefully
+                result = this.leave();
+                break;
+
+            case "Take_Keys": // If the operation is another node moving keys to this node
+                if (this.inFlight.get() > REBALANCE_BUSY) { // Holding the move back while busy with requests
+                    result = "Busy";
+                    break;
+                }
+                this.storePairs(message.substring(message.indexOf('|') + 1));
+                result = "Taken";
+                break;
+
+            case "Request_Keys": // If the operation is a joining node asking for the keys of its range
+                result = this.requestKeys(Integer.parseInt(args[0]), args[1], Integer.parseInt(args[2]));
+                break;
+
+            case "Keys_Moved": // If the operation is the successor done moving keys to this node
+                this.pendingDonor = null;
+                this.touchedDuringMove.clear();
+                break;
+
+            case "Replica_Insert": // If the operation is the predecessor copying a write to its replica
+                if (this.replicaStore != null) {
+                    String[] replicaData = parts[1].split(":");
+                    this.replicaStore.restore(replicaData[0], replicaData[1], Data_Store.parseTtl(args),
+                            Data_Store.parseVersion(message));
+                }
+                break;
+
+            case "Replica_Delete": // If the operation is the predecessor copying a delete to its replica
+                if (this.replicaStore != null) {
+                    this.replicaStore.delete(args[0]);
+                }
+                break;
+
+            case "Get_Bloom": // If the operation is to get the Bloom filter of the keys, for a client
+                result = this.dataStore.getFilter().encode();
+                break;
+
+            case "Get_Merkle": // If the operation is to get hashes of the Merkle tree of the replicas
+                result = this.getReplicaHashes(args[0]);
+                break;
+
+            case "Replica_Sync": // If the operation is the predecessor replacing buckets of the replicas
+                result = this.syncReplicaBuckets(args[0], message.substring(message.indexOf('|', message.indexOf('|') + 1) + 1));
+                break;
+
+            case "Promote_Replicas": // If the operation is to take over the replicas of a failed predecessor
+                result = "Promoted|" + this.promoteReplicas();
+                break;
+
+            case "Rebalance_Pause": // If the operation is to pause the moves of keys
+                this.rebalancer.pause();
+                result = this.rebalancer.getProgress();
+                break;
+
+            case "Rebalance_Resume": // If the operation is to resume the moves of keys
+                this.rebalancer.resume();
+                result = this.rebalancer.getProgress();
+                break;
+
+            case "Get_Rebalance": // If the operation is to get the progress of the moves of keys
+                result = this.rebalancer.getProgress();
+                break;
+
+            case "Set_Predecessor": // If the operation is the leaving predecessor linking its own predecessor
+                this.setPredecessor(args[0].equals("None") ? null
+                        : Node.peer(args[0] + "|" + args[1] + (args.length > 2 ? "|" + args[2] : "")));
+                break;
+
+            case "Set_Successor": // If the operation is the leaving successor linking its own successor
+                this.setSuccessor(Node.peer(args[0] + "|" + args[1] + (args.length > 2 ? "|" + args[2] : "")));
+                break;
+
+            case "Replace_Node": // If the operation is to replace a node which left in the fingers
+                result = this.replaceNode(args[0] + "|" + args[1], args[2] + "|" + args[3] + "|" + args[4]);
+                break;
+
+            case "Get_Metrics": // If the operation is to get the counters of the node as "name=value" pairs
+                result = this.getMetrics();
+                break;
+
+            case "Get_Hot_Cache": // If the operation is to get the statistics of the cache of hot values
+                result = this.hotCache.getStats();
+                break;
+
+            case "Delete_Blob": // If the operation is to delete a large value stored on this node
+                if (!this.isResponsible(keyId(args[0]))) {
+                    result = "NOT_OWNER|" + this.getPredecessor();
+                    break;
+                }
+                try {
+                    result = this.blobStore.delete(args[0]) ? "Deleted" : "NOT FOUND";
+                } catch (IOException e) {
+                    result = "Error deleting blob: " + e.getMessage();
+                }
                 break;
 
             case "Get_Info":
-                result =  this.ip + "/" + String.valueOf(this.port) + "/" + String.valueOf(this.id) + "/" + String.valueOf(this.predecessor.id) + "/" + String.valueOf(this.successor.id);
+                // Both neighbors from one state, "None" for one not known yet
+                Ring_State state = this.getRing();
+                result = this.ip + "/" + this.port + "/" + this.id + "/"
+                        + (state.predecessor == null ? "None" : state.predecessor.getId()) + "/"
+                        + (state.successor == null ? "None" : state.successor.getId());
                 break;
 
             case "Notify": // If the operation is to notify a node
@@ -521,6 +1843,7 @@ public class Node {
                 String nodeIP = args[1]; // Extracting IP of the node to notify
                 int nodePort = Integer.parseInt(args[2]); // Extracting port of the node to notify
                 this.notify(nodeID, nodeIP, nodePort); // Notifying the node
+                result = String.valueOf(this.id); // Answering with the ID, which may have changed
                 break;
 
             default:
@@ -530,29 +1853,211 @@ public class Node {
         return result;
     }
 
+    /**
+     * Returns the counters of the node: the number of keys stored, expired and
+     * scheduled to expire, the memory and eviction counters of the store, the
+     * misses answered by the Bloom filter, the version of the neighbors, the
+     * requests running, queued and turned away per lane, the replica and repair
+     * counters if replicas are kept, and the compression counters of the messages
+     * ("wire_") and of the stored values ("store_", if values are compressed at
+     * rest).
+     * 
+     * @return The counters as "name=value" pairs separated by commas.
+     */
+    public String getMetrics() {
+        StringBuilder metrics = new StringBuilder();
+        metrics.append("keys=").append(this.dataStore.size());
+        metrics.append(",expired=").append(this.dataStore.getExpired());
+        metrics.append(",expiring=").append(this.dataStore.getScheduled());
+        metrics.append(",").append(this.dataStore.getMetrics());
+        metrics.append(",bloom_misses=").append(this.filteredMisses.get());
+        metrics.append(",ring_version=").append(this.getRing().version);
+        metrics.append(",").append(this.admission.getMetrics());
+        if (this.replicaStore != null) {
+            metrics.append(",replica_keys=").append(this.replicaStore.size());
+            metrics.append(",repair_rounds=").append(this.repairRounds.get());
+            metrics.append(",repair_buckets=").append(this.repairBuckets.get());
+            metrics.append(",repair_keys=").append(this.repairKeys.get());
+        }
+        metrics.append(",").append(this.requestHandler.codec.getMetrics("wire_"));
+        if (this.dataStore.getCodec() != null) {
+            metrics.append(",").append(this.dataStore.getCodec().getMetrics("store_"));
+        }
+        return metrics.toString();
+    }
+
+    /**
+     * Processes a request from a node which accepts compression, either marked as
+     * such or compressed, and compresses the response if it is large. A plain
+     * response is marked in turn, so the sender learns that this node accepts
+     * compressed requests.
+     * 
+     * @param message The incoming request message, starting with a codec marker.
+     * @return The response, compressed or marked if compression is enabled.
+     */
+    public String processCompressedRequest(String message) {
+        Message_Codec codec = this.requestHandler.codec;
+        String request;
+        if (message.startsWith(Message_Codec.ACCEPT)) {
+            request = message.substring(Message_Codec.ACCEPT.length());
+        } else {
+            try {
+                request = codec.decompress(message);
+            } catch (IllegalArgumentException e) {
+                return "Error: " + e.getMessage();
+            }
+        }
+        String response = this.handleRequest(request);
+        if (!codec.isEnabled()) {
+            return response;
+        }
+        String compressed = codec.compress(response);
+        return compressed != response ? compressed : Message_Codec.ACCEPT + response;
+    }
+
+    /**
+     * Checks that this node owns a key when a client sends a "*_Server" request
+     * straight to it with the "direct" argument. Nodes forwarding requests never
+     * set the argument, so their requests are always served.
+     * 
+     * @param args        The arguments of the request.
+     * @param key         The key of the request.
+     * @param firstOption The index of the first argument after the key and the
+     *                    values of the request.
+     * @return Null if the request can be served, otherwise a "NOT_OWNER" response
+     *         carrying the predecessor of this node as a hint for the client.
+     */
+    public String checkOwner(String[] args, String key, int firstOption) {
+        if (!hasOption(args, firstOption, "direct") || this.isResponsible(keyId(key))) {
+            return null;
+        }
+        return "NOT_OWNER|" + this.getPredecessor();
+    }
+
+    /**
+     * Returns whether a request carries an option, looking only at the arguments
+     * after its key and values, so that a key or a value spelled like the option is
+     * not taken for it.
+     * 
+     * @param args        The arguments of the request.
+     * @param firstOption The index of the first argument which may be an option.
+     * @param option      The option.
+     * @return True if the option is among the arguments from firstOption.
+     */
+    public static boolean hasOption(String[] args, int firstOption, String option) {
+        for (int i = firstOption; i < args.length; i++) {
+            if (args[i].equals(option)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether this node is responsible for an ID, that is whether the ID
+     * lies between the predecessor (excluded) and this node (included). A node
+     * without predecessor considers itself responsible.
+     * 
+     * @param searchId The ID to check.
+     * @return True if this node is responsible for the ID.
+     */
+    public boolean isResponsible(int searchId) {
+        Peer predecessor = this.predecessor();
+        if (predecessor == null || predecessor.id == this.id) {
+            return true;
+        }
+        return getForwardDistance2Nodes(predecessor.id, searchId) < getForwardDistance2Nodes(
+                predecessor.id, this.id) || searchId == this.id;
+    }
+
     /**
      * Serves incoming requests from a client socket.
      * 
+     * A connection normally carries a single request. If the first line is
+     * "Keep_Alive", the node answers "OK" and then serves one request per line,
+     * answering in order, until the client closes the connection or sends nothing
+     * for Admission_Control.IDLE_MILLIS. Only requests with a single line response
+     * can be sent on such a connection. Blob requests, which carry raw bytes after
+     * their first line, use a connection of their own.
+     * 
+     * Once the first line is read, the connection counts against the connections
+     * of its lane, keep-alive connections being client connections, and is
+     * answered OVERLOADED if the lane has too many.
+     * 
      * @param conn The socket connection with the client.
      * @param addr The address of the remote socket.
      */
     public void serveRequests(Socket conn, SocketAddress addr) {
+        Admission_Control.Lane connectionLane = null;
         try {
-            // Reading the incoming message as UTF-encoded string
-            @SuppressWarnings("resource")
-            Scanner scanner = new Scanner(conn.getInputStream(), "UTF-8");
-            String data = scanner.nextLine().trim();
-
-            // Processing the request and getting the result
-            String result = this.processRequest(data);
+            // Reading the incoming message as UTF-encoded string, without reading past it.
+            // The lines are read through the stream of the socket, which gives up on a
+            // connection idle for too long, and blobs straight from its channel
+            conn.setSoTimeout(Admission_Control.IDLE_MILLIS);
+            ReadableByteChannel lines = Channels.newChannel(conn.getInputStream());
+            Request_Reader reader = new Request_Reader(lines, conn.getChannel() != null ? conn.getChannel() : lines);
+            String data = reader.readLine();
+            if (data == null) {
+                return;
+            }
+            data = data.trim();
             // Creating a PrintWriter for writing text to the output stream
             PrintWriter writer = new PrintWriter(new OutputStreamWriter(conn.getOutputStream(), "UTF-8"), true);
+            // The client is known by its address, whatever port it connects from
+            String client = addr instanceof InetSocketAddress
+                    ? ((InetSocketAddress) addr).getAddress().getHostAddress()
+                    : String.valueOf(addr);
+
+            // Counting the connection against its lane, so that idle client connections
+            // never take the connections of the ring. Only nodes compress their
+            // requests, and a connection carrying one carries that request alone
+            boolean keepAlive = data.equals("Keep_Alive");
+            Admission_Control.Lane counted = keepAlive ? this.admission.client
+                    : data.startsWith(Message_Codec.COMPRESSED) ? this.admission.ring : this.admission.laneOf(data);
+            if (!this.admission.openConnection(counted)) {
+                writer.println(Admission_Control.OVERLOADED);
+                return;
+            }
+            connectionLane = counted;
+
+            if (keepAlive) {
+                // Serving pipelined requests until the client closes the connection
+                writer.println("OK");
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    writer.println(this.admitRequest(line.trim(), client));
+                }
+                return;
+            }
+            if (data.startsWith("Put_Blob|") || data.startsWith("Get_Blob|")) {
+                String refusal = this.admission.checkRate(data, client);
+                Admission_Control.Lane lane = this.admission.laneOf(data);
+                long arrival = System.nanoTime();
+                if (refusal != null || !lane.enter(client, this.admission.weightOf(client))) {
+                    writer.println(refusal != null ? refusal : Admission_Control.OVERLOADED);
+                    return;
+                }
+                try {
+                    this.serveBlob(data, reader, writer, conn);
+                } finally {
+                    lane.exit(arrival);
+                }
+                return;
+            }
+
+            // Processing the request and getting the result
+            String result = this.admitRequest(data, client);
             // Writing the result to the output stream
             writer.println(result);
+        } catch (SocketTimeoutException e) {
+            // The connection stayed idle for too long and is closed below
         } catch (IOException e) {
             System.err.println("Error occured while serving request: ");
             e.printStackTrace(); // Handling IOException if any
         } finally {
+            if (connectionLane != null) {
+                this.admission.closeConnection(connectionLane);
+            }
             try {
                 conn.close(); // Closing the connection
             } catch (IOException e) {
@@ -562,18 +2067,119 @@ public class Node {
     }
 
     /**
-     * Starts the Chord DHT node by initializing a server socket and continuously
-     * accepting incoming connections.
+     * Processes a request received on a connection once its lane admits it, or
+     * turns it away if its client is over its rate or the lane stays full.
+     * 
+     * @param message The incoming request message.
+     * @param client  The address of the sender.
+     * @return The result of the operation, RATE_LIMITED or OVERLOADED.
+     */
+    private String admitRequest(String message, String client) {
+        // Expanding a compressed request first, so it is limited and queued as its
+        // operation requires; it is then answered as a request accepting compression
+        if (message.startsWith(Message_Codec.COMPRESSED)) {
+            try {
+                message = Message_Codec.ACCEPT + this.requestHandler.codec.decompress(message);
+            } catch (IllegalArgumentException e) {
+                return "Error: " + e.getMessage();
+            }
+        }
+        int separator = message.indexOf('|');
+        String operation = separator < 0 ? message : message.substring(0, separator);
+        if (operation.startsWith(Message_Codec.ACCEPT)) {
+            operation = operation.substring(Message_Codec.ACCEPT.length());
+        }
+        if (!this.admission.isAllowed(operation, client)) {
+            return Admission_Control.NOT_ALLOWED;
+        }
+        String refusal = this.admission.checkRate(message, client);
+        if (refusal != null) {
+            return refusal;
+        }
+        Admission_Control.Lane lane = this.admission.laneOf(message);
+        long arrival = System.nanoTime();
+        if (!lane.enter(client, this.admission.weightOf(client))) {
+            return Admission_Control.OVERLOADED;
+        }
+        try {
+            return this.processRequest(message);
+        } finally {
+            lane.exit(arrival);
+        }
+    }
+
+    /**
+     * Serves a blob request, whose bytes follow the first line on the connection.
+     * 
+     * "Put_Blob|<key>|<length>" is answered "READY" before the client sends the
+     * bytes, then "Stored|<length>" once the blob is complete, or an error if the
+     * blob is longer than Blob_Store.MAX_LENGTH or the disk has no room for it.
+     * "Get_Blob|<key>" is answered "BLOB|<length>" followed by the bytes, or
+     * "NOT FOUND". Both are answered "NOT_OWNER" with the predecessor of this node as a hint when the
+     * node is not responsible for the key.
+     * 
+     * @param request The first line of the request.
+     * @param reader  The reader of the connection.
+     * @param writer  The writer of the connection.
+     * @param conn    The socket connection with the client.
+     * @throws IOException If the connection or the blob file fails.
+     */
+    private void serveBlob(String request, Request_Reader reader, PrintWriter writer, Socket conn)
+            throws IOException {
+        String[] parts = request.split("\\|");
+        String key = parts[1];
+        if (!this.isResponsible(keyId(key))) {
+            writer.println("NOT_OWNER|" + this.getPredecessor());
+            return;
+        }
+        if (parts[0].equals("Put_Blob")) {
+            if (this.leaving || this.left) {
+                writer.println("Error: node leaving");
+                return;
+            }
+            long length = parts.length > 2 ? Long.parseLong(parts[2]) : -1;
+            if (length < 0) {
+                writer.println("Error: missing blob length");
+                return;
+            }
+            if (length > Blob_Store.MAX_LENGTH) {
+                writer.println("Error: blob longer than " + Blob_Store.MAX_LENGTH + " bytes");
+                return;
+            }
+            if (!this.blobStore.reserve(length)) {
+                writer.println("Error: no space left for the blob");
+                return;
+            }
+            try {
+                writer.println("READY");
+                this.blobStore.receive(key, reader, length);
+            } finally {
+                this.blobStore.release(length);
+            }
+            writer.println("Stored|" + length);
+            return;
+        }
+        try (FileChannel file = this.blobStore.open(key)) {
+            if (file == null) {
+                writer.println("NOT FOUND");
+                return;
+            }
+            writer.println("BLOB|" + file.size());
+            Blob_Store.transfer(file,
+                    conn.getChannel() != null ? conn.getChannel() : Channels.newChannel(conn.getOutputStream()));
+        }
+    }
+
+    /**
+     * Starts the Chord DHT node and serves incoming requests through the transport
+     * of the node.
      * 
      * The method starts two separate threads:
      * 1. One thread for stabilizing the node periodically.
      * 2. Another thread for fixing the fingers of the node.
      */
     public void start() {
-        // Create a server socket bound to the specific address and port
-        try (ServerSocket serverSocket = new ServerSocket(nodeInfo.port, 50, InetAddress.getByName(nodeInfo.ip))) {
-
-            serverSocket.setReuseAddress(true);
+        try {
             // Starting a new thread for stabilizing the node
             Thread threadForStabilize = new Thread(() -> stabilize());
             threadForStabilize.start();
@@ -582,24 +2188,45 @@ public class Node {
             Thread threadForFixFinger = new Thread(() -> fixFingers());
             threadForFixFinger.start();
 
-            // Continuously accepting incoming connections
-            while (true) {
-                // Accepting a new connection from the server socket
-                Socket socket = serverSocket.accept();
-
-                // Getting the address of the remote socket
-                SocketAddress addr = socket.getRemoteSocketAddress();
+            // Starting a new thread for expiring the keys whose time to live is over
+            Thread threadForExpiry = new Thread(() -> expireKeys());
+            threadForExpiry.setDaemon(true);
+            threadForExpiry.start();
 
-                // Starting a new thread to serve the incoming request
-                Thread t = new Thread(() -> serveRequests(socket, addr));
-                t.start();
+            // Starting a new thread for repairing the replicas on the successor
+            if (this.replicaStore != null) {
+                Thread threadForAntiEntropy = new Thread(() -> antiEntropy());
+                threadForAntiEntropy.setDaemon(true);
+                threadForAntiEntropy.start();
             }
+
+            // Serving incoming requests until the transport stops
+            this.requestHandler.listen(this);
         } catch (IOException e) {
             // Handling IOException if any
             e.printStackTrace();
         }
     }
 
+    /**
+     * Periodically deletes the keys whose time to live is over, advancing the timer
+     * wheel of the data store once per tick.
+     */
+    public void expireKeys() {
+        long tick = Long.getLong("chord.ttl.tick", Timer_Wheel.DEFAULT_TICK_MILLIS);
+        while (!this.left) {
+            try {
+                Thread.sleep(tick);
+            } catch (InterruptedException e) {
+                return;
+            }
+            this.dataStore.expireDue(System.currentTimeMillis());
+            if (this.replicaStore != null) {
+                this.replicaStore.expireDue(System.currentTimeMillis());
+            }
+        }
+    }
+
     /**
      * Inserts a key-value pair into the Chord DHT network.
      * 
@@ -608,12 +2235,46 @@ public class Node {
      * @return A message indicating the result of the insertion operation.
      */
     public String insertKey(String key, String value) {
+        return insertKey(key, value, null);
+    }
+
+    /**
+     * Inserts a key-value pair into the Chord DHT network, tracing the lookup path
+     * if requested or sampled.
+     * 
+     * @param key     The key to insert.
+     * @param value   The corresponding value to insert.
+     * @param traceId The trace id given by the client, or null.
+     * @return A message indicating the result of the insertion operation.
+     */
+    public String insertKey(String key, String value, String traceId) {
+        return insertKey(key, value, 0, traceId);
+    }
+
+    /**
+     * Inserts a key-value pair into the Chord DHT network, which expires after the
+     * given time on its owner.
+     * 
+     * @param key       The key to insert.
+     * @param value     The corresponding value to insert.
+     * @param ttlMillis The time after which the key expires, or 0 to keep it.
+     * @param traceId   The trace id given by the client, or null.
+     * @return A message indicating the result of the insertion operation.
+     */
+    public String insertKey(String key, String value, long ttlMillis, String traceId) {
+        long start = System.nanoTime();
+        boolean sampled = traceId == null && Lookup_Trace.sample(this.traceSampleRate);
+        if (sampled) {
+            traceId = Lookup_Trace.newTraceId();
+        }
+        // Stop serving a copy this node may have cached, so the client reads its write
+        this.hotCache.invalidate(key);
         try {
             // Calculate the hash value of the key
-            int idOfKey = this.hash(key);
+            int idOfKey = keyId(key);
 
             // Find the successor node responsible for the key's hash value
-            String succ = this.findSuccessor(idOfKey);
+            String succ = this.findSuccessor(idOfKey, traceId);
 
             // Extract IP address and port number of the successor node
             String[] ipPort = this.getIpPort(succ);
@@ -625,17 +2286,112 @@ public class Node {
             int port = Integer.parseInt(ipPort[1]);
 
             // Send a message to the successor node to insert the key-value pair
-            this.requestHandler.sendMessage(ip, port, "Insert_Server|" + key + ":" + value);
+            String data = this.requestHandler.sendMessage(ip, port,
+                    "Insert_Server|" + key + ":" + value + (ttlMillis > 0 ? "|" + Data_Store.TTL_OPTION + ttlMillis : "")
+                            + Lookup_Trace.option(traceId));
 
+            // Return the refusal of the owner, such as a full memory budget
+            if (data.startsWith("Error")) {
+                return finishTrace("Insert", key, Lookup_Trace.strip(data), succ, data, traceId, sampled, start);
+            }
             // Return a message indicating successful insertion
-            return "Inserted at node id " + new Node(ip, port).id + " key was " + key + " key hash was " + idOfKey;
+            String result = "Inserted at node id " + Node.peer(succ).id + " key was " + key + " key hash was "
+                    + idOfKey;
+            return finishTrace("Insert", key, result, succ, data, traceId, sampled, start);
         } catch (NumberFormatException e) {
             // Handle any number format exceptions (e.g., parsing port number)
             e.printStackTrace();
             return "Error inserting key: " + e.getMessage();
         } catch (RuntimeException e) {
             e.printStackTrace();
-            return "Error inserting key: " + e.getMessage();
+            return "Error inserting key: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Inserts a key-value pair into the Chord DHT network if the key still has the
+     * version the client read. The owner compares and writes in one step, so of
+     * two clients updating the same version only one succeeds.
+     * 
+     * @param key             The key to insert.
+     * @param expectedVersion The version read by the client, or 0 if the key must
+     *                        not exist yet.
+     * @param value           The corresponding value to insert.
+     * @param ttlMillis       The time after which the key expires, or 0 to keep it.
+     * @param traceId         The trace id given by the client, or null.
+     * @return "Stored|version=<new version>", "Conflict|version=<current version>"
+     *         or an error.
+     */
+    public String compareAndSet(String key, long expectedVersion, String value, long ttlMillis, String traceId) {
+        // Send the conditional write to the owner, which answers with the version
+        return sendToOwner("CAS", key, "CAS_Server|" + key + "|" + expectedVersion + "|" + value
+                + (ttlMillis > 0 ? "|" + Data_Store.TTL_OPTION + ttlMillis : ""), traceId);
+    }
+
+    /**
+     * Sends a write to the owner of a key, found with a single lookup, and returns
+     * its answer.
+     * 
+     * @param operation The client operation, for the trace.
+     * @param key       The key of the operation.
+     * @param request   The "*_Server" request for the owner, without trace.
+     * @param traceId   The trace id given by the client, or null.
+     * @return The answer of the owner, or an error.
+     */
+    public String sendToOwner(String operation, String key, String request, String traceId) {
+        long start = System.nanoTime();
+        boolean sampled = traceId == null && Lookup_Trace.sample(this.traceSampleRate);
+        if (sampled) {
+            traceId = Lookup_Trace.newTraceId();
+        }
+        // Stop serving a copy this node may have cached, so the client reads its write
+        this.hotCache.invalidate(key);
+        try {
+            // Find the successor node responsible for the key
+            String succ = this.findSuccessor(keyId(key), traceId);
+            String[] ipPort = this.getIpPort(succ);
+            // Error Handling for invalid ip and port
+            if (ipPort == null || ipPort.length < 2) {
+                throw new RuntimeException("Invalid Port information received");
+            }
+            String data = this.requestHandler.sendMessage(ipPort[0], Integer.parseInt(ipPort[1]),
+                    request + Lookup_Trace.option(traceId));
+            return finishTrace(operation, key, Lookup_Trace.strip(data), succ, data, traceId, sampled, start);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return "Error updating key: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Returns the time to live argument of a request, to pass it on.
+     * 
+     * @param args The arguments of the request.
+     * @return "|ttl=<ms>", or an empty string if none is given.
+     */
+    private static String ttlOption(String[] args) {
+        long ttl = Data_Store.parseTtl(args);
+        return ttl > 0 ? "|" + Data_Store.TTL_OPTION + ttl : "";
+    }
+
+    /**
+     * Copies to this node the pair of a key still to be moved here by a joining
+     * or leaving neighbor, before a write which depends on its current value. The
+     * key then counts as written, so the pair moved later does not replace it.
+     * 
+     * @param key The key about to be written.
+     */
+    private void pullPending(String key) {
+        Peer donor = this.pendingDonor;
+        if (donor == null || !this.touchedDuringMove.add(key) || this.dataStore.containsKey(key)) {
+            return;
+        }
+        String moving = Lookup_Trace.strip(this.requestHandler.sendMessage(donor,
+                "Search_Server|" + key + "|" + Data_Store.VERSION_OPTION));
+        long version = Data_Store.parseVersion(moving);
+        if (version > 0) {
+            this.dataStore.restore(key, moving.substring(0, moving.lastIndexOf(Data_Store.VERSION_ANNOTATION)), 0,
+                    version);
         }
     }
 
@@ -646,10 +2402,29 @@ public class Node {
      * @return A message indicating the success of the deletion.
      */
     public String deleteKey(String key) {
+        return deleteKey(key, null);
+    }
+
+    /**
+     * Deletes the key from the DHT, tracing the lookup path if requested or
+     * sampled.
+     * 
+     * @param key     The key to be deleted.
+     * @param traceId The trace id given by the client, or null.
+     * @return A message indicating the success of the deletion.
+     */
+    public String deleteKey(String key, String traceId) {
+        long start = System.nanoTime();
+        boolean sampled = traceId == null && Lookup_Trace.sample(this.traceSampleRate);
+        if (sampled) {
+            traceId = Lookup_Trace.newTraceId();
+        }
+        // Stop serving a copy this node may have cached, so the client reads its write
+        this.hotCache.invalidate(key);
         try {// Calculate the hash value of the key
-            int idOfKey = hash(key);
+            int idOfKey = keyId(key);
             // Find the successor node responsible for the key
-            String succ = findSuccessor(idOfKey);
+            String succ = findSuccessor(idOfKey, traceId);
             // Get the IP address and port of the successor node
             String[] ipPort = getIpPort(succ);
             // Error Handling for invalid ip and port
@@ -657,10 +2432,12 @@ public class Node {
                 throw new RuntimeException("Invalid Port information received");
             }
             // Send a delete request to the successor node
-            requestHandler.sendMessage(ipPort[0], Integer.parseInt(ipPort[1]), "Delete_Server|" + key);
+            String data = requestHandler.sendMessage(ipPort[0], Integer.parseInt(ipPort[1]),
+                    "Delete_Server|" + key + Lookup_Trace.option(traceId));
             // Return a message confirming the deletion
-            return "deleted at node id " + (new Node(ipPort[0], Integer.parseInt(ipPort[1]))).id + " key was " + key
-                    + " key hash was " + idOfKey;
+            String result = "deleted at node id " + Node.peer(succ).id
+                    + " key was " + key + " key hash was " + idOfKey;
+            return finishTrace("Delete", key, result, succ, data, traceId, sampled, start);
         } catch (RuntimeException e) {
             e.printStackTrace();
             return "Error inserting key: " + e.getMessage();
@@ -675,26 +2452,111 @@ public class Node {
      *         key was not found.
      */
     public String searchKey(String key) {
+        return searchKey(key, null);
+    }
+
+    /**
+     * Searches for the value corresponding to the given key in the DHT, tracing the
+     * lookup path if requested or sampled.
+     * 
+     * A hot key is answered from the cache of this node while the lease granted by
+     * its owner is valid, without any lookup. Otherwise the owner is asked for the
+     * value and for a lease, which it grants once the key is hot.
+     * 
+     * @param key     The key to be searched.
+     * @param traceId The trace id given by the client, or null.
+     * @return The value associated with the key, or a message indicating that the
+     *         key was not found, annotated with the trace if the client asked for
+     *         one.
+     */
+    public String searchKey(String key, String traceId) {
+        return searchKey(key, traceId, false);
+    }
+
+    /**
+     * Searches for the value corresponding to the given key in the DHT, with its
+     * version if asked. A versioned read always asks the owner, as cached copies
+     * carry no version.
+     * 
+     * @param key         The key to be searched.
+     * @param traceId     The trace id given by the client, or null.
+     * @param withVersion True to answer "value|version=<version>".
+     * @return The value associated with the key, or a message indicating that the
+     *         key was not found, annotated with the trace if the client asked for
+     *         one.
+     */
+    public String searchKey(String key, String traceId, boolean withVersion) {
+        long start = System.nanoTime();
+        boolean sampled = traceId == null && Lookup_Trace.sample(this.traceSampleRate);
+        if (sampled) {
+            traceId = Lookup_Trace.newTraceId();
+        }
+        // Answer from the cache if the key is hot and its lease still valid
+        String cached = withVersion ? null : this.hotCache.get(key, this.requestHandler.transport.nanoTime());
+        if (cached != null) {
+            return finishTrace("Search", key, cached, "", "", traceId, sampled, start);
+        }
         try {// Calculate the hash value of the key
-            int idOfKey = hash(key);
+            int idOfKey = keyId(key);
             // Find the successor node responsible for the key
-            String succ = findSuccessor(idOfKey);
+            String succ = findSuccessor(idOfKey, traceId);
             // Get the IP address and port of the successor node
             String[] ipPort = getIpPort(succ);
             // Error Handling for invalid ip and port
             if (ipPort == null || ipPort.length < 2 || (ipPort[0] == "Invalid IP" && ipPort[1] == "Invalid Port")) {
                 throw new RuntimeException("Invalid Port information received");
             }
-            // Send a search request to the successor node and get the response
-            String data = requestHandler.sendMessage(ipPort[0], Integer.parseInt(ipPort[1]), "Search_Server|" + key);
+            // Send a search request to the successor node, accepting a lease on the value
+            long requested = this.requestHandler.transport.nanoTime();
+            String data = requestHandler.sendMessage(ipPort[0], Integer.parseInt(ipPort[1]),
+                    "Search_Server|" + key + "|" + (withVersion ? Data_Store.VERSION_OPTION : Hot_Cache.OPTION)
+                            + Lookup_Trace.option(traceId));
+            String value = Hot_Cache.stripLease(Lookup_Trace.strip(data));
+            long lease = Hot_Cache.getLease(Lookup_Trace.strip(data));
+            if (lease > 0) {
+                // The lease starts when the request was sent, as the owner may have granted
+                // it at any time since
+                this.hotCache.put(key, value, requested + lease * 1_000_000L);
+            }
             // Return the data received from the successor node
-            return data;
+            return finishTrace("Search", key, value, succ, data, traceId, sampled, start);
         } catch (RuntimeException e) {
             e.printStackTrace();
             return "Error inserting key: " + e.getMessage();
         }
     }
 
+    /**
+     * Completes the trace of a client operation at the origin node. The hops of the
+     * lookup and of the owner are joined behind the hop of the origin, the trace is
+     * recorded in the trace buffer and, unless it was sampled by the node itself,
+     * returned to the client.
+     * 
+     * @param operation The client operation being traced.
+     * @param key       The key of the operation.
+     * @param result    The result to return to the client.
+     * @param lookup    The response of the successor lookup.
+     * @param server    The response of the owner node.
+     * @param traceId   The trace id, or null if the operation is not traced.
+     * @param sampled   True if the trace was started by this node.
+     * @param start     The value of System.nanoTime() when the operation started.
+     * @return The result, annotated with the trace if the client asked for one.
+     */
+    private String finishTrace(String operation, String key, String result, String lookup, String server,
+            String traceId, boolean sampled, long start) {
+        if (traceId == null) {
+            return result;
+        }
+        String lookupHops = Lookup_Trace.hops(lookup);
+        String serverHops = Lookup_Trace.hops(server);
+        String hops = lookupHops.isEmpty() ? serverHops
+                : (serverHops.isEmpty() ? lookupHops : lookupHops + "," + serverHops);
+        String traced = Lookup_Trace.addHop(Lookup_Trace.withHops(result, traceId, hops), traceId, this.id, start);
+        this.traceBuffer.add(System.currentTimeMillis() + " " + operation + " " + key + " " + traceId + " "
+                + Lookup_Trace.hops(traced));
+        return sampled ? result : traced;
+    }
+
     /**
      * Handles a join request from another node by finding its successor.
      * 
@@ -735,13 +2597,29 @@ public class Node {
             }
 
             // Set the successor node and update the finger table
-            this.successor = new Node(ipPort[0], Integer.parseInt(ipPort[1]));
-            this.fingerTable.table.get(0).setNode(this.successor);
-            this.predecessor = null;
+            Peer successor = Node.peer(succ);
+            this.setNeighbors(null, successor);
 
-            if (this.successor.id != this.id) {
-                // Retrieve keys from the successor node
-                data = this.requestHandler.sendMessage(this.successor.ip, this.successor.port, "Send_Keys|" + this.id);
+            if (successor.id != this.id) {
+                // Ask the successor to move the keys of this node's range in the
+                // background, reading them from it until they all moved
+                this.pendingDonor = successor;
+                data = this.requestHandler.sendMessage(successor, "Request_Keys|" + this.id + "|" + this.nodeInfo);
+                if (data.startsWith("Queued")) {
+                    if (data.equals("Queued|0")) {
+                        this.pendingDonor = null;
+                    } else {
+                        // Taking the keys at once if the donor stops moving them
+                        Thread threadForMove = new Thread(() -> watchMove(successor), "chord-move-watch");
+                        threadForMove.setDaemon(true);
+                        threadForMove.start();
+                    }
+                    return;
+                }
+                this.pendingDonor = null;
+                // Retrieve keys from the successor node at once if it cannot move them in
+                // the background
+                data = this.requestHandler.sendMessage(successor, "Send_Keys|" + this.id);
                 if (data == null || data.isEmpty()) {
                     System.err.println("No keys received from the successor");
                 } else {
@@ -751,7 +2629,10 @@ public class Node {
                         if (key_value.length() > 1) {
                             String[] parts = key_value.split("\\|");
                             if (parts.length >= 2) {
-                                this.dataStore.data.put(parts[0], parts[1]);
+                                // Keeping the time left to live of the key, if any
+                                this.dataStore.restore(parts[0], parts[1],
+                                        parts.length >= 3 ? Long.parseLong(parts[2]) : 0,
+                                        parts.length >= 4 ? Long.parseLong(parts[3]) : 0);
                             } else {
                                 System.err.println("Invalid key-value pair: " + key_value);
                             }
@@ -778,38 +2659,140 @@ public class Node {
      * @return The information about the predecessor node.
      */
     public String findPredecessor(int searchId) {
+        return findPredecessor(searchId, null);
+    }
+
+    /**
+     * Finds the predecessor node responsible for the given key, appending the hop
+     * of this node to the response if the lookup is traced.
+     * 
+     * @param searchId The ID of the key for which the predecessor node is searched.
+     * @param traceId  The trace id of the lookup, or null.
+     * @return The information about the predecessor node.
+     */
+    public String findPredecessor(int searchId, String traceId) {
+        long start = System.nanoTime();
+        return Lookup_Trace.addHop(findPredecessorHop(searchId, traceId), traceId, this.id, start);
+    }
+
+    /**
+     * Performs one hop of the predecessor lookup, forwarding the trace id to the
+     * next hop.
+     * 
+     * @param searchId The ID of the key for which the predecessor node is searched.
+     * @param traceId  The trace id of the lookup, or null.
+     * @return The information about the predecessor node.
+     */
+    private String findPredecessorHop(int searchId, String traceId) {
         try {
             // If the current node is the predecessor
             if (searchId == this.id) {
-                return this.nodeInfo.toString();
+                return this.describe();
             }
+            // Both neighbors from one state, whatever stabilization does meanwhile
+            Ring_State state = this.getRing();
+            Peer predecessor = state.predecessor;
+            Peer successor = state.successor;
             // If the current node is the only node in the network
-            if (this.predecessor != null && this.successor.id == this.id) {
-                return this.nodeInfo.toString();
+            if (predecessor != null && successor.id == this.id) {
+                return this.describe();
             }
-            // If the successor of the current node is the closest node to the key
-            if (this.successor != null
-                    && this.getForwardDistance(this.successor.id) > this.getForwardDistance(searchId)) {
-                return this.nodeInfo.toString();
+            // If the ID falls in the range of the current node, the lookup was routed with
+            // an outdated ID of this node, and the predecessor is the answer
+            if (predecessor != null && predecessor.id != this.id && this.isResponsible(searchId)) {
+                return predecessor.describe();
+            }
+            // If the successor of the current node is the closest node to the key, or the
+            // key itself
+            if (successor != null
+                    && this.getForwardDistance(successor.id) >= this.getForwardDistance(searchId)) {
+                return this.describe();
             } else {
                 // Otherwise, recursively find the predecessor node on the routing path
-                Node newHopNode = this.closestPrecedingNode(searchId);
+                Peer newHopNode = this.closestPrecedingNode(searchId);
                 if (newHopNode == null) {
                     return "None";
                 }
-                // Extract IP and port of the new hop node
-                String[] ipPort = this.getIpPort(newHopNode.nodeInfo.toString());
+                // If the new hop node is the current node, return its information
+                if (this.isSelf(newHopNode)) {
+                    return this.describe();
+                }
+                // Send request to the new hop node to find the predecessor node
+                String data = requestHandler.sendMessage(newHopNode,
+                        "Find_Predecessor|" + searchId + Lookup_Trace.option(traceId));
+                return data;
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return "Error inserting key: " + e.getMessage();
+        } catch (Exception e) {
+            System.err.println("Error occurred: " + e.getMessage());
+            e.printStackTrace();
+            return "Error";
+        }
+    }
+
+    /**
+     * Finds the successor node responsible for the given key.
+     * 
+     * @param searchId The ID of the key for which the successor node is searched.
+     * @return The information about the successor node.
+     */
+    public String findSuccessor(int searchId) {
+        return findSuccessor(searchId, null);
+    }
+
+    /**
+     * Finds the successor node responsible for the given key, carrying the hops of
+     * the predecessor lookup in the response if the lookup is traced.
+     * 
+     * @param searchId The ID of the key for which the successor node is searched.
+     * @param traceId  The trace id of the lookup, or null.
+     * @return The information about the successor node.
+     */
+    public String findSuccessor(int searchId, String traceId) {
+        if (ASYNC_ROUTING) {
+            return this.routeSuccessor(searchId, traceId);
+        }
+        return this.lookupSuccessor(searchId, traceId);
+    }
+
+    /**
+     * Finds the successor node responsible for the given key through a recursive
+     * lookup, every hop waiting for the answer of the next one.
+     * 
+     * @param searchId The ID of the key for which the successor node is searched.
+     * @param traceId  The trace id of the lookup, or null.
+     * @return The information about the successor node.
+     */
+    private String lookupSuccessor(int searchId, String traceId) {
+        try {
+            // If the current node is responsible for the key, return its information
+            if (searchId == this.id) {
+                return this.describe();
+            }
+            // Find the predecessor node for the given key
+            String predecessor = this.findPredecessor(searchId, traceId);
+            // If no predecessor node found, return "None"
+            if (Lookup_Trace.strip(predecessor).equals("None")) {
+                return "None";
+            } else {
+                // Extract IP and port of the predecessor node
+                String[] ipPort = this.getIpPort(predecessor);
                 // Error Handling for invalid ip and port
                 if (ipPort == null || ipPort.length < 2 || (ipPort[0] == "Invalid IP" && ipPort[1] == "Invalid Port")) {
                     throw new RuntimeException("Invalid Port information received");
                 }
-                // If the new hop node is the current node, return its information
-                if (ipPort[0].equals(this.ip) && Integer.parseInt(ipPort[1]) == this.port) {
-                    return this.nodeInfo.toString();
+                // If valid IP and port are retrieved, request successor information from the
+                // predecessor
+                if (ipPort.length < 2) {
+                    return "Invalid predecessor information";
+                }
+                // Send request to the predecessor node to get its successor
+                String data = requestHandler.sendMessage(ipPort[0], Integer.parseInt(ipPort[1]), "Get_Successor");
+                if (traceId != null) {
+                    return Lookup_Trace.withHops(data, traceId, Lookup_Trace.hops(predecessor));
                 }
-                // Send request to the new hop node to find the predecessor node
-                String data = requestHandler.sendMessage(ipPort[0], Integer.parseInt(ipPort[1]),
-                        "Find_Predecessor|" + searchId);
                 return data;
             }
         } catch (RuntimeException e) {
@@ -823,108 +2806,584 @@ public class Node {
     }
 
     /**
-     * Finds the successor node responsible for the given key.
+     * Finds the successor node responsible for the given key through an
+     * asynchronous lookup. The lookup is forwarded hop to hop without any hop
+     * waiting for the next one, and the hop which knows the successor sends it
+     * straight to this node, so the lookup takes one way per hop instead of a
+     * round trip, and only this node keeps state while it goes on. If the answer
+     * does not come within ROUTE_TIMEOUT_MILLIS, as when a message was lost, the
+     * key is looked up again recursively.
+     * 
+     * @param searchId The ID of the key for which the successor node is searched.
+     * @param traceId  The trace id of the lookup, or null.
+     * @return The information about the successor node, carrying the hops if the
+     *         lookup is traced.
+     */
+    public String routeSuccessor(int searchId, String traceId) {
+        long requestId = this.nextRouteId.incrementAndGet();
+        CompletableFuture<String> answer = new CompletableFuture<>();
+        this.pendingRoutes.put(requestId, answer);
+        try {
+            // This node is the first hop
+            this.routeHop(searchId, requestId, this.self(), traceId, "");
+            return answer.get(ROUTE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return this.lookupSuccessor(searchId, traceId);
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            return "Error";
+        } finally {
+            this.pendingRoutes.remove(requestId);
+        }
+    }
+
+    /**
+     * Performs one hop of an asynchronous lookup. A node which knows the successor
+     * of the ID sends it to the origin of the lookup; otherwise the lookup is
+     * posted to the closest preceding node, and the node forgets about it. The
+     * hops of a traced lookup travel with it, the time of each one being spent on
+     * its node only, as no hop waits for the next.
+     * 
+     * @param searchId  The ID of the key for which the successor node is searched.
+     * @param requestId The ID of the lookup at its origin.
+     * @param origin    The node which started the lookup.
+     * @param traceId   The trace id of the lookup, or null.
+     * @param hops      The hops of the lookup so far, or an empty string.
+     */
+    public void routeHop(int searchId, long requestId, Peer origin, String traceId, String hops) {
+        long start = System.nanoTime();
+        // Both neighbors from one state, as in findPredecessorHop
+        Ring_State state = this.getRing();
+        Peer predecessor = state.predecessor;
+        Peer successor = state.successor;
+        String answer = null;
+        Peer next = null;
+        if (searchId == this.id
+                || (predecessor != null && predecessor.id != this.id && this.isResponsible(searchId))) {
+            // This node is the successor, possibly reached with an outdated ID
+            answer = this.describe();
+        } else if (successor == null) {
+            answer = "None";
+        } else if (successor.id == this.id
+                || this.getForwardDistance(successor.id) >= this.getForwardDistance(searchId)) {
+            // The ID lies between this node and its successor
+            answer = successor.describe();
+        } else {
+            next = this.closestPrecedingNode(searchId);
+            if (next == null) {
+                answer = "None";
+            } else if (this.isSelf(next)) {
+                answer = successor.describe();
+            }
+        }
+        if (traceId != null) {
+            String hop = this.id + "@" + (System.nanoTime() - start) / 1000;
+            hops = hops.isEmpty() ? hop : hops + "," + hop;
+        }
+        if (answer == null) {
+            this.requestHandler.post(next, "Route|" + searchId + "|" + requestId + "|" + origin.describe()
+                    + (traceId != null ? "|" + HOPS_OPTION + hops : "") + Lookup_Trace.option(traceId));
+            return;
+        }
+        if (traceId != null) {
+            answer = Lookup_Trace.withHops(answer, traceId, hops);
+        }
+        if (this.isSelf(origin)) {
+            CompletableFuture<String> route = this.pendingRoutes.remove(requestId);
+            if (route != null) {
+                route.complete(answer);
+            }
+        } else {
+            this.requestHandler.post(origin, "Route_Reply|" + requestId + "|" + answer);
+        }
+    }
+
+    /**
+     * Finds the closest preceding node to the given key.
+     * 
+     * The finger closest to the key picks the finger interval to route through, as
+     * in Chord. Within that interval, the candidate with the lowest round trip time
+     * is chosen among those still preceding the key, so the lookup keeps halving
+     * the distance to the key while avoiding distant hosts. A candidate never
+     * timed counts as the mean of the timed ones, so being timed alone does not
+     * make a candidate win; one which did not answer last time loses. Only nodes
+     * between this node and the key are returned, so every hop makes progress and
+     * a lookup cannot loop.
+     * 
+     * @param searchId The ID of the key for which the closest preceding node is
+     *                 searched.
+     * @return The closest preceding node to the given key, or null if no finger
+     *         precedes it.
+     */
+    public Peer closestPrecedingNode(int searchId) {
+        // Reading one snapshot of the fingers, which writers never change
+        Finger_Table.Snapshot fingers = this.fingerTable.getSnapshot();
+        int closest = -1;
+        int minDistance = (int) Math.pow(2, Finger_Table.M) + 1;
+
+        // Iterate through the finger table entries to find the closest preceding node
+        for (int i = Finger_Table.M - 1; i >= 0; i--) {
+            int nodeId = fingers.ids[i];
+
+            // Update the closest node if the current node is closer to the key
+            if (nodeId >= 0 && this.precedes(nodeId, searchId)
+                    && getForwardDistance2Nodes(nodeId, searchId) < minDistance) {
+                closest = i;
+                minDistance = getForwardDistance2Nodes(nodeId, searchId);
+            }
+        }
+        if (closest < 0) {
+            return null;
+        }
+
+        // Pick the nearest candidate of the interval, keeping the finger itself unless
+        // another candidate is known to be faster
+        Peer[] candidates = fingers.candidates[closest];
+        long[] rtts = new long[candidates.length];
+        long timedSum = 0;
+        int timed = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            rtts[i] = this.requestHandler.getRtt(candidates[i]);
+            if (rtts[i] != Request_Handler.UNKNOWN_RTT && rtts[i] != Request_Handler.UNREACHABLE_RTT) {
+                timedSum += rtts[i];
+                timed++;
+            }
+        }
+        long neutral = timed == 0 ? 0 : timedSum / timed;
+        Peer closestNode = fingers.nodes[closest];
+        long minRtt = Long.MAX_VALUE;
+        for (int i = 0; i < candidates.length; i++) {
+            long rtt = rtts[i] == Request_Handler.UNKNOWN_RTT ? neutral : rtts[i];
+            // The finger comes first, so it stays unless another candidate is faster
+            if ((rtt < minRtt || i == 0) && this.precedes(candidates[i].id, searchId)) {
+                closestNode = candidates[i];
+                minRtt = rtt;
+            }
+        }
+        return closestNode;
+    }
+
+    /**
+     * Checks whether a node lies strictly between this node and an ID, that is
+     * whether forwarding a lookup for the ID to the node makes progress.
+     * 
+     * @param nodeId   The ID of the node.
+     * @param searchId The ID searched.
+     * @return True if the node is after this node and before the ID.
+     */
+    public boolean precedes(int nodeId, int searchId) {
+        return nodeId != this.id && getForwardDistance(nodeId) < getForwardDistance(searchId);
+    }
+
+    /**
+     * Sends keys to a joining node and removes them from the current node's data
+     * store.
+     * 
+     * @param idOfJoiningNode The ID of the node joining the network.
+     * @return A string containing the keys and their corresponding values to be
+     *         sent to the joining node.
+     */
+    public String sendKeys(int idOfJoiningNode) {
+        StringBuilder data = new StringBuilder();
+        ArrayList<String> keysToBeRemoved = new ArrayList<>();
+        // Iterate through the keys in the current node's data store
+        for (String key : this.dataStore.keys()) {
+            int keyId = keyId(key);
+            // Check if the key should be transferred to the joining node, that is if the
+            // joining node is the first of the two at or after the key
+            if (getBackwardDistance2Nodes(idOfJoiningNode, keyId) < getBackwardDistance2Nodes(this.id, keyId)
+                    && this.appendPair(data, key)) { // Append the key, its value and time to live
+                // Add the key to the list of keys to be removed from the current node's data
+                // store
+                keysToBeRemoved.add(key);
+            }
+        }
+        // Remove the keys that are being transferred to the joining node from the
+        // current node's data store
+        for (String key : keysToBeRemoved) {
+            this.dataStore.delete(key);
+        }
+        return data.toString();
+    }
+
+    /**
+     * Queues the move of the keys of a joining node's range to it, sent in the
+     * background by the rebalancer instead of in the reply. The joining node
+     * reads the keys not moved yet from this node, until told they all moved.
+     * 
+     * @param idOfJoiningNode The ID of the node joining the network.
+     * @param nodeIp          The IP address of the joining node.
+     * @param nodePort        The port of the joining node.
+     * @return "Queued|<count>", the number of keys to move.
+     */
+    public String requestKeys(int idOfJoiningNode, String nodeIp, int nodePort) {
+        return "Queued|" + this.queueJoinMove(idOfJoiningNode, nodeIp, nodePort, 0);
+    }
+
+    /**
+     * Queues the move of the keys of a joining node's range to it. A move which
+     * fails, as the joining node is busy or unreachable, is queued again with the
+     * keys still held, after a wait doubling from a second, up to MOVE_RETRIES
+     * times; the joining node is told once no key is left to move.
+     * 
+     * @param idOfJoiningNode The ID of the node joining the network.
+     * @param nodeIp          The IP address of the joining node.
+     * @param nodePort        The port of the joining node.
+     * @param retry           The number of failed moves so far.
+     * @return The number of keys to move.
+     */
+    private int queueJoinMove(int idOfJoiningNode, String nodeIp, int nodePort, int retry) {
+        List<String> keys = new ArrayList<>();
+        for (String key : this.dataStore.keys()) {
+            int keyId = keyId(key);
+            // Same range as sendKeys: the joining node is the first of the two at or
+            // after the key
+            if (getBackwardDistance2Nodes(idOfJoiningNode, keyId) < getBackwardDistance2Nodes(this.id, keyId)) {
+                keys.add(key);
+            }
+        }
+        if (keys.isEmpty()) {
+            if (retry > 0) {
+                // The joining node took the rest itself, or the keys were deleted meanwhile
+                this.requestHandler.sendMessage(nodeIp, nodePort, "Keys_Moved");
+            }
+            return 0;
+        }
+        Peer joining = Node.peer(nodeIp, nodePort, idOfJoiningNode);
+        this.rebalancer.submit("join:" + joining.describe(), joining, keys, true).whenComplete((count, error) -> {
+            if (error == null) {
+                this.requestHandler.sendMessage(nodeIp, nodePort, "Keys_Moved");
+                return;
+            }
+            // The keys stay here, where the joining node keeps reading them, until the
+            // move is tried again or the joining node takes them
+            System.err.println("Error moving keys: " + error.getMessage());
+            if (retry < MOVE_RETRIES && !this.leaving) {
+                CompletableFuture.delayedExecutor(Rebalancer.MAX_BACKOFF_MILLIS << retry, TimeUnit.MILLISECONDS)
+                        .execute(() -> this.queueJoinMove(idOfJoiningNode, nodeIp, nodePort, retry + 1));
+            }
+        });
+        return keys.size();
+    }
+
+    /**
+     * Watches the move of keys from a donor after a join, until the donor tells
+     * they all moved. If the donor cannot be reached or is no longer moving keys
+     * for MOVE_CHECK_MISSES checks in a row, the rest of the keys are taken at once
+     * with "Send_Keys", so the node stops reading keys from the donor and
+     * remembering the keys written meanwhile.
+     * 
+     * @param donor The node moving the keys.
+     */
+    public void watchMove(Peer donor) {
+        int misses = 0;
+        while (this.pendingDonor == donor && !this.left) {
+            try {
+                Thread.sleep(MOVE_CHECK_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            String progress = this.requestHandler.sendMessage(donor, "Get_Rebalance");
+            // A donor which is running or holding moves back may still be moving the
+            // keys of this node; an idle one is not, or is waiting to try again
+            boolean moving = progress.startsWith("state=running") || progress.startsWith("state=paused")
+                    || (progress.startsWith("state=idle") && !progress.contains("queued=0,"));
+            misses = moving ? 0 : misses + 1;
+            if (misses >= MOVE_CHECK_MISSES && this.pendingDonor == donor) {
+                String data = this.requestHandler.sendMessage(donor, "Send_Keys|" + this.id);
+                this.storePairs(data); // Keeping the keys written here meanwhile
+                System.err.println("Took the keys left on " + donor.describe() + " after the move stalled");
+                this.pendingDonor = null;
+                this.touchedDuringMove.clear();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Appends a stored pair to the keys sent to another node, as
+     * "key|value|ttl|version:", the time left to live in milliseconds or 0. The
+     * version is always sent, as the receiver could not tell it from its own.
+     * 
+     * @param data The keys to send.
+     * @param key  The key.
+     * @return False if the key is no longer stored.
+     */
+    public boolean appendPair(StringBuilder data, String key) {
+        String value = this.dataStore.get(key);
+        if (value == null) {
+            return false;
+        }
+        long ttl = this.dataStore.getTtl(key);
+        long version = this.dataStore.getVersion(key);
+        data.append(key).append("|").append(value).append("|").append(ttl).append("|").append(version).append(":");
+        return true;
+    }
+
+    /**
+     * Stores the pairs received from another node, as sent by appendPair, except
+     * the keys written on this node since a move to it started.
+     * 
+     * @param data The pairs.
+     */
+    public void storePairs(String data) {
+        for (String keyValue : data.split(":")) {
+            String[] parts = keyValue.split("\\|");
+            if (parts.length >= 2 && !this.touchedDuringMove.contains(parts[0])) {
+                this.dataStore.restore(parts[0], parts[1], parts.length >= 3 ? Long.parseLong(parts[2]) : 0,
+                        parts.length >= 4 ? Long.parseLong(parts[3]) : 0);
+            }
+        }
+    }
+
+    /**
+     * Returns the pairs of a key range, in key order. With the order preserving
+     * placement, only the nodes from the owner of the first key to the owner of
+     * the last one are asked, one after another, and the walk stops early once
+     * the limit is reached by keys which no later node can beat. With the hash
+     * placement, every node is asked, each one as soon as the walk of the ring
+     * finds it, on up to SCAN_THREADS threads at once.
+     * 
+     * At most MAX_SCAN_PAIRS pairs and about MAX_SCAN_BYTES bytes are returned,
+     * whatever the limit asked for; a client reads the rest from the last key
+     * returned.
+     * 
+     * @param from  The first key of the range, included.
+     * @param to    The last key of the range, excluded.
+     * @param limit The maximum number of pairs returned.
+     * @return The pairs as "key|value:" repeated, in key order, or "None" if the
+     *         range is empty.
+     */
+    public String scan(String from, String to, int limit) {
+        limit = Math.min(limit, MAX_SCAN_PAIRS);
+        TreeMap<String, String> results = new TreeMap<>();
+        int fromId = keyId(from);
+        int toId = keyId(to);
+        String start = ORDERED ? Lookup_Trace.strip(this.findSuccessor(fromId)) : this.describe();
+        if (start.equals("None") || start.startsWith("Error")) {
+            return "Error: no owner found for " + from;
+        }
+        String request = "Scan_Server|" + from + "|" + to + "|" + limit;
+        List<CompletableFuture<String>> pages = new ArrayList<>();
+        Peer first = Node.peer(start);
+        Peer current = first;
+        for (int visited = 0; visited < (int) Math.pow(2, Finger_Table.M); visited++) {
+            if (ORDERED) {
+                mergePairs(results, this.requestHandler.sendMessage(current, request), limit);
+                // Later nodes only hold keys after the position of this node
+                if (results.size() >= limit && getBackwardDistance2Nodes(keyId(results.lastKey()),
+                        fromId) <= getBackwardDistance2Nodes(current.id, fromId)) {
+                    break;
+                }
+                // This node holds the end of the range
+                if (getBackwardDistance2Nodes(current.id, fromId) >= getBackwardDistance2Nodes(toId, fromId)) {
+                    break;
+                }
+            } else {
+                // Every node is asked anyway, so its page is read while the walk goes on
+                Peer node = current;
+                pages.add(CompletableFuture.supplyAsync(() -> this.requestHandler.sendMessage(node, request),
+                        this.scanners()));
+            }
+            String next = this.requestHandler.sendMessage(current, "Get_Successor");
+            if (next.isEmpty() || next.equals("None")) {
+                break;
+            }
+            current = Node.peer(next);
+            if (current.isAt(first.address)) {
+                break; // Went around the ring
+            }
+        }
+        for (CompletableFuture<String> page : pages) {
+            mergePairs(results, page.join(), limit);
+        }
+        if (results.isEmpty()) {
+            return "None";
+        }
+        StringBuilder data = new StringBuilder();
+        for (Map.Entry<String, String> entry : results.entrySet()) {
+            if (!appendScanPair(data, entry.getKey(), entry.getValue())) {
+                break;
+            }
+        }
+        return data.toString();
+    }
+
+    /**
+     * Adds the pairs of a page of a scan to the results, keeping the first ones.
      * 
-     * @param searchId The ID of the key for which the successor node is searched.
-     * @return The information about the successor node.
+     * @param results The pairs found so far, in key order.
+     * @param page    The page, as "key|value:" repeated.
+     * @param limit   The maximum number of pairs kept.
      */
-    public String findSuccessor(int searchId) {
-        try {
-            // If the current node is responsible for the key, return its information
-            if (searchId == this.id) {
-                return this.nodeInfo.toString();
-            }
-            // Find the predecessor node for the given key
-            String predecessor = this.findPredecessor(searchId);
-            // If no predecessor node found, return "None"
-            if (predecessor.equals("None")) {
-                return "None";
-            } else {
-                // Extract IP and port of the predecessor node
-                String[] ipPort = this.getIpPort(predecessor);
-                // Error Handling for invalid ip and port
-                if (ipPort == null || ipPort.length < 2 || (ipPort[0] == "Invalid IP" && ipPort[1] == "Invalid Port")) {
-                    throw new RuntimeException("Invalid Port information received");
-                }
-                // If valid IP and port are retrieved, request successor information from the
-                // predecessor
-                if (ipPort.length < 2) {
-                    return "Invalid predecessor information";
-                }
-                // Send request to the predecessor node to get its successor
-                String data = requestHandler.sendMessage(ipPort[0], Integer.parseInt(ipPort[1]), "Get_Successor");
-                return data;
+    private static void mergePairs(TreeMap<String, String> results, String page, int limit) {
+        for (String pair : page.split(":")) {
+            String[] parts = pair.split("\\|");
+            if (parts.length >= 2) {
+                results.put(parts[0], parts[1]);
             }
-        } catch (RuntimeException e) {
-            e.printStackTrace();
-            return "Error inserting key: " + e.getMessage();
-        } catch (Exception e) {
-            System.err.println("Error occurred: " + e.getMessage());
-            e.printStackTrace();
-            return "Error";
+        }
+        while (results.size() > limit) {
+            results.pollLastEntry();
         }
     }
 
     /**
-     * Finds the closest preceding node to the given key.
+     * Appends a pair to the response of a scan, unless it would grow past
+     * MAX_SCAN_BYTES. The first pair is always appended.
      * 
-     * @param searchId The ID of the key for which the closest preceding node is
-     *                 searched.
-     * @return The closest preceding node to the given key.
+     * @param data  The response.
+     * @param key   The key.
+     * @param value The value.
+     * @return False if the pair was left out, and the response is complete.
      */
-    public Node closestPrecedingNode(int searchId) {
-        Node closestNode = null;
-        int minDistance = (int) Math.pow(2, Finger_Table.M) + 1;
+    private static boolean appendScanPair(StringBuilder data, String key, String value) {
+        if (data.length() > 0 && data.length() + key.length() + value.length() + 2 > MAX_SCAN_BYTES) {
+            return false;
+        }
+        data.append(key).append("|").append(value).append(":");
+        return true;
+    }
 
-        try {
-            // Iterate through the finger table entries to find the closest preceding node
-            for (int i = Finger_Table.M - 1; i >= 0; i--) {
-                EntryNodePair en_pair = this.fingerTable.table.get(i);
-                Node node = en_pair.getNode();
-
-                // Update the closest node if the current node is closer to the key
-                if (node != null && getForwardDistance2Nodes(node.id, searchId) < minDistance) {
-                    closestNode = node;
-                    minDistance = getForwardDistance2Nodes(node.id, searchId);
+    /**
+     * Returns the threads asking the nodes for their pages of a scan, started with
+     * the first scan. They are daemons, as they hold no state.
+     * 
+     * @return The executor.
+     */
+    private synchronized ExecutorService scanners() {
+        if (this.scanners == null) {
+            this.scanners = Executors.newFixedThreadPool(SCAN_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "chord-scanner");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return this.scanners;
+    }
+
+    /**
+     * Returns the pairs of a key range stored on this node, in key order, within
+     * the same bounds as scan.
+     * 
+     * @param from  The first key of the range, included.
+     * @param to    The last key of the range, excluded.
+     * @param limit The maximum number of pairs returned.
+     * @return The pairs as "key|value:" repeated, or "None" if there are none.
+     */
+    public String scanLocal(String from, String to, int limit) {
+        limit = Math.min(limit, MAX_SCAN_PAIRS);
+        TreeSet<String> keys = new TreeSet<>();
+        for (String key : this.dataStore.keys()) {
+            if (key.compareTo(from) >= 0 && key.compareTo(to) < 0) {
+                keys.add(key);
+                if (keys.size() > limit) {
+                    keys.pollLast();
                 }
             }
-        } catch (Exception e) {
-            // Handle any exceptions that occur during the iteration
-            e.printStackTrace();
         }
+        StringBuilder data = new StringBuilder();
+        for (String key : keys) {
+            String value = this.dataStore.get(key);
+            if (value != null && !appendScanPair(data, key, value)) {
+                break;
+            }
+        }
+        return data.length() == 0 ? "None" : data.toString();
+    }
 
-        return closestNode;
+    /**
+     * Returns the load of the node: its number of keys and the median of their IDs,
+     * the position a predecessor would move to in order to take half of them.
+     * 
+     * @return The load as "count|median_id".
+     */
+    public String getLoad() {
+        List<String> keys = this.dataStore.keys();
+        if (keys.isEmpty()) {
+            return "0|" + this.id;
+        }
+        // Sort the IDs by their distance from the predecessor, the start of the range
+        Peer predecessor = this.predecessor();
+        int start = predecessor != null ? predecessor.id : this.id;
+        int[] ids = new int[keys.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = getBackwardDistance2Nodes(keyId(keys.get(i)), start);
+        }
+        Arrays.sort(ids);
+        int median = (int) ((start + ids[(ids.length - 1) / 2]) % (long) Math.pow(2, Finger_Table.M));
+        return keys.size() + "|" + median;
     }
 
     /**
-     * Sends keys to a joining node and removes them from the current node's data
-     * store.
+     * Moves this node forward to take half of the keys of its successor, if the
+     * successor holds at least BALANCE_FACTOR times more keys than this node. The
+     * node takes the ID of the median key of the successor, so its range grows and
+     * the range of the successor shrinks; nodes holding the old ID learn the new
+     * one through stabilization and finger fixing.
      * 
-     * @param idOfJoiningNode The ID of the node joining the network.
-     * @return A string containing the keys and their corresponding values to be
-     *         sent to the joining node.
+     * @return True if the node moved.
      */
-    public String sendKeys(int idOfJoiningNode) {
-        String data = "";
-        ArrayList<String> keysToBeRemoved = new ArrayList<>();
-        // Iterate through the keys in the current node's data store
-        for (String key : this.dataStore.data.keySet()) {
-            int keyId = hash(key);
-            // Check if the key should be transferred to the joining node
-            if (getForwardDistance2Nodes(keyId, idOfJoiningNode) < getForwardDistance2Nodes(keyId, this.id)) {
-                // Append the key and its value to the data string
-                data += key + "|" + this.dataStore.data.get(key) + ":";
-                // Add the key to the list of keys to be removed from the current node's data
-                // store
-                keysToBeRemoved.add(key);
-            }
+    public boolean balanceOnce() {
+        Peer successor = this.successor();
+        if (successor == null || successor.id == this.id) {
+            return false;
         }
-        // Remove the keys that are being transferred to the joining node from the
-        // current node's data store
-        for (String key : keysToBeRemoved) {
-            this.dataStore.data.remove(key);
+        String[] load = this.requestHandler.sendMessage(successor, "Get_Load")
+                .split("\\|");
+        if (load.length < 2) {
+            return false;
+        }
+        int count = Integer.parseInt(load[0]);
+        int newId = Integer.parseInt(load[1]);
+        if (count < BALANCE_MIN_KEYS || count <= BALANCE_FACTOR * this.dataStore.size()
+                || !this.precedes(newId, successor.id)) {
+            return false;
+        }
+        String data = this.requestHandler.sendMessage(successor,
+                "Hand_Over|" + newId + "|" + this.nodeInfo.toString());
+        if (data.isEmpty() || data.startsWith("Error")) {
+            return false;
+        }
+        // Take the new position, then the keys that come with it
+        this.id = newId;
+        this.fingerTable.rebase(newId);
+        this.storePairs(data);
+        return true;
+    }
+
+    /**
+     * Lets the predecessor move forward to a new ID, giving it the keys which now
+     * fall in its range.
+     * 
+     * @param newId    The new ID of the predecessor.
+     * @param nodeIp   The IP address of the predecessor.
+     * @param nodePort The port of the predecessor.
+     * @return The keys handed over as "key|value:" repeated, possibly empty, or an
+     *         error if the node is not the predecessor or the ID is out of range.
+     */
+    public synchronized String handOver(int newId, String nodeIp, int nodePort) {
+        Ring_State state = this.getRing();
+        Peer predecessor = state.predecessor;
+        if (predecessor == null || !predecessor.ip.equals(nodeIp) || predecessor.port != nodePort) {
+            return "Error: not the predecessor";
+        }
+        // The new ID must stay between the current ID of the predecessor and this node
+        if (getBackwardDistance2Nodes(newId, predecessor.id) == 0
+                || getBackwardDistance2Nodes(newId, predecessor.id) >= getBackwardDistance2Nodes(this.id,
+                        predecessor.id)) {
+            return "Error: ID out of range";
+        }
+        if (!this.updateRing(state, state.withPredecessor(Node.peer(nodeIp, nodePort, newId)))) {
+            return "Error: predecessor changed";
+        }
+        StringBuilder data = new StringBuilder("|:"); // Not empty, so that an empty hand over is not an error
+        for (String key : this.dataStore.keys()) {
+            if (!this.isResponsible(keyId(key)) && this.appendPair(data, key)) {
+                this.dataStore.delete(key);
+            }
         }
-        return data;
+        return data.toString();
     }
 
     /**
@@ -932,8 +3391,9 @@ public class Node {
      * predecessor information.
      */
     public void stabilize() {
-        while (true) {
-            if (this.successor == null) {
+        while (!this.left) {
+            Peer successor = this.successor();
+            if (successor == null) {
                 try {
                     Thread.sleep(10000); // Wait for 10 seconds if the successor is not available
                     continue;
@@ -941,56 +3401,33 @@ public class Node {
                     e.printStackTrace();
                 }
             }
-            String data = "Get_Predecessor"; // Prepare a message to get the predecessor of the successor node
-            if (this.successor.ip.equals(this.ip) && this.successor.port == this.port) {
+            if (this.isSelf(successor)) {
                 try {
                     Thread.sleep(10000); // If the successor is the current node, wait for 10 seconds
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 }
             }
-            // Get the predecessor of the successor
-            String result = this.requestHandler.sendMessage(this.successor.ip, this.successor.port, data);
-            if (result.equals("None") || result.length() == 0 || result == null) { // If no predecessor found, notify
-                                                                                   // the successor
-                this.requestHandler.sendMessage(this.successor.ip, this.successor.port,
-                        "Notify|" + this.id + "|" + this.nodeInfo.toString());
+            // Run one stabilization round, retrying at once if the successor had no
+            // predecessor yet
+            if (!stabilizeOnce()) {
                 continue;
             }
-            String[] ipPort = {};
-            try {
-                ipPort = getIpPort(result); // Extract IP and port of the predecessor
-                // Error Handling for invalid ip and port
-                if (ipPort == null || ipPort.length < 2 || (ipPort[0] == "Invalid IP" && ipPort[1] == "Invalid Port")) {
-                    throw new RuntimeException("Invalid Port information received");
-                }
-            } catch (RuntimeException e) {
-                System.err.println("Error getting IP and port: " + e.getMessage());
-                e.printStackTrace();
+            // Take keys from the successor if it holds many more
+            if (BALANCE && !this.leaving) {
+                balanceOnce();
             }
-            // Get the ID of the predecessor
-            int resultId = Integer
-                    .parseInt(this.requestHandler.sendMessage(ipPort[0], Integer.parseInt(ipPort[1]), "Get_Id"));
-            // If the predecessor is closer to the current node
-            if (getBackwardDistance(resultId) > getBackwardDistance(this.successor.id)) {
-                // Update the successor
-                this.successor = new Node(ipPort[0], Integer.parseInt(ipPort[1]));
-                // Update the first entry in the finger table
-                this.fingerTable.table.get(0).setNode(this.successor);
-            }
-            // Notify the successor about the current node
-            this.requestHandler.sendMessage(this.successor.ip, this.successor.port,
-                    "Notify|" + this.id + "|" + this.nodeInfo.toString());
             // Print network status for debugging
             System.out.println("============================================================================");
             System.out.println("STABILIZING");
             System.out.println("============================================================================");
             System.out.println("ID: " + this.id);
-            if (this.successor != null) {
-                System.out.println("Successor ID: " + this.successor.id);
+            Ring_State state = this.getRing();
+            if (state.successor != null) {
+                System.out.println("Successor ID: " + state.successor.id);
             }
-            if (this.predecessor != null) {
-                System.out.println("Predecessor ID: " + this.predecessor.id);
+            if (state.predecessor != null) {
+                System.out.println("Predecessor ID: " + state.predecessor.id);
             }
             System.out.println("============================================================================");
             System.out.println("--------------------------------FINGER TABLE--------------------------------");
@@ -998,7 +3435,7 @@ public class Node {
             System.out.println("============================================================================");
             System.out.println("DATA STORE");
             System.out.println("============================================================================");
-            System.out.println(this.dataStore.data.toString());
+            System.out.println(this.dataStore.toString());
             System.out.println("============================================================================");
             System.out.println("XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX END XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX");
             System.out.println();
@@ -1012,6 +3449,55 @@ public class Node {
         }
     }
 
+    /**
+     * Runs a single stabilization round: asks the successor for its predecessor,
+     * adopts it as the new successor if it lies between this node and the
+     * successor, and notifies the successor about this node.
+     * 
+     * @return False if the successor had no predecessor and was only notified,
+     *         true otherwise.
+     */
+    public boolean stabilizeOnce() {
+        Ring_State state = this.getRing();
+        String data = "Get_Predecessor"; // Prepare a message to get the predecessor of the successor node
+        // Get the predecessor of the successor
+        String result = this.requestHandler.sendMessage(state.successor, data);
+        if (result.equals("None") || result.length() == 0 || result == null) { // If no predecessor found, notify
+                                                                               // the successor
+            this.requestHandler.sendMessage(state.successor, "Notify|" + this.id + "|" + this.nodeInfo.toString());
+            return false;
+        }
+        // The predecessor comes as "ip|port|id", so its ID is known without asking it;
+        // only a node sending "ip|port" is asked for its ID
+        Peer predecessor;
+        try {
+            String[] fields = Lookup_Trace.strip(result).split("\\|");
+            predecessor = fields.length > 2 && fields[2].matches("\\d+") ? Node.peer(result)
+                    : Node.peer(fields[0], Integer.parseInt(fields[1]), Integer.parseInt(
+                            this.requestHandler.sendMessage(fields[0], Integer.parseInt(fields[1]), "Get_Id")));
+        } catch (RuntimeException e) {
+            System.err.println("Invalid predecessor received: " + result);
+            predecessor = null; // Keeping the successor, which is still notified
+        }
+        // If the predecessor is closer to the current node
+        if (predecessor != null && getBackwardDistance(predecessor.id) > getBackwardDistance(state.successor.id)) {
+            // Update the successor and the first entry in the finger table, unless the
+            // neighbors changed meanwhile: the current successor is notified then
+            Ring_State next = state.withSuccessor(predecessor);
+            state = this.updateRing(state, next) ? next : this.getRing();
+        }
+        // Notify the successor about the current node, learning its ID in return in
+        // case it moved
+        Peer successor = state.successor;
+        String successorId = this.requestHandler.sendMessage(successor,
+                "Notify|" + this.id + "|" + this.nodeInfo.toString());
+        if (successorId.matches("\\d+") && Integer.parseInt(successorId) != successor.id) {
+            this.updateRing(state, state.withSuccessor(Node.peer(successor.ip, successor.port,
+                    Integer.parseInt(successorId))));
+        }
+        return true;
+    }
+
     /**
      * Notifies the node about a new predecessor in the network.
      * If the new node is closer to the current node than the existing predecessor,
@@ -1022,23 +3508,28 @@ public class Node {
      * @param nodePort The port of the new predecessor node.
      */
     public void notify(int nodeId, String nodeIp, int nodePort) {
-        // If predecessor exists and new node is closer, update predecessor
-        if (this.predecessor != null) {
-            if (getBackwardDistance(nodeId) < getBackwardDistance(Integer.parseInt(predecessor.getId()))) {
-                this.predecessor = new Node(nodeIp, nodePort);
-                return;
+        Peer node = Node.peer(nodeIp, nodePort, nodeId);
+        while (true) {
+            Ring_State state = this.getRing();
+            Peer predecessor = state.predecessor;
+            Ring_State next = null;
+            // If predecessor exists and new node is closer, update predecessor
+            if (predecessor != null && getBackwardDistance(nodeId) < getBackwardDistance(predecessor.id)) {
+                next = state.withPredecessor(node);
             }
-        }
-        // If no predecessor exists or new node is closer or falls between current node
-        // and predecessor,
-        // update predecessor and successor (if necessary)
-        if (this.predecessor == null || this.findPredecessor(this.id).equals("None")
-                || (nodeId > Integer.parseInt(predecessor.getId()) && nodeId < id)
-                || (id == Integer.parseInt(predecessor.getId()) && nodeId != id)) {
-            this.predecessor = new Node(nodeIp, nodePort);
-            if (id == Integer.parseInt(successor.getId())) {
-                successor = new Node(nodeIp, nodePort);
-                fingerTable.table.get(0).setNode(successor);
+            // If no predecessor exists or new node is closer or falls between current
+            // node and predecessor,
+            // update predecessor and successor (if necessary)
+            else if (predecessor == null || this.findPredecessor(this.id).equals("None")
+                    || (nodeId > predecessor.id && nodeId < id)
+                    || (id == predecessor.id && nodeId != id)) {
+                Peer successor = state.successor;
+                next = state.with(node, successor != null && successor.id == id ? node : successor);
+            }
+            // Done unless another notification or stabilization changed the neighbors
+            // meanwhile, in which case the decision is taken again on the new ones
+            if (next == null || this.updateRing(state, next)) {
+                return;
             }
         }
     }
@@ -1050,13 +3541,10 @@ public class Node {
     public void fixFingers() {
         try {
             Random rand = new Random();
-            while (true) {
+            while (!this.left) {
                 // Select a random index in the finger table to fix
                 int randomIndex = rand.nextInt(Finger_Table.M - 1) + 1;
-                int finger = fingerTable.table.get(randomIndex).getEntry(); // Get the finger value
-                String data = findSuccessor(finger); // Find the successor for the finger
-                if (data.equals("") || data.equals("None") || data == null) { // If no successor found, wait for 10
-                                                                              // seconds and continue
+                if (!fixFinger(randomIndex)) { // If no successor found, wait for 10 seconds and continue
                     try {
                         Thread.sleep(10000);
                     } catch (InterruptedException e) {
@@ -1064,20 +3552,6 @@ public class Node {
                     }
                     continue;
                 }
-                String[] ipPort = {};
-                try {
-                    ipPort = getIpPort(data); // Extract IP and port of the successor
-                    // Error Handling for invalid ip and port
-                    if (ipPort == null || ipPort.length < 2
-                            || (ipPort[0] == "Invalid IP" && ipPort[1] == "Invalid Port")) {
-                        throw new RuntimeException("Invalid Port information received");
-                    }
-                } catch (RuntimeException e) {
-                    System.err.println("Error getting IP and port: " + e.getMessage());
-                    e.printStackTrace();
-                }
-                // Update the finger table entry with the new successor
-                fingerTable.table.get(randomIndex).setNode(new Node(ipPort[0], Integer.parseInt(ipPort[1])));
                 try {
                     Thread.sleep(10000); // Wait for 10 seconds before fixing next finger
                 } catch (InterruptedException e) {
@@ -1090,6 +3564,398 @@ public class Node {
         }
     }
 
+    /**
+     * Fixes a single finger of the finger table by looking up the successor of its
+     * interval start. The other nodes of the interval this node knows are kept as
+     * candidates, timed by the requests the node sends them anyway.
+     * 
+     * @param index The index of the finger to fix.
+     * @return False if no successor was found for the finger, true otherwise.
+     */
+    public boolean fixFinger(int index) {
+        int finger = fingerTable.get(index).getEntry(); // Get the finger value
+        String data = findSuccessor(finger); // Find the successor for the finger
+        if (data.equals("") || data.equals("None") || data == null) { // If no successor found
+            return false;
+        }
+        String[] ipPort = {};
+        try {
+            ipPort = getIpPort(data); // Extract IP and port of the successor
+            // Error Handling for invalid ip and port
+            if (ipPort == null || ipPort.length < 2 || (ipPort[0] == "Invalid IP" && ipPort[1] == "Invalid Port")) {
+                throw new RuntimeException("Invalid Port information received");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error getting IP and port: " + e.getMessage());
+            e.printStackTrace();
+        }
+        // Update the finger table entry with the new successor and the next nodes of
+        // its interval
+        fingerTable.setCandidates(index, this.findCandidates(index, Node.peer(data)));
+        return true;
+    }
+
+    /**
+     * Collects up to Finger_Table.CANDIDATES nodes of a finger interval among the
+     * nodes this node already knows: those it sent requests to and those of its
+     * fingers, nearest to the start of the interval first. No request is sent.
+     * The interval of finger i spans 2^i IDs from its start.
+     * 
+     * @param index     The index of the finger.
+     * @param successor The successor of the interval start.
+     * @return The candidates, starting with the successor.
+     */
+    public List<Peer> findCandidates(int index, Peer successor) {
+        int start = fingerTable.get(index).getEntry();
+        int size = (int) Math.pow(2, index);
+        Map<String, Peer> known = new HashMap<>();
+        for (Peer peer : this.requestHandler.getContacted()) {
+            known.put(peer.address, peer);
+        }
+        Finger_Table.Snapshot fingers = this.fingerTable.getSnapshot();
+        for (Peer[] entry : fingers.candidates) {
+            for (Peer peer : entry) {
+                known.putIfAbsent(peer.address, peer);
+            }
+        }
+        List<Peer> inside = new ArrayList<>();
+        for (Peer peer : known.values()) {
+            // Within the interval, without this node and the successor itself
+            if (peer.id != this.id && !peer.address.equals(successor.address)
+                    && getBackwardDistance2Nodes(peer.id, start) < size) {
+                inside.add(peer);
+            }
+        }
+        inside.sort(Comparator.comparingInt(peer -> getBackwardDistance2Nodes(peer.id, start)));
+        List<Peer> candidates = new ArrayList<>();
+        candidates.add(successor);
+        for (Peer peer : inside) {
+            if (candidates.size() >= Finger_Table.CANDIDATES) {
+                break;
+            }
+            candidates.add(peer);
+        }
+        return candidates;
+    }
+
+    /**
+     * Sends a write to the replica on the successor, in the background and in the
+     * order of the writes. A write lost on the way is repaired by anti-entropy.
+     * 
+     * @param message The "Replica_Insert" or "Replica_Delete" request.
+     */
+    public void replicate(String message) {
+        Peer next = this.successor();
+        if (this.replicaStore == null || next == null || this.isSelf(next)) {
+            return;
+        }
+        synchronized (this) {
+            if (this.replicator == null) {
+                this.replicator = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "chord-replicator");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        this.replicator.execute(() -> this.requestHandler.sendMessage(next, message));
+    }
+
+    /**
+     * Sends a write of a pair to the replica on the successor, with its version.
+     * 
+     * @param key       The key written.
+     * @param value     The value written.
+     * @param ttlMillis The time to live of the pair, or 0.
+     * @param version   The version of the pair.
+     */
+    public void replicateInsert(String key, String value, long ttlMillis, long version) {
+        this.replicate("Replica_Insert|" + key + ":" + value
+                + (ttlMillis > 0 ? "|" + Data_Store.TTL_OPTION + ttlMillis : "")
+                + Data_Store.VERSION_ANNOTATION + version);
+    }
+
+    /**
+     * Periodically repairs the replicas on the successor.
+     */
+    public void antiEntropy() {
+        while (!this.left) {
+            try {
+                Thread.sleep(ANTI_ENTROPY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                this.antiEntropyOnce();
+            } catch (RuntimeException e) {
+                System.err.println("Error repairing replicas: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Compares the pairs of this node with their replicas on the successor and
+     * sends the buckets which differ. The Merkle trees are compared one level at a
+     * time from the root, asking only for the children of the nodes which differ,
+     * so the cost grows with the number of differences rather than of pairs. The
+     * pairs of this node win: a differing bucket of the replicas is replaced.
+     * 
+     * @return The number of buckets repaired, or -1 if the successor did not
+     *         answer.
+     */
+    public int antiEntropyOnce() {
+        Peer next = this.successor();
+        if (next == null || this.isSelf(next)) {
+            return 0;
+        }
+        this.repairRounds.incrementAndGet();
+        Merkle_Tree tree = this.dataStore.getTree();
+        List<Integer> frontier = Collections.singletonList(1);
+        List<Integer> buckets = new ArrayList<>();
+        while (!frontier.isEmpty()) {
+            StringBuilder indexes = new StringBuilder();
+            for (int index : frontier) {
+                indexes.append(indexes.length() == 0 ? "" : ",").append(index);
+            }
+            String[] theirs = this.requestHandler.sendMessage(next, "Get_Merkle|" + indexes)
+                    .split(",");
+            if (theirs.length != frontier.size() || theirs[0].isEmpty()) {
+                return -1;
+            }
+            List<Integer> children = new ArrayList<>();
+            for (int i = 0; i < theirs.length; i++) {
+                int index = frontier.get(i);
+                if (tree.getHash(index) == Long.parseLong(theirs[i])) {
+                    continue;
+                }
+                if (index >= Merkle_Tree.LEAVES) {
+                    buckets.add(index - Merkle_Tree.LEAVES);
+                } else {
+                    children.add(2 * index);
+                    children.add(2 * index + 1);
+                }
+            }
+            frontier = children;
+        }
+        // Sending the pairs of the differing buckets, a few buckets per message
+        for (int from = 0; from < buckets.size(); from += REPAIR_BATCH) {
+            List<Integer> batch = buckets.subList(from, Math.min(from + REPAIR_BATCH, buckets.size()));
+            StringBuilder names = new StringBuilder();
+            StringBuilder data = new StringBuilder();
+            for (int bucket : batch) {
+                names.append(names.length() == 0 ? "" : ",").append(bucket);
+                for (String key : tree.getKeys(bucket)) {
+                    if (this.appendPair(data, key)) {
+                        this.repairKeys.incrementAndGet();
+                    }
+                }
+            }
+            this.requestHandler.sendMessage(next, "Replica_Sync|" + names + "|" + data);
+        }
+        this.repairBuckets.addAndGet(buckets.size());
+        return buckets.size();
+    }
+
+    /**
+     * Returns hashes of the Merkle tree of the replicas.
+     * 
+     * @param indexes The indexes of the tree nodes, separated by commas.
+     * @return The hashes in the same order, separated by commas, or an error if
+     *         this node keeps no replicas.
+     */
+    public String getReplicaHashes(String indexes) {
+        if (this.replicaStore == null) {
+            return "Error: no replicas kept";
+        }
+        Merkle_Tree tree = this.replicaStore.getTree();
+        StringBuilder hashes = new StringBuilder();
+        for (String index : indexes.split(",")) {
+            hashes.append(hashes.length() == 0 ? "" : ",").append(tree.getHash(Integer.parseInt(index)));
+        }
+        return hashes.toString();
+    }
+
+    /**
+     * Replaces buckets of the replicas with the pairs sent by the predecessor: the
+     * keys of those buckets which were not sent are deleted.
+     * 
+     * @param buckets The buckets, separated by commas.
+     * @param data    The pairs of the buckets, as sent by appendPair.
+     * @return "Synced", or an error if this node keeps no replicas.
+     */
+    public String syncReplicaBuckets(String buckets, String data) {
+        if (this.replicaStore == null) {
+            return "Error: no replicas kept";
+        }
+        Set<String> sent = new HashSet<>();
+        for (String keyValue : data.split(":")) {
+            String[] parts = keyValue.split("\\|");
+            if (parts.length >= 2) {
+                this.replicaStore.restore(parts[0], parts[1], parts.length >= 3 ? Long.parseLong(parts[2]) : 0,
+                        parts.length >= 4 ? Long.parseLong(parts[3]) : 0);
+                sent.add(parts[0]);
+            }
+        }
+        for (String bucket : buckets.split(",")) {
+            for (String key : this.replicaStore.getTree().getKeys(Integer.parseInt(bucket))) {
+                if (!sent.contains(key)) {
+                    this.replicaStore.delete(key);
+                }
+            }
+        }
+        return "Synced";
+    }
+
+    /**
+     * Moves the replicas which fall in the range of this node to its own pairs, to
+     * recover the pairs of a predecessor which failed once the ring linked this
+     * node to the next predecessor.
+     * 
+     * @return The number of pairs taken over.
+     */
+    public int promoteReplicas() {
+        if (this.replicaStore == null) {
+            return 0;
+        }
+        int count = 0;
+        for (String key : this.replicaStore.keys()) {
+            String value = this.replicaStore.get(key);
+            if (value != null && this.isResponsible(keyId(key))) {
+                this.dataStore.restore(key, value, this.replicaStore.getTtl(key), this.replicaStore.getVersion(key));
+                this.replicaStore.delete(key);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Leaves the ring without losing keys: the node refuses writes, moves all its
+     * pairs to its successor with the rebalancer, links its predecessor and successor to
+     * each other, copies its blobs to the successor, and has the nodes whose
+     * fingers may point at it replace it by the successor, as in the update of
+     * the fingers when a node joins in the Chord paper. Reads are served until the
+     * neighbors are linked; the node then answers no request and can be stopped.
+     * Admission_Control only accepts Leave from the node's host and the operator
+     * addresses. Only claiming the departure holds the node's lock, so the requests
+     * served during the move, which may take long at the rebalancer's rate, are
+     * not held up by it.
+     * 
+     * @return A message giving the number of keys and blobs handed over.
+     */
+    public String leave() {
+        synchronized (this) {
+            if (this.leaving || this.left) {
+                return "Error: node already leaving";
+            }
+            this.leaving = true;
+        }
+        Ring_State state = this.getRing();
+        Peer next = state.successor;
+        if (next == null || this.isSelf(next)) {
+            this.left = true;
+            return "Left: last node of the ring, " + this.dataStore.size() + " keys dropped";
+        }
+        // Handing the pairs over through the rebalancer, at its rate, without waiting
+        // for the node to be idle as it is going away
+        int keys;
+        try {
+            keys = this.rebalancer.submit("leave:" + next.describe(), next, this.dataStore.keys(), false).get();
+        } catch (InterruptedException | ExecutionException e) {
+            this.leaving = false;
+            return "Error: successor did not take the keys, node stays";
+        }
+        // Linking the neighbors to each other
+        Peer previous = this.predecessor();
+        boolean alone = previous == null || this.isSelf(previous);
+        this.requestHandler.sendMessage(next, "Set_Predecessor|" + (alone ? "None" : previous.describe()));
+        if (!alone) {
+            this.requestHandler.sendMessage(previous, "Set_Successor|" + next.describe());
+        }
+        // Copying the blobs, now that the successor owns their keys
+        int blobs = 0;
+        try {
+            for (String key : this.blobStore.keys()) {
+                if (this.pushBlob(key, next)) {
+                    this.blobStore.delete(key);
+                    blobs++;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error handing blobs over: " + e.getMessage());
+        }
+        // Replacing this node in the fingers which may point at it: finger i of the
+        // predecessor of id - 2^i
+        Set<String> updated = new HashSet<>();
+        for (int i = 0; i < Finger_Table.M; i++) {
+            int target = (int) ((this.id - (long) Math.pow(2, i) + (long) Math.pow(2, Finger_Table.M))
+                    % (long) Math.pow(2, Finger_Table.M));
+            String owner = Lookup_Trace.strip(this.findPredecessor(target));
+            if (owner.equals("None") || owner.isEmpty() || owner.startsWith(this.nodeInfo.toString() + "|")
+                    || !updated.add(owner)) {
+                continue;
+            }
+            Peer node = Node.peer(owner);
+            this.requestHandler.sendMessage(node, "Replace_Node|" + this.nodeInfo + "|" + next.describe());
+        }
+        this.left = true;
+        // The successor holds the pairs now
+        for (String key : this.dataStore.keys()) {
+            this.dataStore.delete(key);
+        }
+        return "Left: " + keys + " keys and " + blobs + " blobs handed over to " + next.describe();
+    }
+
+    /**
+     * Copies a blob to another node, which must own its key.
+     * 
+     * @param key    The key of the blob.
+     * @param target The node to copy the blob to.
+     * @return True if the node stored the blob.
+     */
+    public boolean pushBlob(String key, Peer target) {
+        try (FileChannel file = this.blobStore.open(key)) {
+            if (file == null) {
+                return false;
+            }
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(target.ip, target.port))) {
+                Request_Reader reader = new Request_Reader(channel);
+                channel.write(ByteBuffer.wrap(("Put_Blob|" + key + "|" + file.size() + "\n")
+                        .getBytes(StandardCharsets.UTF_8)));
+                if (!"READY".equals(reader.readLine())) {
+                    return false;
+                }
+                Blob_Store.transfer(file, channel);
+                String stored = reader.readLine();
+                return stored != null && stored.startsWith("Stored");
+            }
+        } catch (IOException e) {
+            System.err.println("Error handing blob " + key + " over: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Replaces a node which left the ring in the finger table. If a finger changed,
+     * the predecessor may point at the node as well, so the change is passed on to
+     * it.
+     * 
+     * @param nodeInfo        The address of the node which left, as "ip|port".
+     * @param replacementInfo The successor of the node which left, as
+     *                        "ip|port|id".
+     * @return "Replaced" if a finger changed, "Unchanged" otherwise.
+     */
+    public String replaceNode(String nodeInfo, String replacementInfo) {
+        if (!this.fingerTable.replace(nodeInfo, Node.peer(replacementInfo))) {
+            return "Unchanged";
+        }
+        Peer previous = this.predecessor();
+        if (previous != null && !previous.isAt(nodeInfo) && !this.isSelf(previous)) {
+            this.requestHandler.sendMessage(previous, "Replace_Node|" + nodeInfo + "|" + replacementInfo);
+        }
+        return "Replaced";
+    }
+
     /**
      * Returns the successor node's information.
      * If the successor does not exist, returns "None".
@@ -1097,10 +3963,11 @@ public class Node {
      * @return A string representation of the successor node's information.
      */
     public String getSuccessor() {
+        Peer successor = this.successor();
         if (successor == null) {
             return "None";
         }
-        return successor.nodeInfo.toString();
+        return successor.describe();
     }
 
     /**
@@ -1110,10 +3977,11 @@ public class Node {
      * @return A string representation of the predecessor node's information.
      */
     public String getPredecessor() {
+        Peer predecessor = this.predecessor();
         if (predecessor == null) {
             return "None";
         }
-        return predecessor.nodeInfo.toString();
+        return predecessor.describe();
     }
 
     /**
@@ -1201,22 +4069,28 @@ public class Node {
     public static void main(String[] args) {
 
         String ip = "192.168.240.106";
+        Node[] started = new Node[1];
+        // Leaving the ring gracefully when the process is stopped, so no key is lost
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (started[0] != null && !started[0].left) {
+                System.out.println(started[0].leave());
+            }
+        }));
 
         if (args.length == 2) {
             // Joining an existing ring
             System.out.println("Joining Ring");
             Node node = new Node(ip, Integer.parseInt(args[0]));
             node.join(ip, Integer.parseInt(args[1]));
+            started[0] = node;
             node.start();
         } else if (args.length == 1) {
             // Creating a new ring
             System.out.println("CREATING RING: ");
             Node node = new Node(ip, Integer.parseInt(args[0]));
             // Set predecessor and successor for the first node
-            node.predecessor = new Node(ip, Integer.parseInt(args[0]));
-            node.successor = new Node(ip, Integer.parseInt(args[0]));
-            // Update finger table
-            node.fingerTable.table.get(0).setNode(node.successor);
+            node.setNeighbors(node.self(), node.self());
+            started[0] = node;
             node.start();
         } else {
             System.out.println("Invalid arguments. Usage: java Main <port> [existing_node_port]");
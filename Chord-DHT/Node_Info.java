@@ -0,0 +1,40 @@
+/*
+ * Class representing actual information about the Node in the DHT Ring, stores
+ * IP and port of a node.
+ * 
+ * Constructor:
+ * - Node_Info(): Initializes IP and port of the Node.
+ * 
+ * Methods:
+ * - toString(): An overridden function of the Object class, converts the object
+ * to a string.
+ */
+class Node_Info {
+
+    // Declare IP address and Port Number
+    public String ip;
+    public int port;
+
+    /**
+     * Initializes Node_Info with the given IP address and port number.
+     *
+     * @param ip   The IP address of the node.
+     * @param port The port number of the node.
+     */
+    public Node_Info(String ip, int port) {
+        this.ip = ip;
+        this.port = port;
+    }
+
+    /**
+     * Combines the IP address and the port number as a string.
+     *
+     * @return A string representation of the IP address and port number.
+     */
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(this.ip).append("|").append(this.port);
+        return buffer.toString();
+    }
+
+}
@@ -0,0 +1,140 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Class representing a reference to another node: its address and its ID, all
+ * a node needs to route to it. References are immutable and interned by
+ * "ip|port|id", so the successor, the predecessor and the fingers share them,
+ * and parsing the same "ip|port|id" again returns the same reference without
+ * hashing the address; what follows the ID in a response, such as a trace
+ * annotation, is not part of the key. A node which changes its ID gets a new
+ * reference. Once the table is full, an arbitrary reference is dropped from it
+ * for each new one, so the others stay shared.
+ *
+ * References carry no connection: requests between nodes go through the
+ * transport of the sending node, while a reference is shared by all the nodes
+ * of the process, as in the simulator.
+ * 
+ * The address string "ip|port" is kept with the reference, as the request
+ * handler keys its round trip times and compression state by it.
+ * 
+ * Methods:
+ * - of(ip, port, id): Returns the reference to a node whose ID is known.
+ * - of(info): Returns the reference to a node from "ip|port|id" or "ip|port".
+ * - describe(): Returns the information of the node, "ip|port|id".
+ * - getId(): Returns the ID of the node as a string.
+ * - isAt(address): Checks whether the node has the given "ip|port" address.
+ */
+final class Peer {
+
+    // Number of references kept, well above the size of the fingers, successors
+    // and candidates of a node
+    private static final int MAX_INTERNED = 4096;
+    private static final Map<String, Peer> INTERNED = new ConcurrentHashMap<>();
+
+    public final String ip;
+    public final int port;
+    public final int id;
+    public final Node_Info nodeInfo;
+    public final String address; // "ip|port"
+    private final String info; // "ip|port|id"
+
+    private Peer(String ip, int port, int id) {
+        this.ip = ip;
+        this.port = port;
+        this.id = id;
+        this.nodeInfo = new Node_Info(ip, port);
+        this.address = ip + "|" + port;
+        this.info = this.address + "|" + id;
+    }
+
+    /**
+     * Returns the reference to a node whose ID is known.
+     *
+     * @param ip   The IP address of the node.
+     * @param port The port of the node.
+     * @param id   The ID of the node.
+     * @return The reference.
+     */
+    public static Peer of(String ip, int port, int id) {
+        String info = ip + "|" + port + "|" + id;
+        Peer peer = INTERNED.get(info);
+        return peer != null ? peer : intern(info, new Peer(ip, port, id));
+    }
+
+    /**
+     * Returns the reference to a node from its information, "ip|port|id",
+     * ignoring what follows the ID. Without an ID, as sent by older nodes, the ID
+     * is the hash of the address.
+     *
+     * @param info The information of the node.
+     * @return The reference.
+     */
+    public static Peer of(String info) {
+        info = info.trim();
+        // Looking the reference up by its first three fields only
+        int portEnd = info.indexOf('|', info.indexOf('|') + 1);
+        int idEnd = portEnd < 0 ? -1 : info.indexOf('|', portEnd + 1);
+        String key = idEnd < 0 ? info : info.substring(0, idEnd);
+        Peer peer = INTERNED.get(key);
+        if (peer != null) {
+            return peer;
+        }
+        String[] parts = key.split("\\|");
+        String ip = parts[0];
+        int port = Integer.parseInt(parts[1]);
+        int id = -1;
+        if (parts.length > 2) {
+            try {
+                id = Integer.parseInt(parts[2]);
+            } catch (NumberFormatException e) {
+                // Not an ID, such as a trace annotation
+            }
+        }
+        if (id < 0) {
+            id = Node.hash(ip + "|" + port);
+        }
+        return of(ip, port, id);
+    }
+
+    private static Peer intern(String info, Peer peer) {
+        if (INTERNED.size() >= MAX_INTERNED) {
+            // Making room by dropping one reference; references still in use stay
+            // valid, the dropped one is only no longer shared
+            Iterator<String> keys = INTERNED.keySet().iterator();
+            if (keys.hasNext()) {
+                INTERNED.remove(keys.next());
+            }
+        }
+        Peer interned = INTERNED.putIfAbsent(info, peer);
+        return interned != null ? interned : peer;
+    }
+
+    /**
+     * Returns the information of the node as sent to other nodes, "ip|port|id".
+     *
+     * @return The information of the node.
+     */
+    public String describe() {
+        return info;
+    }
+
+    public String getId() {
+        return String.valueOf(id);
+    }
+
+    /**
+     * Checks whether the node has the given address.
+     *
+     * @param otherAddress The address, "ip|port".
+     * @return True if the address is the node's.
+     */
+    public boolean isAt(String otherAddress) {
+        return address.equals(otherAddress);
+    }
+
+    public String toString() {
+        return info;
+    }
+
+}
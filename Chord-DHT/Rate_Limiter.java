@@ -0,0 +1,95 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Class limiting the rate of requests per name, such as the address of a
+ * client, with one token bucket per name.
+ * 
+ * Each bucket is a single number, the time at which it would be full again
+ * (the generic cell rate algorithm): a request takes a token by moving that
+ * time one interval forward, which is refused if it would end up more than a
+ * burst ahead of now. The move is a compare-and-set, so callers never lock and
+ * the limiter does not become a point of contention itself.
+ * 
+ * Constructor:
+ * - Rate_Limiter(name, ratePerSecond, burst): Initializes a limiter.
+ * 
+ * Methods:
+ * - tryAcquire(name): Takes a token from the bucket of a name.
+ * - getMetrics(): Returns the number of refused requests.
+ */
+class Rate_Limiter {
+
+    // Number of buckets kept; beyond it, the full buckets are dropped, as they
+    // would start full again anyway
+    private static final int MAX_BUCKETS = 65536;
+
+    private final String name; // Name of the counter of refused requests
+    private final long intervalNanos; // Time for one token to come back
+    private final long burstNanos; // How far ahead of now a bucket may be
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong rejected = new AtomicLong();
+    // Earliest time of the next sweep of the full buckets
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+
+    /**
+     * Initializes a limiter.
+     *
+     * @param name          The name of the counter of refused requests.
+     * @param ratePerSecond The number of requests allowed per second and name.
+     * @param burst         The number of requests allowed at once after an idle
+     *                      time, at least 1.
+     */
+    public Rate_Limiter(String name, double ratePerSecond, int burst) {
+        this.name = name;
+        this.intervalNanos = (long) (1_000_000_000L / ratePerSecond);
+        this.burstNanos = this.intervalNanos * (Math.max(1, burst) - 1);
+    }
+
+    /**
+     * Takes a token from the bucket of a name. A new name is refused while the
+     * limiter holds MAX_BUCKETS buckets none of which is full, so that sending many
+     * names never resets the buckets of the others.
+     *
+     * @param key The name, such as the address of a client.
+     * @return True if the request may go on, false if the bucket is empty.
+     */
+    public boolean tryAcquire(String key) {
+        long now = System.nanoTime();
+        AtomicLong full = this.buckets.get(key);
+        if (full == null) {
+            if (this.buckets.size() >= MAX_BUCKETS && !this.sweep(now)) {
+                this.rejected.incrementAndGet();
+                return false;
+            }
+            full = this.buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+        while (true) {
+            long current = full.get();
+            long next = Math.max(current, now);
+            if (next - now > this.burstNanos) {
+                this.rejected.incrementAndGet();
+                return false;
+            }
+            if (full.compareAndSet(current, next + this.intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    // Drops the buckets which are full again, at most once per interval, and
+    // returns whether there is room for a new one
+    private boolean sweep(long now) {
+        long next = this.nextSweep.get();
+        if (now - next >= 0 && this.nextSweep.compareAndSet(next, now + Math.max(this.intervalNanos, 1_000_000L))) {
+            this.buckets.values().removeIf(full -> full.get() - now <= 0);
+        }
+        return this.buckets.size() < MAX_BUCKETS;
+    }
+
+    public String getMetrics() {
+        return this.name + "=" + this.rejected.get();
+    }
+
+}
@@ -0,0 +1,116 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Class to read a request from a connection without buffering past what is
+ * consumed: header lines are read through a small buffer, and the raw body of
+ * a blob that follows is moved straight from the connection to a file.
+ *
+ * Constructor:
+ * - Request_Reader(channel): Reads from the given channel.
+ * - Request_Reader(channel, bulk): Reads the lines from a channel and the
+ * transfers to files from another.
+ *
+ * Methods:
+ * - readLine(): Reads the next line of text.
+ * - transferTo(file, count): Moves the next bytes of the connection to a file.
+ */
+class Request_Reader {
+
+    private final ReadableByteChannel channel;
+    private final ReadableByteChannel bulk; // Channel the large transfers read from
+    private final ByteBuffer buffer; // Bytes read from the channel and not consumed yet
+
+    /**
+     * Initializes a reader on a channel.
+     *
+     * @param channel The channel of the connection.
+     */
+    public Request_Reader(ReadableByteChannel channel) {
+        this(channel, channel);
+    }
+
+    /**
+     * Initializes a reader reading the lines from one channel and the transfers to
+     * files from another channel of the same connection, such as the stream of a
+     * socket, which honors its read timeout, and its socket channel, which files
+     * can read from without copying.
+     *
+     * @param channel The channel the lines are read from.
+     * @param bulk    The channel the transfers to files read from.
+     */
+    public Request_Reader(ReadableByteChannel channel, ReadableByteChannel bulk) {
+        this.channel = channel;
+        this.bulk = bulk;
+        this.buffer = ByteBuffer.allocate(8192);
+        this.buffer.flip();
+    }
+
+    /**
+     * Reads the next line of text, decoded as UTF-8.
+     *
+     * @return The line without its line terminator, or null at the end of the
+     *         stream.
+     * @throws IOException If the connection fails.
+     */
+    public String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    return decode(line);
+                }
+                line.write(b);
+            }
+            buffer.clear();
+            int read = channel.read(buffer);
+            buffer.flip();
+            if (read < 0) {
+                return line.size() == 0 ? null : decode(line);
+            }
+        }
+    }
+
+    private static String decode(ByteArrayOutputStream line) {
+        String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    /**
+     * Moves the next bytes of the connection to a file, starting with the bytes
+     * already buffered.
+     *
+     * @param file  The file to write, from its start.
+     * @param count The number of bytes to move.
+     * @throws IOException If the connection ends early or fails.
+     */
+    public void transferTo(FileChannel file, long count) throws IOException {
+        long position = 0;
+        while (position < count) {
+            if (buffer.hasRemaining()) {
+                ByteBuffer part = buffer.duplicate();
+                part.limit(part.position() + (int) Math.min(part.remaining(), count - position));
+                int written = file.write(part, position);
+                buffer.position(buffer.position() + written);
+                position += written;
+                continue;
+            }
+            long moved = file.transferFrom(bulk, position, count - position);
+            if (moved > 0) {
+                position += moved;
+                continue;
+            }
+            // Nothing moved: read to tell a slow sender from the end of the stream
+            buffer.clear();
+            int read = bulk.read(buffer);
+            buffer.flip();
+            if (read < 0) {
+                throw new EOFException("Connection closed after " + position + " of " + count + " bytes");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Represents the neighbors of a node on the ring: its predecessor and its
+ * successor, with the version of the state.
+ *
+ * A state never changes once published. The node replaces it as a whole, with
+ * the next version, each time a neighbor changes, so routing, metrics and the
+ * GUI read both neighbors from one state without locks while stabilization and
+ * notifications update them. An update made from a state which is no longer
+ * the current one is refused, so a decision taken on old neighbors is dropped
+ * instead of overwriting a newer one.
+ *
+ * Constructor:
+ * - Ring_State(predecessor, successor, version): Constructs a state.
+ *
+ * Methods:
+ * - withPredecessor(predecessor): Returns the next state with another predecessor.
+ * - withSuccessor(successor): Returns the next state with another successor.
+ * - with(predecessor, successor): Returns the next state with other neighbors.
+ * - describe(): Returns the state as "version|predecessor ID|successor ID".
+ */
+final class Ring_State {
+
+    // State of a node which is not part of a ring yet
+    public static final Ring_State EMPTY = new Ring_State(null, null, 0);
+
+    public final Peer predecessor; // Or null if not known
+    public final Peer successor; // Or null before the node joined
+    public final long version; // Number of changes of the neighbors
+
+    /**
+     * Constructs a state.
+     *
+     * @param predecessor The predecessor, or null.
+     * @param successor   The successor, or null.
+     * @param version     The version of the state.
+     */
+    public Ring_State(Peer predecessor, Peer successor, long version) {
+        this.predecessor = predecessor;
+        this.successor = successor;
+        this.version = version;
+    }
+
+    public Ring_State withPredecessor(Peer predecessor) {
+        return with(predecessor, this.successor);
+    }
+
+    public Ring_State withSuccessor(Peer successor) {
+        return with(this.predecessor, successor);
+    }
+
+    public Ring_State with(Peer predecessor, Peer successor) {
+        return new Ring_State(predecessor, successor, this.version + 1);
+    }
+
+    /**
+     * Returns the state as "version|predecessor ID|successor ID", "None" standing
+     * for a missing neighbor.
+     *
+     * @return The state.
+     */
+    public String describe() {
+        return version + "|" + (predecessor == null ? "None" : predecessor.getId()) + "|"
+                + (successor == null ? "None" : successor.getId());
+    }
+
+}
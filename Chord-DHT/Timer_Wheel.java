@@ -0,0 +1,128 @@
+import java.util.*;
+
+/*
+ * Class to schedule deadlines on a hierarchical timer wheel. Time advances in
+ * ticks; each of the LEVELS wheels has SLOTS slots, a slot of level l covering
+ * SLOTS^l ticks. A deadline goes to the lowest level whose span, SLOTS^(l+1)
+ * ticks, reaches it from the current tick, so scheduling is a constant time
+ * insertion whatever the delay. When the lower levels complete a turn, the next
+ * slot of the level above is emptied and its deadlines go down to the levels
+ * below, until they land in a slot of level 0 and fire with it. Deadlines beyond
+ * the span of the top level wait in its furthest slot and are placed again when
+ * it is emptied.
+ *
+ * Constructor:
+ * - Timer_Wheel(tickMillis, now): Initializes an empty wheel at the given time.
+ *
+ * Methods:
+ * - schedule(key, deadline): Schedules a deadline for a key.
+ * - advance(now): Returns the deadlines which passed since the last call.
+ * - size(): Returns the number of scheduled deadlines.
+ */
+class Timer_Wheel {
+
+    public static final long DEFAULT_TICK_MILLIS = 100;
+    public static final int SLOT_BITS = 6;
+    public static final int SLOTS = 1 << SLOT_BITS; // Slots of each level
+    public static final int LEVELS = 4; // 64^4 ticks, 19 days with ticks of 100 ms
+
+    private final long tickMillis;
+    private final List<List<Map.Entry<String, Long>>> slots; // Slot s of level l at index l * SLOTS + s
+    private long currentTick; // Tick whose deadlines fired last
+    private int size;
+
+    /**
+     * Initializes an empty wheel.
+     *
+     * @param tickMillis The duration of a tick, the precision of the deadlines.
+     * @param now        The current time in milliseconds since the epoch.
+     */
+    public Timer_Wheel(long tickMillis, long now) {
+        this.tickMillis = Math.max(1, tickMillis);
+        this.slots = new ArrayList<>();
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            this.slots.add(new ArrayList<>());
+        }
+        this.currentTick = now / this.tickMillis;
+        this.size = 0;
+    }
+
+    /**
+     * Schedules a deadline for a key. A deadline already passed fires at the next
+     * tick.
+     *
+     * @param key      The key.
+     * @param deadline The deadline in milliseconds since the epoch.
+     */
+    public synchronized void schedule(String key, long deadline) {
+        place(new AbstractMap.SimpleImmutableEntry<>(key, deadline), currentTick + 1);
+        size++;
+    }
+
+    /**
+     * Puts a deadline in the slot of the lowest level whose span reaches it from
+     * the current tick. The distance decides the level, not the turn the tick falls
+     * in, so a deadline just past the end of a turn of the top level is not held
+     * back for a whole turn.
+     *
+     * @param timer   The key and its deadline.
+     * @param minTick The first tick the deadline may fire at.
+     */
+    private void place(Map.Entry<String, Long> timer, long minTick) {
+        // Rounding up, so a deadline never fires early
+        long tick = Math.max((timer.getValue() + tickMillis - 1) / tickMillis, minTick);
+        long distance = tick - currentTick;
+        if (distance >= 1L << (SLOT_BITS * LEVELS)) {
+            // Beyond the span of the top level: waiting in its furthest slot, which is
+            // emptied before the deadline, to be placed again then
+            tick = currentTick + (1L << (SLOT_BITS * LEVELS)) - 1;
+            distance = tick - currentTick;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && distance >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        // A slot of a level above 0 is emptied at the start of its block of
+        // SLOTS^level ticks, which comes after the current tick and before the tick,
+        // since the distance is at least SLOTS^level and less than SLOTS^(level+1)
+        int slot = (int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        slots.get(level * SLOTS + slot).add(timer);
+    }
+
+    /**
+     * Advances the wheel to the current time, returning the deadlines which passed.
+     *
+     * @param now The current time in milliseconds since the epoch.
+     * @return The keys and their deadlines.
+     */
+    public synchronized List<Map.Entry<String, Long>> advance(long now) {
+        List<Map.Entry<String, Long>> due = new ArrayList<>();
+        long target = now / tickMillis;
+        while (currentTick < target) {
+            currentTick++;
+            // Emptying the slots of the upper levels starting a new turn, top first
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    List<Map.Entry<String, Long>> slot = slots.get(
+                            level * SLOTS + (int) ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1)));
+                    List<Map.Entry<String, Long>> timers = new ArrayList<>(slot);
+                    slot.clear();
+                    for (Map.Entry<String, Long> timer : timers) {
+                        place(timer, currentTick);
+                    }
+                }
+            }
+            // Firing the slot of level 0
+            List<Map.Entry<String, Long>> slot = slots.get((int) (currentTick & (SLOTS - 1)));
+            due.addAll(slot);
+            size -= slot.size();
+            slot.clear();
+        }
+        return due;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+}
@@ -0,0 +1,86 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/*
+ * Class checking that the timer wheel fires every deadline at the first tick
+ * reaching it, neither early nor late, including deadlines crossing the end of
+ * a turn of the top level and deadlines beyond its span.
+ *
+ * Run with: javac *.java && java Timer_Wheel_Test
+ *
+ * Methods:
+ * - main(args): Runs the checks, exiting with status 1 if one fails.
+ */
+public class Timer_Wheel_Test {
+
+    // Ticks of a whole turn of the top level
+    private static final long TURN = 1L << (Timer_Wheel.SLOT_BITS * Timer_Wheel.LEVELS);
+
+    public static void main(String[] args) {
+        int failures = 0;
+        failures += check("short deadline", 1000, new long[] { 1500 });
+        // The deadline falls in the next turn of the top level
+        failures += check("deadline crossing a turn of the top level", TURN - 10, new long[] { 1500 });
+        // The same at every level, just before the end of a block
+        for (int level = 1; level < Timer_Wheel.LEVELS; level++) {
+            long block = 1L << (Timer_Wheel.SLOT_BITS * level);
+            failures += check("deadline crossing a block of level " + level, 7 * block - 1,
+                    new long[] { 1, 2, block, block + 1, 3 * block });
+        }
+        failures += check("deadline beyond the top level", 12345, new long[] { TURN + 777, 2 * TURN + 3 });
+        // Random deadlines from random starting ticks
+        Random random = new Random(1);
+        for (int round = 0; round < 20; round++) {
+            long start = random.nextLong() & ((1L << 40) - 1);
+            long[] delays = new long[50];
+            for (int i = 0; i < delays.length; i++) {
+                delays[i] = 1 + (long) (Math.pow(random.nextDouble(), 4) * TURN / 4);
+            }
+            failures += check("random deadlines " + round, start, delays);
+        }
+        System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Schedules deadlines on a wheel of 1 ms ticks and advances it one tick at a
+     * time, checking that each deadline fires at its own tick.
+     *
+     * @param name   The name of the check.
+     * @param start  The starting time in milliseconds.
+     * @param delays The delays of the deadlines from the starting time.
+     * @return 0 if the check passed, 1 otherwise.
+     */
+    private static int check(String name, long start, long[] delays) {
+        Timer_Wheel wheel = new Timer_Wheel(1, start);
+        Map<String, Long> pending = new HashMap<>();
+        long last = start;
+        for (int i = 0; i < delays.length; i++) {
+            pending.put("k" + i, start + delays[i]);
+            wheel.schedule("k" + i, start + delays[i]);
+            last = Math.max(last, start + delays[i]);
+        }
+        List<String> errors = new ArrayList<>();
+        for (long now = start + 1; now <= last && errors.isEmpty(); now++) {
+            for (Map.Entry<String, Long> due : wheel.advance(now)) {
+                if (due.getValue() != now) {
+                    errors.add(due.getKey() + " due at " + due.getValue() + " fired at " + now);
+                }
+                pending.remove(due.getKey());
+            }
+        }
+        for (Map.Entry<String, Long> left : pending.entrySet()) {
+            errors.add(left.getKey() + " due at " + left.getValue() + " never fired");
+        }
+        if (wheel.size() != 0) {
+            errors.add(wheel.size() + " deadlines left in the wheel");
+        }
+        System.out.println((errors.isEmpty() ? "PASS " : "FAIL ") + name
+                + (errors.isEmpty() ? "" : ": " + errors.subList(0, Math.min(3, errors.size()))));
+        return errors.isEmpty() ? 0 : 1;
+    }
+
+}
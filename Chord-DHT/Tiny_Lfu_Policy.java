@@ -0,0 +1,32 @@
+/*
+ * Class to evict the least recently used key, but only for a new key which is
+ * more frequent than it, in the manner of W-TinyLFU admission: the recent
+ * frequency of every key written or read is estimated with a count-min sketch,
+ * so a burst of keys seen once does not flush the keys read often.
+ * 
+ * Constructor:
+ * - Tiny_Lfu_Policy(capacity): Initializes an empty policy whose sketch is sized
+ * for the given number of keys.
+ */
+class Tiny_Lfu_Policy extends Lru_Policy {
+
+    private final Count_Min_Sketch frequencies;
+
+    public Tiny_Lfu_Policy(int capacity) {
+        this.frequencies = new Count_Min_Sketch(Math.max(64, capacity));
+    }
+
+    public synchronized void onAccess(String key) {
+        frequencies.add(key);
+        super.onAccess(key);
+    }
+
+    public boolean admit(String candidate, String victim) {
+        return frequencies.estimate(candidate) > frequencies.estimate(victim);
+    }
+
+    public String getName() {
+        return "tinylfu";
+    }
+
+}
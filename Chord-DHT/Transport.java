@@ -0,0 +1,56 @@
+import java.io.*;
+
+/*
+ * Interface for the transport used by a node to exchange messages with other
+ * nodes and to serve incoming requests.
+ * 
+ * Methods:
+ * - sendMessage(ip, port, message): Sends a message to the provided address and
+ * returns the response.
+ * - post(ip, port, message): Sends a message to the provided address without
+ * waiting for it to be handled.
+ * - listen(node): Serves incoming requests for the given node.
+ * - nanoTime(): Returns the clock used to time the messages.
+ */
+interface Transport {
+
+    /**
+     * Sends a message to the provided address and waits for the response.
+     *
+     * @param ip      The IP address of the destination.
+     * @param port    The port number of the destination.
+     * @param message The message to be sent.
+     * @return The response received from the destination, or an empty string if an
+     *         error occurs or no response is received.
+     */
+    String sendMessage(String ip, int port, String message);
+
+    /**
+     * Sends a message to the provided address without waiting for it to be
+     * handled. The response, if any, is dropped, and a message which cannot be
+     * delivered is lost.
+     *
+     * @param ip      The IP address of the destination.
+     * @param port    The port number of the destination.
+     * @param message The message to be sent.
+     */
+    void post(String ip, int port, String message);
+
+    /**
+     * Serves incoming requests for the given node. Implementations may block for
+     * as long as the node is serving.
+     *
+     * @param node The node whose requests are served.
+     * @throws IOException If the node cannot be reached through this transport.
+     */
+    void listen(Node node) throws IOException;
+
+    /**
+     * Returns the current time of the clock the transport delivers messages by,
+     * used to measure round trip times.
+     *
+     * @return The time in nanoseconds.
+     */
+    long nanoTime();
+
+}